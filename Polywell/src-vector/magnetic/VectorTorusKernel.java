@@ -0,0 +1,158 @@
+package magnetic;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import utilities.DoubleMatrix;
+import utilities.RigidTransform;
+
+/**
+ * Fused Biot-Savart integrand for tori across the SIMD lanes of the JDK Vector API. Each group of
+ * samples is kept in registers while the current of every torus is accumulated, with torus membership
+ * applied as a lane mask, and then crossed with the displacement to the field point. The arithmetic is
+ * the same as in the scalar loops of {@link TorusBiotSavartKernel}, operation for operation, so both
+ * give the same result.
+ * <p>
+ * This class is kept in its own source root because it needs the incubator module. Compile it on JDK
+ * 16 or later with {@code --add-modules jdk.incubator.vector} against the main classes and run with the
+ * same option, and TorusBiotSavartKernel will pick it up. Without it the scalar loops are used.
+ * @author Ryan Dewey
+ */
+final class VectorTorusKernel implements TorusBiotSavartKernel.Kernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	private final int count;
+	// Rotation into the frame of each torus, row-major, and translation
+	private final double[] rotation;
+	private final double[] translation;
+	private final double[] radius;
+	private final double[] thickness2;
+	private final double[] magnitude;
+	// Magnitude divided by the norm of the direction, for tori centered on their axis
+	private final double[] axisScale;
+	private final double[] direction;
+	private final boolean[] centeredOnAxis;
+	
+	/**
+	 * Creates a kernel for the given tori
+	 */
+	VectorTorusKernel(TorusDensityFunction[] tori) {
+		count = tori.length;
+		rotation = new double[9 * count];
+		translation = new double[3 * count];
+		radius = new double[count];
+		thickness2 = new double[count];
+		magnitude = new double[count];
+		axisScale = new double[count];
+		direction = new double[3 * count];
+		centeredOnAxis = new boolean[count];
+		for (int t = 0; t < count; t++) {
+			TorusGeometry geometry = tori[t].getGeometry();
+			RigidTransform toLocal = tori[t].getToLocal();
+			DoubleMatrix matrix = toLocal.getRotation();
+			for (int a = 0; a < 3; a++) {
+				for (int b = 0; b < 3; b++) {
+					rotation[9 * t + 3 * a + b] = matrix.getValue(a, b);
+				}
+				translation[3 * t + a] = toLocal.getTranslation().getValue(a);
+				direction[3 * t + a] = geometry.getDirection().getValue(a);
+			}
+			radius[t] = geometry.getRadius();
+			thickness2[t] = geometry.getThickness() * geometry.getThickness();
+			magnitude[t] = geometry.getMagnitude();
+			axisScale[t] = magnitude[t] / geometry.getDirection().norm();
+			centeredOnAxis[t] = tori[t].isCenteredOnAxis();
+		}
+	}
+	
+	@Override
+	public void apply(double fx, double fy, double fz, double[] x, double[] y, double[] z, int from, int to, 
+			double[] resultX, double[] resultY, double[] resultZ) {
+		int bound = from + SPECIES.loopBound(to - from);
+		int i = from;
+		for (; i < bound; i += SPECIES.length()) {
+			apply(fx, fy, fz, x, y, z, i, null, resultX, resultY, resultZ);
+		}
+		if (i < to) {
+			apply(fx, fy, fz, x, y, z, i, SPECIES.indexInRange(i, to), resultX, resultY, resultZ);
+		}
+	}
+	
+	/**
+	 * Evaluates the integrand at the lanes of one group of samples starting at i
+	 * @param lanes lanes which hold samples, or null if every lane does
+	 */
+	private void apply(double fx, double fy, double fz, double[] x, double[] y, double[] z, int i, 
+			VectorMask<Double> lanes, double[] resultX, double[] resultY, double[] resultZ) {
+		DoubleVector px;
+		DoubleVector py;
+		DoubleVector pz;
+		if (lanes == null) {
+			px = DoubleVector.fromArray(SPECIES, x, i);
+			py = DoubleVector.fromArray(SPECIES, y, i);
+			pz = DoubleVector.fromArray(SPECIES, z, i);
+		} else {
+			px = DoubleVector.fromArray(SPECIES, x, i, lanes);
+			py = DoubleVector.fromArray(SPECIES, y, i, lanes);
+			pz = DoubleVector.fromArray(SPECIES, z, i, lanes);
+		}
+		DoubleVector zero = DoubleVector.zero(SPECIES);
+		DoubleVector jx = zero;
+		DoubleVector jy = zero;
+		DoubleVector jz = zero;
+		for (int t = 0; t < count; t++) {
+			int r = 9 * t;
+			// Position in the frame of the torus
+			DoubleVector u = px.mul(rotation[r]).add(py.mul(rotation[r + 1])).add(pz.mul(rotation[r + 2]))
+					.add(translation[3 * t]);
+			DoubleVector v = px.mul(rotation[r + 3]).add(py.mul(rotation[r + 4])).add(pz.mul(rotation[r + 5]))
+					.add(translation[3 * t + 1]);
+			DoubleVector w = px.mul(rotation[r + 6]).add(py.mul(rotation[r + 7])).add(pz.mul(rotation[r + 8]))
+					.add(translation[3 * t + 2]);
+			// Distance from the axis and membership mask
+			DoubleVector axial = u.mul(u).add(v.mul(v)).lanewise(VectorOperators.SQRT);
+			DoubleVector ringRadial = axial.sub(radius[t]);
+			VectorMask<Double> inside = DoubleVector.broadcast(SPECIES, thickness2[t])
+					.sub(ringRadial.mul(ringRadial)).sub(w.mul(w)).compare(VectorOperators.GT, 0);
+			// Current direction, direction x point
+			double ax = direction[3 * t];
+			double ay = direction[3 * t + 1];
+			double az = direction[3 * t + 2];
+			DoubleVector cx = pz.mul(ay).sub(py.mul(az));
+			DoubleVector cy = px.mul(az).sub(pz.mul(ax));
+			DoubleVector cz = py.mul(ax).sub(px.mul(ay));
+			DoubleVector scale;
+			if (centeredOnAxis[t]) {
+				scale = DoubleVector.broadcast(SPECIES, axisScale[t]).div(axial.max(Double.MIN_NORMAL));
+			} else {
+				DoubleVector norm2 = cx.mul(cx).add(cy.mul(cy)).add(cz.mul(cz));
+				scale = DoubleVector.broadcast(SPECIES, magnitude[t])
+						.div(norm2.max(Double.MIN_NORMAL).lanewise(VectorOperators.SQRT));
+			}
+			scale = zero.blend(scale, inside);
+			jx = jx.add(cx.mul(scale));
+			jy = jy.add(cy.mul(scale));
+			jz = jz.add(cz.mul(scale));
+		}
+		// Cross with the displacement to the field point
+		DoubleVector rx = DoubleVector.broadcast(SPECIES, fx).sub(px);
+		DoubleVector ry = DoubleVector.broadcast(SPECIES, fy).sub(py);
+		DoubleVector rz = DoubleVector.broadcast(SPECIES, fz).sub(pz);
+		DoubleVector r2 = rx.mul(rx).add(ry.mul(ry)).add(rz.mul(rz))
+				.max(TorusBiotSavartKernel.MIN_DISTANCE_SQUARED);
+		DoubleVector scale = DoubleVector.broadcast(SPECIES, 1).div(r2.mul(r2.lanewise(VectorOperators.SQRT)));
+		DoubleVector bx = jy.mul(rz).sub(jz.mul(ry)).mul(scale);
+		DoubleVector by = jz.mul(rx).sub(jx.mul(rz)).mul(scale);
+		DoubleVector bz = jx.mul(ry).sub(jy.mul(rx)).mul(scale);
+		if (lanes == null) {
+			bx.intoArray(resultX, i);
+			by.intoArray(resultY, i);
+			bz.intoArray(resultZ, i);
+		} else {
+			bx.intoArray(resultX, i, lanes);
+			by.intoArray(resultY, i, lanes);
+			bz.intoArray(resultZ, i, lanes);
+		}
+	}
+}
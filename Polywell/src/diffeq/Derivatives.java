@@ -0,0 +1,15 @@
+package diffeq;
+
+/**
+ * Derivative function of an ODE system which writes its result into a caller supplied array
+ * @author Ryan Dewey
+ */
+public interface Derivatives {
+	/**
+	 * Computes the derivative of the state at the given time
+	 * @param x current state
+	 * @param t current time
+	 * @param result array to store the derivative of each state element in
+	 */
+	public void apply(double[] x, double t, double[] result);
+}
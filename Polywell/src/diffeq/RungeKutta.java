@@ -21,18 +21,81 @@ public class RungeKutta {
 	 * @return next state vector
 	 */
 	public static DoubleVector rungeKutta4(DoubleVector x, double t, double tau, 
-			Function<Pair<DoubleVector, Double>, DoubleVector> derivs) {
+			final Function<Pair<DoubleVector, Double>, DoubleVector> derivs) {
+		double[] state = x.toArray();
+		rungeKutta4(state, t, tau, new Derivatives() {
+			@Override
+			public void apply(double[] x, double t, double[] result) {
+				DoubleVector f = derivs.apply(Pair.of(new DoubleVector(x), t));
+				for (int i = 0; i < result.length; i++) {
+					result[i] = f.getValue(i);
+				}
+			}
+		}, new Workspace(state.length));
+		return new DoubleVector(state);
+	}
+	
+	/**
+	 * Advances the given state by one 4th order runge kutta step without allocating.
+	 * @param x current state, replaced by the next state
+	 * @param t current time
+	 * @param tau current timestep
+	 * @param derivs derivative function
+	 * @param work scratch space of the same dimension as the state
+	 */
+	public static void rungeKutta4(double[] x, double t, double tau, Derivatives derivs, Workspace work) {
+		int dim = x.length;
+		if (work.dim != dim) {
+			throw new IllegalArgumentException("Workspace must be the same size as the state");
+		}
+		double[] f1 = work.f1;
+		double[] f2 = work.f2;
+		double[] f3 = work.f3;
+		double[] f4 = work.f4;
+		double[] xtemp = work.xtemp;
 		double halfTau = 0.5 * tau;
-		DoubleVector f1 = derivs.apply(Pair.of(x, t));
+		derivs.apply(x, t, f1);
 		double tHalf = t + halfTau;
-		DoubleVector xtemp = x.add(f1.multiply(halfTau));
-		DoubleVector f2 = derivs.apply(Pair.of(xtemp, tHalf));
-		xtemp = x.add(f2.multiply(halfTau));
-		DoubleVector f3 = derivs.apply(Pair.of(xtemp, tHalf));
+		for (int i = 0; i < dim; i++) {
+			xtemp[i] = x[i] + f1[i] * halfTau;
+		}
+		derivs.apply(xtemp, tHalf, f2);
+		for (int i = 0; i < dim; i++) {
+			xtemp[i] = x[i] + f2[i] * halfTau;
+		}
+		derivs.apply(xtemp, tHalf, f3);
 		double tFull = t + tau;
-		xtemp = x.add(f3.multiply(tau));
-		DoubleVector f4 = derivs.apply(Pair.of(xtemp, tFull));
-		DoubleVector xOut = f1.add(f4.add(f2.add(f3).multiply(2))).multiply(tau / 6).add(x);
-		return xOut;
+		for (int i = 0; i < dim; i++) {
+			xtemp[i] = x[i] + f3[i] * tau;
+		}
+		derivs.apply(xtemp, tFull, f4);
+		double sixthTau = tau / 6;
+		for (int i = 0; i < dim; i++) {
+			x[i] += (f1[i] + f4[i] + 2 * (f2[i] + f3[i])) * sixthTau;
+		}
+	}
+	
+	/**
+	 * Scratch arrays for runge kutta steps of a fixed dimension. Not safe to share between threads.
+	 */
+	public static class Workspace {
+		private final int dim;
+		private final double[] f1;
+		private final double[] f2;
+		private final double[] f3;
+		private final double[] f4;
+		private final double[] xtemp;
+		
+		/**
+		 * Creates scratch space for states of the given dimension
+		 */
+		public Workspace(int dim) {
+			this.dim = dim;
+			f1 = new double[dim];
+			f2 = new double[dim];
+			f3 = new double[dim];
+			f4 = new double[dim];
+			xtemp = new double[dim];
+		}
 	}
 }
@@ -200,12 +200,12 @@ public class FusionPanel extends JPanel implements MouseInputListener {
 		zMax = zMax.elementMultiply(scaleFactors).add(center);
 		
 		g.setColor(Color.BLACK);
-		g.drawLine((int) xMin.getValue(0).doubleValue(), (int) xMin.getValue(1).doubleValue(), 
-				(int) xMax.getValue(0).doubleValue(), (int) xMax.getValue(1).doubleValue());
-		g.drawLine((int) yMin.getValue(0).doubleValue(), (int) yMin.getValue(1).doubleValue(), 
-				(int) yMax.getValue(0).doubleValue(), (int) yMax.getValue(1).doubleValue());
-		g.drawLine((int) zMin.getValue(0).doubleValue(), (int) zMin.getValue(1).doubleValue(), 
-				(int) zMax.getValue(0).doubleValue(), (int) zMax.getValue(1).doubleValue());
+		g.drawLine((int) xMin.getValue(0), (int) xMin.getValue(1), 
+				(int) xMax.getValue(0), (int) xMax.getValue(1));
+		g.drawLine((int) yMin.getValue(0), (int) yMin.getValue(1), 
+				(int) yMax.getValue(0), (int) yMax.getValue(1));
+		g.drawLine((int) zMin.getValue(0), (int) zMin.getValue(1), 
+				(int) zMax.getValue(0), (int) zMax.getValue(1));
 	}
 	
 	/**
@@ -312,8 +312,8 @@ public class FusionPanel extends JPanel implements MouseInputListener {
 		}
 
 		g.setColor(c);
-		g.drawLine((int) o.getValue(0).doubleValue(), (int) o.getValue(1).doubleValue(), 
-				(int) x.getValue(0).doubleValue(), (int) x.getValue(1).doubleValue());
+		g.drawLine((int) o.getValue(0), (int) o.getValue(1), 
+				(int) x.getValue(0), (int) x.getValue(1));
 	}
 
 	/**
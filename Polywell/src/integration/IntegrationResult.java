@@ -0,0 +1,51 @@
+package integration;
+
+import utilities.DoubleVector;
+
+/**
+ * Result of a stochastic integration together with an estimate of its error
+ * @author Ryan Dewey
+ */
+public class IntegrationResult {
+	private final DoubleVector value;
+	private final DoubleVector standardError;
+	private final long samples;
+	
+	/**
+	 * Creates a new result
+	 * @param value estimate of the integral
+	 * @param standardError estimated standard error of each component of the estimate
+	 * @param samples number of function evaluations used
+	 */
+	public IntegrationResult(DoubleVector value, DoubleVector standardError, long samples) {
+		this.value = value;
+		this.standardError = standardError;
+		this.samples = samples;
+	}
+	
+	/**
+	 * Gets the estimate of the integral
+	 */
+	public DoubleVector getValue() {
+		return value;
+	}
+	
+	/**
+	 * Gets the estimated standard error of each component of the estimate
+	 */
+	public DoubleVector getStandardError() {
+		return standardError;
+	}
+	
+	/**
+	 * Gets the number of function evaluations used
+	 */
+	public long getSamples() {
+		return samples;
+	}
+	
+	@Override
+	public String toString() {
+		return value + " +/- " + standardError + " (" + samples + " samples)";
+	}
+}
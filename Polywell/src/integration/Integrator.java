@@ -1,11 +1,21 @@
 package integration;
 
 import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 
 import utilities.DoubleVector;
 import utilities.Pair;
+import utilities.Vec3;
+import utilities.Vec3BatchFunction;
+import utilities.Vec3Function;
 
 /**
  * Provides methods for numerical integration
@@ -15,7 +25,19 @@ public class Integrator {
 	private static double EPSILON = 1.0E-7;
 	
 	/**
-	 * Arbitrary dimensional trapezoidal integration method
+	 * Number of points evaluated per call when integrating a Vec3BatchFunction
+	 */
+	public static final int BATCH_SIZE = 1024;
+	/**
+	 * Number of samples with a nonzero value needed before adaptive integration trusts its error
+	 * estimate
+	 */
+	public static final int ADAPTIVE_MINIMUM_NONZERO = 32;
+	
+	/**
+	 * Arbitrary dimensional trapezoidal integration method. The number of steps along each axis is
+	 * doubled until the result changes by no more than the desired accuracy. Each refinement only
+	 * evaluates the function at the new midpoints, reusing the sum over the previous grid.
 	 * @param f function to integrate
 	 * @param ranges range to integrate over
 	 * @param accuracy desired accuracy
@@ -23,44 +45,137 @@ public class Integrator {
 	 */
 	public static DoubleVector integrateTrap(Function<DoubleVector, DoubleVector> f, 
 			List<Pair<Double, Double>> ranges, double accuracy) {
-		int dim = ranges.size();
-		double gridSteps = 10;
-		DoubleVector minCoord = new DoubleVector(dim);
-		DoubleVector maxCoord = new DoubleVector(dim);
-		DoubleVector steps = new DoubleVector(dim);
-		for (int i = 0; i < dim; i++) {
-			minCoord = minCoord.setValue(i, ranges.get(i).getA());
-			maxCoord = maxCoord.setValue(i, ranges.get(i).getB());
-			steps = steps.setValue(i, (ranges.get(i).getB() - ranges.get(i).getA()) / gridSteps);
-		}
-		DoubleVector prevTotal;
-		DoubleVector total = new DoubleVector(f.apply(minCoord).getSize());
+		double[] min = getMin(ranges);
+		double[] width = getWidth(ranges);
+		int steps = 10;
+		double[] sum = addTrapezoidPoints(f, min, width, steps, null);
+		double[] total = scaleTrapezoidSum(sum, width, steps);
+		double[] prevTotal;
 		do {
-			prevTotal = total.multiply(1);
-			DoubleVector coord = minCoord.multiply(1);
-			while (coord.getValue(dim - 1) <= maxCoord.getValue(dim - 1)) {
-				double mult = Math.pow(2, dim - numMinMax(coord, minCoord, maxCoord));
-				DoubleVector value = f.apply(coord).multiply(mult);
-				total = total.add(value);
-				int index = 0;
-				while (index < dim - 1 && coord.getValue(index) >= maxCoord.getValue(index)) {
-					coord = coord.setValue(index, minCoord.getValue(index));
-					index++;
+			prevTotal = total;
+			steps *= 2;
+			sum = addTrapezoidPoints(f, min, width, steps, sum);
+			total = scaleTrapezoidSum(sum, width, steps);
+		} while (maxDifference(prevTotal, total) > accuracy);
+		return new DoubleVector(total);
+	}
+	
+	/**
+	 * Arbitrary dimensional Romberg integration method. Trapezoidal estimates on nested grids, each
+	 * with twice as many steps along each axis as the last, are combined by Richardson extrapolation to
+	 * cancel the leading error terms. This converges much faster than the trapezoidal method for
+	 * smooth functions.
+	 * @param f function to integrate
+	 * @param ranges range to integrate over
+	 * @param accuracy desired accuracy
+	 * @return result of integration
+	 */
+	public static DoubleVector integrateRomberg(Function<DoubleVector, DoubleVector> f, 
+			List<Pair<Double, Double>> ranges, double accuracy) {
+		double[] min = getMin(ranges);
+		double[] width = getWidth(ranges);
+		int steps = 1;
+		double[] sum = addTrapezoidPoints(f, min, width, steps, null);
+		List<double[]> previous = Lists.<double[]>newArrayList();
+		previous.add(scaleTrapezoidSum(sum, width, steps));
+		for (int level = 1; ; level++) {
+			steps *= 2;
+			sum = addTrapezoidPoints(f, min, width, steps, sum);
+			List<double[]> current = Lists.<double[]>newArrayList();
+			current.add(scaleTrapezoidSum(sum, width, steps));
+			double factor = 1;
+			for (int j = 1; j <= level; j++) {
+				factor *= 4;
+				double[] finer = current.get(j - 1);
+				double[] coarser = previous.get(j - 1);
+				double[] extrapolated = new double[finer.length];
+				for (int i = 0; i < finer.length; i++) {
+					extrapolated[i] = finer[i] + (finer[i] - coarser[i]) / (factor - 1);
 				}
-				coord = coord.setValue(index, coord.getValue(index) + steps.getValue(index));
+				current.add(extrapolated);
+			}
+			if (level >= 2 && maxDifference(current.get(level), previous.get(level - 1)) <= accuracy) {
+				return new DoubleVector(current.get(level));
 			}
-			double prodSteps = 1 / Math.pow(2, dim);
-			for (int i = 0; i < dim; i++) {
-				prodSteps *= steps.getValue(i);
+			previous = current;
+		}
+	}
+	
+	/**
+	 * Adds the function at the points of a trapezoidal grid to a running sum, each multiplied by its
+	 * trapezoidal weight. Points which lie on the grid with half as many steps are assumed to already be
+	 * in the sum and are skipped.
+	 * @param f function to integrate
+	 * @param min minimum corner of the region
+	 * @param width width of the region along each axis
+	 * @param steps number of steps along each axis
+	 * @param sum sum over the grid with half as many steps, or null to sum over every point
+	 * @return sum over the grid with the given number of steps
+	 */
+	private static double[] addTrapezoidPoints(Function<DoubleVector, DoubleVector> f, double[] min, 
+			double[] width, int steps, double[] sum) {
+		int dim = min.length;
+		boolean all = sum == null;
+		int[] index = new int[dim];
+		double[] coord = min.clone();
+		while (true) {
+			boolean isNew = all;
+			double weight = 1;
+			for (int d = 0; d < dim; d++) {
+				if ((index[d] & 1) == 1) {
+					isNew = true;
+				}
+				if (index[d] == 0 || index[d] == steps) {
+					weight *= 0.5;
+				}
 			}
-			gridSteps *= 2;
-			steps = new DoubleVector(dim);
-			for (int i = 0; i < dim; i++) {
-				steps = steps.setValue(i, (ranges.get(i).getB() - ranges.get(i).getA()) / gridSteps);
+			if (isNew) {
+				DoubleVector value = f.apply(new DoubleVector(coord));
+				if (sum == null) {
+					sum = new double[value.getSize()];
+				}
+				for (int i = 0; i < sum.length; i++) {
+					sum[i] += weight * value.getValue(i);
+				}
 			}
-			total = total.multiply(prodSteps);
-		} while (prevTotal.subtract(total).abs().max() > accuracy);
-		return total;
+			int d = 0;
+			while (d < dim && index[d] == steps) {
+				index[d] = 0;
+				coord[d] = min[d];
+				d++;
+			}
+			if (d == dim) {
+				return sum;
+			}
+			index[d]++;
+			coord[d] = min[d] + width[d] * index[d] / steps;
+		}
+	}
+	
+	/**
+	 * Multiplies a weighted sum over a trapezoidal grid by the volume of each cell
+	 */
+	private static double[] scaleTrapezoidSum(double[] sum, double[] width, int steps) {
+		double cell = 1;
+		for (int d = 0; d < width.length; d++) {
+			cell *= width[d] / steps;
+		}
+		double[] result = new double[sum.length];
+		for (int i = 0; i < sum.length; i++) {
+			result[i] = sum[i] * cell;
+		}
+		return result;
+	}
+	
+	/**
+	 * Gets the largest absolute difference between corresponding components of two arrays
+	 */
+	private static double maxDifference(double[] a, double[] b) {
+		double max = 0;
+		for (int i = 0; i < a.length; i++) {
+			max = Math.max(max, Math.abs(a[i] - b[i]));
+		}
+		return max;
 	}
 	
 	/**
@@ -95,6 +210,491 @@ public class Integrator {
 		return total.multiply(volume).divide(num);
 	}
 	
+	/**
+	 * Three dimensional Monte-Carlo integration method which evaluates the function without allocating.
+	 * Functions implementing Vec3BatchFunction are evaluated BATCH_SIZE points at a time.
+	 * @param f function to integrate
+	 * @param ranges range to integrate over
+	 * @param minRuns number of points to use in the Monte-Carlo integration
+	 * @return result of integration
+	 */
+	public static DoubleVector integrateMonteCarlo3D(Vec3Function f, List<Pair<Double, Double>> ranges, 
+			int minRuns) {
+		double[] min = getMin3D(ranges);
+		double[] width = getWidth3D(ranges);
+		int runs = Math.max(minRuns, 1);
+		double[] total = sampleMonteCarlo(f, min, width, runs, new RandomSequence(new SplittableRandom()));
+		return new DoubleVector(total).multiply(width[0] * width[1] * width[2] / runs);
+	}
+	
+	/**
+	 * Three dimensional Monte-Carlo integration method which splits the samples between the given
+	 * number of independent random streams and evaluates them in parallel on the common ForkJoinPool.
+	 * Results for a given seed and number of threads are reproducible.
+	 * @param f function to integrate, must be safe to call from several threads at once
+	 * @param ranges range to integrate over
+	 * @param minRuns number of points to use in the Monte-Carlo integration
+	 * @param threads number of parallel tasks to split the samples between
+	 * @param seed seed for the random streams
+	 * @return result of integration
+	 */
+	public static DoubleVector integrateMonteCarloParallel(Vec3Function f, List<Pair<Double, Double>> ranges,
+			int minRuns, int threads, long seed) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		double[] min = getMin3D(ranges);
+		double[] width = getWidth3D(ranges);
+		int runs = Math.max(minRuns, threads);
+		SplittableRandom random = new SplittableRandom(seed);
+		List<MonteCarloTask> tasks = Lists.<MonteCarloTask>newArrayList();
+		for (int i = 0; i < threads; i++) {
+			int taskRuns = runs / threads + (i < runs % threads ? 1 : 0);
+			tasks.add(new MonteCarloTask(f, min, width, taskRuns, new RandomSequence(random.split())));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		double[] total = new double[3];
+		for (MonteCarloTask task : tasks) {
+			double[] sums = task.join();
+			for (int i = 0; i < 3; i++) {
+				total[i] += sums[i];
+			}
+		}
+		return new DoubleVector(total).multiply(width[0] * width[1] * width[2] / runs);
+	}
+	
+	/**
+	 * Parallel three dimensional Monte-Carlo integration using one task per available processor
+	 * @param f function to integrate, must be safe to call from several threads at once
+	 * @param ranges range to integrate over
+	 * @param minRuns number of points to use in the Monte-Carlo integration
+	 * @return result of integration
+	 */
+	public static DoubleVector integrateMonteCarloParallel(Vec3Function f, List<Pair<Double, Double>> ranges,
+			int minRuns) {
+		return integrateMonteCarloParallel(f, ranges, minRuns, Runtime.getRuntime().availableProcessors(),
+				new SplittableRandom().nextLong());
+	}
+	
+	/**
+	 * Three dimensional quasi-Monte-Carlo integration method. The samples are split between several
+	 * independently shifted Sobol sequences, which are evaluated in parallel. Each replicate is an
+	 * unbiased estimate of the integral, so their spread gives the standard error of the mean.
+	 * Low-discrepancy points converge faster than random points, close to O(1/N) for smooth integrands.
+	 * @param f function to integrate, must be safe to call from several threads at once
+	 * @param ranges range to integrate over
+	 * @param runs total number of points to use
+	 * @param replicates number of independently shifted sequences, at least 2
+	 * @param seed seed for the random shifts
+	 * @return result of integration with its standard error
+	 */
+	public static IntegrationResult integrateQuasiMonteCarlo(Vec3Function f, List<Pair<Double, Double>> ranges,
+			int runs, int replicates, long seed) {
+		if (replicates < 2) {
+			throw new IllegalArgumentException("At least 2 replicates are needed to estimate error");
+		}
+		double[] min = getMin3D(ranges);
+		double[] width = getWidth3D(ranges);
+		double volume = width[0] * width[1] * width[2];
+		int replicateRuns = Math.max(runs / replicates, 1);
+		SplittableRandom random = new SplittableRandom(seed);
+		List<MonteCarloTask> tasks = Lists.<MonteCarloTask>newArrayList();
+		for (int i = 0; i < replicates; i++) {
+			tasks.add(new MonteCarloTask(f, min, width, replicateRuns, new SobolSequence(random.split())));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		double[] mean = new double[3];
+		double[] sumSquares = new double[3];
+		for (int r = 0; r < replicates; r++) {
+			double[] sums = tasks.get(r).join();
+			for (int i = 0; i < 3; i++) {
+				// Welford's update of the mean and sum of squared deviations of the replicate estimates
+				double estimate = sums[i] * volume / replicateRuns;
+				double delta = estimate - mean[i];
+				mean[i] += delta / (r + 1);
+				sumSquares[i] += delta * (estimate - mean[i]);
+			}
+		}
+		double[] error = new double[3];
+		for (int i = 0; i < 3; i++) {
+			error[i] = Math.sqrt(sumSquares[i] / (replicates - 1) / replicates);
+		}
+		return new IntegrationResult(new DoubleVector(mean), new DoubleVector(error), 
+				(long) replicateRuns * replicates);
+	}
+	
+	/**
+	 * Three dimensional Monte-Carlo integration method which keeps track of the running mean and
+	 * variance of the samples and stops as soon as the standard error of the estimate is within the
+	 * requested tolerance. The error is measured as the norm of the standard errors of the components,
+	 * and must be no more than the larger of absoluteError and relativeError times the norm of the
+	 * estimate. The error is not trusted until at least ADAPTIVE_MINIMUM_NONZERO samples are nonzero, so
+	 * a function which is 0 over most of the range is not taken to be 0 everywhere.
+	 * @param f function to integrate
+	 * @param ranges range to integrate over
+	 * @param absoluteError acceptable absolute error
+	 * @param relativeError acceptable error relative to the size of the result
+	 * @param minRuns number of points to use before checking for convergence
+	 * @param maxRuns maximum number of points to use
+	 * @param seed seed for the random points
+	 * @return result of integration with its standard error and the number of points used
+	 */
+	public static IntegrationResult integrateMonteCarloAdaptive(Vec3Function f, 
+			List<Pair<Double, Double>> ranges, double absoluteError, double relativeError, int minRuns, 
+			int maxRuns, long seed) {
+		if (maxRuns < 2) {
+			throw new IllegalArgumentException("At least 2 runs are needed to estimate error");
+		}
+		double[] min = getMin3D(ranges);
+		double[] width = getWidth3D(ranges);
+		double volume = width[0] * width[1] * width[2];
+		UnitCubeSequence sequence = new RandomSequence(new SplittableRandom(seed));
+		RunningStatistics statistics = new RunningStatistics();
+		int firstRuns = Math.min(Math.max(minRuns, 2), maxRuns);
+		sampleStatistics(f, min, width, firstRuns, sequence, statistics);
+		while (statistics.getCount() < maxRuns) {
+			double error = 0;
+			double norm = 0;
+			for (int i = 0; i < 3; i++) {
+				error += Math.pow(statistics.getStandardError(i) * volume, 2);
+				norm += Math.pow(statistics.getMean(i) * volume, 2);
+			}
+			// Until enough samples hit the support of f, a zero mean and variance say nothing
+			if (statistics.getNonZeroCount() >= ADAPTIVE_MINIMUM_NONZERO 
+					&& Math.sqrt(error) <= Math.max(absoluteError, relativeError * Math.sqrt(norm))) {
+				break;
+			}
+			int runs = (int) Math.min(BATCH_SIZE, maxRuns - statistics.getCount());
+			sampleStatistics(f, min, width, runs, sequence, statistics);
+		}
+		double[] value = new double[3];
+		double[] error = new double[3];
+		for (int i = 0; i < 3; i++) {
+			value[i] = statistics.getMean(i) * volume;
+			error[i] = statistics.getStandardError(i) * volume;
+		}
+		return new IntegrationResult(new DoubleVector(value), new DoubleVector(error), 
+				statistics.getCount());
+	}
+	
+	/**
+	 * Evaluates the function at points of the given sequence scaled to a box
+	 * @param f function to evaluate
+	 * @param min minimum corner of the box
+	 * @param width width of the box along each axis
+	 * @param runs number of points to evaluate
+	 * @param sequence source of points in the unit cube
+	 * @param statistics statistics to add the function values to
+	 */
+	private static void sampleStatistics(Vec3Function f, double[] min, double[] width, int runs, 
+			UnitCubeSequence sequence, RunningStatistics statistics) {
+		int size = Math.min(BATCH_SIZE, runs);
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		double[] valueX = new double[size];
+		double[] valueY = new double[size];
+		double[] valueZ = new double[size];
+		for (int num = 0; num < runs; num += size) {
+			int n = Math.min(size, runs - num);
+			sampleBatch(f, min, width, n, sequence, x, y, z, valueX, valueY, valueZ);
+			statistics.addBatch(valueX, valueY, valueZ, n);
+		}
+	}
+	
+	/**
+	 * Arbitrary dimensional adaptive Monte-Carlo integration method using the VEGAS algorithm. Each
+	 * iteration samples the region through a separable importance grid and then refines the grid
+	 * towards the parts of the region where the integrand is largest. The estimates of the iterations
+	 * are combined weighted by the inverse of their variance. The samples of each iteration are split
+	 * between parallel tasks with independent random streams, so the result depends only on the seed
+	 * and the number of tasks.
+	 * @param f function to integrate
+	 * @param ranges range to integrate over
+	 * @param runsPerIteration number of points to use in each iteration
+	 * @param iterations number of iterations
+	 * @param threads number of parallel tasks to split each iteration into
+	 * @param seed seed for the random points
+	 * @return result of integration with its standard error and the number of points used
+	 */
+	public static IntegrationResult integrateVegas(Function<DoubleVector, DoubleVector> f, 
+			List<Pair<Double, Double>> ranges, int runsPerIteration, int iterations, int threads, long seed) {
+		if (iterations < 1 || threads < 1) {
+			throw new IllegalArgumentException("Number of iterations and threads must be positive");
+		}
+		if (runsPerIteration < 2 * threads) {
+			throw new IllegalArgumentException("At least 2 runs per task are needed to estimate error");
+		}
+		int dim = ranges.size();
+		DoubleVector minCoord = new DoubleVector(dim);
+		for (int i = 0; i < dim; i++) {
+			minCoord = minCoord.setValue(i, ranges.get(i).getA());
+		}
+		int size = f.apply(minCoord).getSize();
+		VegasGrid grid = new VegasGrid(ranges);
+		SplittableRandom random = new SplittableRandom(seed);
+		double[][] estimates = new double[iterations][size];
+		double[][] variances = new double[iterations][size];
+		for (int k = 0; k < iterations; k++) {
+			List<VegasTask> tasks = Lists.<VegasTask>newArrayList();
+			for (int t = 0; t < threads; t++) {
+				int runs = runsPerIteration / threads + (t < runsPerIteration % threads ? 1 : 0);
+				tasks.add(new VegasTask(f, grid, size, runs, random.split()));
+			}
+			ForkJoinTask.invokeAll(tasks);
+			RunningStatistics statistics = new RunningStatistics(size);
+			double[][] binWeights = new double[dim][VegasGrid.BINS];
+			for (VegasTask task : tasks) {
+				statistics.add(task.statistics);
+				for (int d = 0; d < dim; d++) {
+					for (int i = 0; i < VegasGrid.BINS; i++) {
+						binWeights[d][i] += task.binWeights[d][i];
+					}
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				estimates[k][i] = statistics.getMean(i);
+				variances[k][i] = statistics.getVariance(i) / statistics.getCount();
+			}
+			if (k < iterations - 1) {
+				grid.refine(binWeights);
+			}
+		}
+		return combineIterations(estimates, variances, (long) runsPerIteration * iterations);
+	}
+	
+	/**
+	 * Combines independent estimates of an integral weighted by the inverse of their total variance,
+	 * using the same weight for every component
+	 * @param estimates estimate of each component from each iteration
+	 * @param variances variance of each component of each estimate
+	 * @param samples total number of points used
+	 * @return combined estimate
+	 */
+	private static IntegrationResult combineIterations(double[][] estimates, double[][] variances, 
+			long samples) {
+		int size = estimates[0].length;
+		double[] total = new double[estimates.length];
+		double minTotal = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < estimates.length; k++) {
+			for (int i = 0; i < size; i++) {
+				total[k] += variances[k][i];
+			}
+			minTotal = Math.min(minTotal, total[k]);
+		}
+		double[] value = new double[size];
+		double[] error = new double[size];
+		double weightSum = 0;
+		for (int k = 0; k < estimates.length; k++) {
+			// Weights relative to the best iteration, so that exact iterations do not divide by zero
+			double weight = minTotal == 0 ? (total[k] == 0 ? 1 : 0) : minTotal / total[k];
+			weightSum += weight;
+			for (int i = 0; i < size; i++) {
+				value[i] += weight * estimates[k][i];
+				error[i] += weight * weight * variances[k][i];
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			value[i] /= weightSum;
+			error[i] = Math.sqrt(error[i]) / weightSum;
+		}
+		return new IntegrationResult(new DoubleVector(value), new DoubleVector(error), samples);
+	}
+	
+	/**
+	 * Sums the function over points of the given sequence scaled to a box
+	 * @param f function to sum
+	 * @param min minimum corner of the box
+	 * @param width width of the box along each axis
+	 * @param runs number of points to sum over
+	 * @param sequence source of points in the unit cube
+	 * @return sum of each component of the function
+	 */
+	private static double[] sampleMonteCarlo(Vec3Function f, double[] min, double[] width, int runs, 
+			UnitCubeSequence sequence) {
+		int size = Math.min(BATCH_SIZE, runs);
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		double[] valueX = new double[size];
+		double[] valueY = new double[size];
+		double[] valueZ = new double[size];
+		double sumX = 0;
+		double sumY = 0;
+		double sumZ = 0;
+		for (int num = 0; num < runs; num += size) {
+			int n = Math.min(size, runs - num);
+			sampleBatch(f, min, width, n, sequence, x, y, z, valueX, valueY, valueZ);
+			for (int i = 0; i < n; i++) {
+				sumX += valueX[i];
+				sumY += valueY[i];
+				sumZ += valueZ[i];
+			}
+		}
+		return new double[] {sumX, sumY, sumZ};
+	}
+	
+	/**
+	 * Evaluates the function at the next n points of the given sequence scaled to a box
+	 * @param f function to evaluate
+	 * @param min minimum corner of the box
+	 * @param width width of the box along each axis
+	 * @param n number of points to evaluate
+	 * @param sequence source of points in the unit cube
+	 * @param x array to store the x components of the points in
+	 * @param y array to store the y components of the points in
+	 * @param z array to store the z components of the points in
+	 * @param valueX array to store the x components of the values in
+	 * @param valueY array to store the y components of the values in
+	 * @param valueZ array to store the z components of the values in
+	 */
+	private static void sampleBatch(Vec3Function f, double[] min, double[] width, int n, 
+			UnitCubeSequence sequence, double[] x, double[] y, double[] z, 
+			double[] valueX, double[] valueY, double[] valueZ) {
+		double minX = min[0];
+		double minY = min[1];
+		double minZ = min[2];
+		double widthX = width[0];
+		double widthY = width[1];
+		double widthZ = width[2];
+		sequence.fill(x, y, z, n);
+		for (int i = 0; i < n; i++) {
+			x[i] = x[i] * widthX + minX;
+			y[i] = y[i] * widthY + minY;
+			z[i] = z[i] * widthZ + minZ;
+		}
+		if (f instanceof Vec3BatchFunction) {
+			((Vec3BatchFunction) f).applyBatch(x, y, z, n, valueX, valueY, valueZ);
+		} else {
+			Vec3 value = new Vec3();
+			for (int i = 0; i < n; i++) {
+				f.apply(x[i], y[i], z[i], value);
+				valueX[i] = value.getX();
+				valueY[i] = value.getY();
+				valueZ[i] = value.getZ();
+			}
+		}
+	}
+	
+	/**
+	 * Task which samples a function through a VEGAS grid, collecting statistics of the weighted values
+	 * and the squared weighted values in each bin of the grid
+	 */
+	private static class VegasTask extends RecursiveAction {
+		private final Function<DoubleVector, DoubleVector> f;
+		private final VegasGrid grid;
+		private final int runs;
+		private final SplittableRandom random;
+		private final RunningStatistics statistics;
+		private final double[][] binWeights;
+		
+		public VegasTask(Function<DoubleVector, DoubleVector> f, VegasGrid grid, int size, int runs, 
+				SplittableRandom random) {
+			this.f = f;
+			this.grid = grid;
+			this.runs = runs;
+			this.random = random;
+			statistics = new RunningStatistics(size);
+			binWeights = new double[grid.getDimension()][VegasGrid.BINS];
+		}
+		
+		@Override
+		protected void compute() {
+			int dim = grid.getDimension();
+			double[] y = new double[dim];
+			double[] x = new double[dim];
+			int[] bins = new int[dim];
+			double[] weighted = new double[statistics.getSize()];
+			for (int num = 0; num < runs; num++) {
+				for (int d = 0; d < dim; d++) {
+					y[d] = random.nextDouble();
+				}
+				double jacobian = grid.map(y, x, bins);
+				DoubleVector value = f.apply(new DoubleVector(x));
+				double squared = 0;
+				for (int i = 0; i < weighted.length; i++) {
+					weighted[i] = value.getValue(i) * jacobian;
+					squared += weighted[i] * weighted[i];
+				}
+				statistics.add(weighted);
+				for (int d = 0; d < dim; d++) {
+					binWeights[d][bins[d]] += squared;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Task which sums a function over the points of its own sequence
+	 */
+	private static class MonteCarloTask extends RecursiveTask<double[]> {
+		private final Vec3Function f;
+		private final double[] min;
+		private final double[] width;
+		private final int runs;
+		private final UnitCubeSequence sequence;
+		
+		public MonteCarloTask(Vec3Function f, double[] min, double[] width, int runs, 
+				UnitCubeSequence sequence) {
+			this.f = f;
+			this.min = min;
+			this.width = width;
+			this.runs = runs;
+			this.sequence = sequence;
+		}
+		
+		@Override
+		protected double[] compute() {
+			return sampleMonteCarlo(f, min, width, runs, sequence);
+		}
+	}
+	
+	/**
+	 * Gets the minimum corner of a range
+	 */
+	private static double[] getMin(List<Pair<Double, Double>> ranges) {
+		double[] min = new double[ranges.size()];
+		for (int i = 0; i < min.length; i++) {
+			min[i] = ranges.get(i).getA();
+		}
+		return min;
+	}
+	
+	/**
+	 * Gets the width of a range along each axis
+	 */
+	private static double[] getWidth(List<Pair<Double, Double>> ranges) {
+		double[] width = new double[ranges.size()];
+		for (int i = 0; i < width.length; i++) {
+			width[i] = ranges.get(i).getB() - ranges.get(i).getA();
+		}
+		return width;
+	}
+	
+	/**
+	 * Gets the minimum corner of a three dimensional range
+	 */
+	private static double[] getMin3D(List<Pair<Double, Double>> ranges) {
+		if (ranges.size() != 3) {
+			throw new IllegalArgumentException("Ranges must be 3 dimensional");
+		}
+		return new double[] {ranges.get(0).getA(), ranges.get(1).getA(), ranges.get(2).getA()};
+	}
+	
+	/**
+	 * Gets the width along each axis of a three dimensional range
+	 */
+	private static double[] getWidth3D(List<Pair<Double, Double>> ranges) {
+		if (ranges.size() != 3) {
+			throw new IllegalArgumentException("Ranges must be 3 dimensional");
+		}
+		double[] width = new double[3];
+		for (int i = 0; i < 3; i++) {
+			width[i] = ranges.get(i).getB() - ranges.get(i).getA();
+		}
+		return width;
+	}
+	
 	/**
 	 * Returns number of elements on the border of the integration range for trapezoidal method
 	 * @param check vector to check for border elements
@@ -128,12 +728,12 @@ public class Integrator {
 		if (dim != max.getSize()) {
 			throw new IllegalArgumentException("Arrays must be same length");
 		}
-		DoubleVector result = new DoubleVector(min.getSize());
+		Random random = ThreadLocalRandom.current();
+		double[] result = new double[dim];
 		for (int i = 0; i < dim; i++) {
-			result = result.setValue(i, Math.random() * (max.getValue(i) - min.getValue(i)) + 
-					min.getValue(i));
+			result[i] = random.nextDouble() * (max.getValue(i) - min.getValue(i)) + min.getValue(i);
 		}
-		return result;
+		return new DoubleVector(result);
 	}
 	
 	/**
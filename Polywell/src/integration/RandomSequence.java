@@ -0,0 +1,24 @@
+package integration;
+
+import java.util.SplittableRandom;
+
+/**
+ * Uniformly distributed pseudo-random points in the unit cube
+ * @author Ryan Dewey
+ */
+class RandomSequence implements UnitCubeSequence {
+	private final SplittableRandom random;
+	
+	RandomSequence(SplittableRandom random) {
+		this.random = random;
+	}
+	
+	@Override
+	public void fill(double[] x, double[] y, double[] z, int n) {
+		for (int i = 0; i < n; i++) {
+			x[i] = random.nextDouble();
+			y[i] = random.nextDouble();
+			z[i] = random.nextDouble();
+		}
+	}
+}
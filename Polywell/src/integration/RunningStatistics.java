@@ -0,0 +1,135 @@
+package integration;
+
+/**
+ * Running mean and variance of each component of a stream of vector samples. Batches are merged
+ * with the pairwise update of Chan et al. so the variance stays accurate for long runs.
+ * @author Ryan Dewey
+ */
+public class RunningStatistics {
+	private long count;
+	private long nonZeroCount;
+	private final double[] mean;
+	private final double[] m2;
+	
+	/**
+	 * Creates statistics for three dimensional samples
+	 */
+	public RunningStatistics() {
+		this(3);
+	}
+	
+	/**
+	 * Creates statistics for samples with the given number of components
+	 */
+	public RunningStatistics(int size) {
+		mean = new double[size];
+		m2 = new double[size];
+	}
+	
+	/**
+	 * Adds a single sample
+	 */
+	public void add(double[] value) {
+		count++;
+		for (int i = 0; i < mean.length; i++) {
+			if (value[i] != 0) {
+				nonZeroCount++;
+				break;
+			}
+		}
+		for (int i = 0; i < mean.length; i++) {
+			double delta = value[i] - mean[i];
+			mean[i] += delta / count;
+			m2[i] += delta * (value[i] - mean[i]);
+		}
+	}
+	
+	/**
+	 * Adds the first n samples of the given component arrays of three dimensional samples
+	 */
+	public void addBatch(double[] x, double[] y, double[] z, int n) {
+		if (n == 0) {
+			return;
+		}
+		addComponent(0, x, n);
+		addComponent(1, y, n);
+		addComponent(2, z, n);
+		count += n;
+		for (int i = 0; i < n; i++) {
+			if (x[i] != 0 || y[i] != 0 || z[i] != 0) {
+				nonZeroCount++;
+			}
+		}
+	}
+	
+	private void addComponent(int component, double[] values, int n) {
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += values[i];
+		}
+		double batchMean = sum / n;
+		double batchM2 = 0;
+		for (int i = 0; i < n; i++) {
+			double deviation = values[i] - batchMean;
+			batchM2 += deviation * deviation;
+		}
+		merge(component, n, batchMean, batchM2);
+	}
+	
+	/**
+	 * Merges the samples summarized by another set of statistics into this one
+	 */
+	public void add(RunningStatistics other) {
+		if (other.count == 0) {
+			return;
+		}
+		for (int i = 0; i < mean.length; i++) {
+			merge(i, other.count, other.mean[i], other.m2[i]);
+		}
+		count += other.count;
+		nonZeroCount += other.nonZeroCount;
+	}
+	
+	private void merge(int component, long n, double batchMean, double batchM2) {
+		long total = count + n;
+		double delta = batchMean - mean[component];
+		mean[component] += delta * n / total;
+		m2[component] += batchM2 + delta * delta * ((double) count * n / total);
+	}
+	
+	/**
+	 * Gets the number of components of each sample
+	 */
+	public int getSize() {
+		return mean.length;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Gets the number of samples with any component not 0
+	 */
+	public long getNonZeroCount() {
+		return nonZeroCount;
+	}
+	
+	public double getMean(int component) {
+		return mean[component];
+	}
+	
+	/**
+	 * Gets the sample variance of a component
+	 */
+	public double getVariance(int component) {
+		return count > 1 ? m2[component] / (count - 1) : Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Gets the standard error of the mean of a component
+	 */
+	public double getStandardError(int component) {
+		return Math.sqrt(getVariance(component) / count);
+	}
+}
@@ -0,0 +1,87 @@
+package integration;
+
+import java.util.SplittableRandom;
+
+/**
+ * Three dimensional Sobol low-discrepancy sequence with a random digital shift. Points are generated in
+ * Gray code order, and each coordinate is XORed with a fixed random bit pattern, which keeps the
+ * stratification of the sequence while making each shifted sequence an unbiased estimator. The
+ * direction numbers are those of Joe and Kuo for the first three dimensions.
+ * @author Ryan Dewey
+ */
+class SobolSequence implements UnitCubeSequence {
+	private static final int BITS = 52;
+	private static final double SCALE = 1.0 / (1L << BITS);
+	
+	private final long[][] directions = new long[3][BITS];
+	private final long[] shift = new long[3];
+	private final long[] current = new long[3];
+	private long index;
+	
+	/**
+	 * Creates an unshifted Sobol sequence
+	 */
+	SobolSequence() {
+		for (int k = 0; k < BITS; k++) {
+			directions[0][k] = 1L << (BITS - 1 - k);
+		}
+		// Primitive polynomial x + 1 with initial direction number m1 = 1
+		setDirections(directions[1], new int[] {1}, 1, 0);
+		// Primitive polynomial x^2 + x + 1 with initial direction numbers m1 = 1, m2 = 3
+		setDirections(directions[2], new int[] {1, 3}, 2, 1);
+		System.arraycopy(shift, 0, current, 0, 3);
+	}
+	
+	/**
+	 * Creates a Sobol sequence with a random digital shift
+	 * @param random source of the shift
+	 */
+	SobolSequence(SplittableRandom random) {
+		this();
+		for (int d = 0; d < 3; d++) {
+			shift[d] = random.nextLong() >>> (64 - BITS);
+		}
+		System.arraycopy(shift, 0, current, 0, 3);
+	}
+	
+	/**
+	 * Computes direction numbers from the initial numbers m and coefficients a of a primitive polynomial
+	 * of degree s
+	 */
+	private static void setDirections(long[] v, int[] m, int s, int a) {
+		for (int k = 0; k < s; k++) {
+			v[k] = (long) m[k] << (BITS - 1 - k);
+		}
+		for (int k = s; k < BITS; k++) {
+			long value = v[k - s] ^ (v[k - s] >>> s);
+			for (int j = 1; j < s; j++) {
+				value ^= ((a >>> (s - 1 - j)) & 1) * v[k - j];
+			}
+			v[k] = value;
+		}
+	}
+	
+	@Override
+	public void fill(double[] x, double[] y, double[] z, int n) {
+		for (int i = 0; i < n; i++) {
+			x[i] = current[0] * SCALE;
+			y[i] = current[1] * SCALE;
+			z[i] = current[2] * SCALE;
+			advance();
+		}
+	}
+	
+	/**
+	 * Moves to the next point by flipping the direction number of the lowest zero bit of the index
+	 */
+	private void advance() {
+		int bit = Long.numberOfTrailingZeros(~index);
+		if (bit >= BITS) {
+			throw new IllegalStateException("Sobol sequence exhausted");
+		}
+		for (int d = 0; d < 3; d++) {
+			current[d] ^= directions[d][bit];
+		}
+		index++;
+	}
+}
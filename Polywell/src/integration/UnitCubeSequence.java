@@ -0,0 +1,12 @@
+package integration;
+
+/**
+ * Source of points in the three dimensional unit cube used for sampling integrands
+ * @author Ryan Dewey
+ */
+interface UnitCubeSequence {
+	/**
+	 * Fills the first n elements of each array with the coordinates of the next n points
+	 */
+	public void fill(double[] x, double[] y, double[] z, int n);
+}
@@ -0,0 +1,146 @@
+package integration;
+
+import java.util.List;
+
+import utilities.Pair;
+
+/**
+ * Separable importance sampling grid for the VEGAS algorithm of Lepage. Each axis of the region is
+ * divided into bins of varying width, and points are drawn by choosing a bin uniformly and then a
+ * point uniformly within it, so narrow bins are sampled more densely. After each iteration the bins
+ * are resized so that each holds an equal share of the squared integrand.
+ * @author Ryan Dewey
+ */
+class VegasGrid {
+	/**
+	 * Number of bins along each axis
+	 */
+	static final int BINS = 50;
+	
+	/**
+	 * Damping exponent for grid refinement, lower values adapt more slowly
+	 */
+	private static final double ALPHA = 1.5;
+	
+	/**
+	 * Smallest importance of a bin relative to the average, keeps every part of the region sampled so
+	 * that the estimate stays unbiased where no samples were seen to contribute
+	 */
+	private static final double MIN_IMPORTANCE = 1.0E-3;
+	
+	private final int dim;
+	private final double[][] edges;
+	
+	/**
+	 * Creates a grid of equal bins over the given region
+	 * @param ranges region to integrate over
+	 */
+	VegasGrid(List<Pair<Double, Double>> ranges) {
+		dim = ranges.size();
+		edges = new double[dim][BINS + 1];
+		for (int d = 0; d < dim; d++) {
+			double min = ranges.get(d).getA();
+			double width = ranges.get(d).getB() - min;
+			for (int i = 0; i <= BINS; i++) {
+				edges[d][i] = min + width * i / BINS;
+			}
+		}
+	}
+	
+	int getDimension() {
+		return dim;
+	}
+	
+	/**
+	 * Maps a point of the unit cube to the region
+	 * @param y point in the unit cube, one value per axis
+	 * @param x array to store the point in the region in
+	 * @param bins array to store the bin of the point along each axis in
+	 * @return Jacobian of the map, the inverse of the density of the sampled points
+	 */
+	double map(double[] y, double[] x, int[] bins) {
+		double jacobian = 1;
+		for (int d = 0; d < dim; d++) {
+			double position = y[d] * BINS;
+			int bin = Math.min((int) position, BINS - 1);
+			double width = edges[d][bin + 1] - edges[d][bin];
+			x[d] = edges[d][bin] + (position - bin) * width;
+			bins[d] = bin;
+			jacobian *= width * BINS;
+		}
+		return jacobian;
+	}
+	
+	/**
+	 * Resizes the bins from the squared integrand accumulated in each bin during an iteration
+	 * @param weights sum of the squared weighted integrand in each bin along each axis
+	 */
+	void refine(double[][] weights) {
+		for (int d = 0; d < dim; d++) {
+			double[] smoothed = smooth(weights[d]);
+			double total = 0;
+			for (int i = 0; i < BINS; i++) {
+				total += smoothed[i];
+			}
+			if (total <= 0 || Double.isNaN(total) || Double.isInfinite(total)) {
+				continue;
+			}
+			double[] importance = new double[BINS];
+			double totalImportance = 0;
+			for (int i = 0; i < BINS; i++) {
+				double fraction = smoothed[i] / total;
+				if (fraction >= 1) {
+					importance[i] = 1;
+				} else if (fraction > 0) {
+					importance[i] = Math.pow((1 - fraction) / -Math.log(fraction), ALPHA);
+				}
+				totalImportance += importance[i];
+			}
+			double floor = MIN_IMPORTANCE * totalImportance / BINS;
+			totalImportance = 0;
+			for (int i = 0; i < BINS; i++) {
+				importance[i] = Math.max(importance[i], floor);
+				totalImportance += importance[i];
+			}
+			resize(d, importance, totalImportance / BINS);
+		}
+	}
+	
+	/**
+	 * Averages each bin with its neighbours to keep the grid from adapting to noise
+	 */
+	private static double[] smooth(double[] weights) {
+		double[] smoothed = new double[BINS];
+		smoothed[0] = (weights[0] + weights[1]) / 2;
+		for (int i = 1; i < BINS - 1; i++) {
+			smoothed[i] = (weights[i - 1] + weights[i] + weights[i + 1]) / 3;
+		}
+		smoothed[BINS - 1] = (weights[BINS - 2] + weights[BINS - 1]) / 2;
+		return smoothed;
+	}
+	
+	/**
+	 * Moves the edges along an axis so that each new bin holds an equal share of the importance
+	 * @param d axis to resize
+	 * @param importance importance of each current bin
+	 * @param share importance to put in each new bin
+	 */
+	private void resize(int d, double[] importance, double share) {
+		double[] old = edges[d];
+		double[] resized = new double[BINS + 1];
+		resized[0] = old[0];
+		resized[BINS] = old[BINS];
+		int bin = -1;
+		double accumulated = 0;
+		for (int i = 1; i < BINS; i++) {
+			while (accumulated < share && bin < BINS - 1) {
+				bin++;
+				accumulated += importance[bin];
+			}
+			accumulated -= share;
+			// Place the edge so that the leftover importance of the bin lies beyond it
+			resized[i] = old[bin + 1] - (old[bin + 1] - old[bin]) * accumulated / importance[bin];
+		}
+		edges[d] = resized;
+	}
+}
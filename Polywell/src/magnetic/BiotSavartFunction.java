@@ -0,0 +1,78 @@
+package magnetic;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+import utilities.Vec3BatchFunction;
+
+import com.google.common.base.Function;
+
+/**
+ * Integrand of the Biot-Savart law for the field at a fixed point. Evaluates J(x) x r / |r|^3 where
+ * r is the displacement from the source point x to the field point.
+ * @author Ryan Dewey
+ */
+public class BiotSavartFunction implements Function<DoubleVector, DoubleVector>, Vec3BatchFunction {
+	private final CurrentDensityFunction j;
+	private final double cx;
+	private final double cy;
+	private final double cz;
+	private final TorusBiotSavartKernel kernel;
+	
+	/**
+	 * Creates the integrand for the field at the given point
+	 * @param j current density to integrate over
+	 * @param coord point to find field at
+	 */
+	public BiotSavartFunction(CurrentDensityFunction j, DoubleVector coord) {
+		this.j = j;
+		this.cx = coord.getValue(0);
+		this.cy = coord.getValue(1);
+		this.cz = coord.getValue(2);
+		this.kernel = TorusBiotSavartKernel.create(j);
+	}
+	
+	@Override
+	public DoubleVector apply(DoubleVector x) {
+		Vec3 result = new Vec3();
+		apply(x.getValue(0), x.getValue(1), x.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		double rx = cx - x;
+		double ry = cy - y;
+		double rz = cz - z;
+		double r2 = rx * rx + ry * ry + rz * rz;
+		if (r2 == 0) {
+			result.setZero();
+			return;
+		}
+		j.apply(x, y, z, result);
+		double scale = 1 / (r2 * Math.sqrt(r2));
+		Vec3.cross(result.getX(), result.getY(), result.getZ(), rx, ry, rz, result).multiply(scale);
+	}
+	
+	@Override
+	public void applyBatch(double[] x, double[] y, double[] z, int n, 
+			double[] resultX, double[] resultY, double[] resultZ) {
+		if (kernel != null) {
+			kernel.apply(cx, cy, cz, x, y, z, n, resultX, resultY, resultZ);
+			return;
+		}
+		j.applyBatch(x, y, z, n, resultX, resultY, resultZ);
+		for (int i = 0; i < n; i++) {
+			double rx = cx - x[i];
+			double ry = cy - y[i];
+			double rz = cz - z[i];
+			double r2 = rx * rx + ry * ry + rz * rz;
+			double scale = r2 == 0 ? 0 : 1 / (r2 * Math.sqrt(r2));
+			double jx = resultX[i];
+			double jy = resultY[i];
+			double jz = resultZ[i];
+			resultX[i] = (jy * rz - jz * ry) * scale;
+			resultY[i] = (jz * rx - jx * rz) * scale;
+			resultZ[i] = (jx * ry - jy * rx) * scale;
+		}
+	}
+}
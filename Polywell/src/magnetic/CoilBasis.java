@@ -0,0 +1,223 @@
+package magnetic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Field of each coil of a current at unit magnitude, from which the field of the same coils with any
+ * magnitudes is found by superposition. The field is linear in the current, so once the basis is
+ * computed, sweeps over the current, time dependent currents and unbalanced coils need only a weighted
+ * sum over the lattice rather than another integration. Each coil field is stored in its own field
+ * file next to the file of the whole field, and is computed with the same settings as the whole field.
+ * A stored coil field is recomputed if it was found for another coil or with other settings.
+ * @author Ryan Dewey
+ */
+public class CoilBasis {
+	/**
+	 * Least number of lattice points summed by each task, below which the sum runs on the calling thread
+	 */
+	private static final int MIN_TASK_POINTS = 256;
+	
+	private final List<TorusGeometry> tori;
+	private final List<MagneticField> coils;
+	private final FieldLattice lattice;
+	private final int tasks;
+	private ForkJoinPool pool;
+	
+	/**
+	 * Creates the basis of a field, loading any coil fields which are already stored
+	 * @param field field made up entirely of tori, with the lattice to compute the basis on
+	 */
+	public CoilBasis(MagneticField field) {
+		if (field.getTori() == null) {
+			throw new IllegalArgumentException("Coil basis requires a current made of tori");
+		}
+		if (field.getLattice() == null) {
+			throw new IllegalArgumentException("Field must have a lattice to compute the basis on");
+		}
+		tori = field.getTori();
+		lattice = field.getLattice();
+		tasks = field.getThreads();
+		List<MagneticField> list = Lists.<MagneticField>newArrayList();
+		for (int i = 0; i < tori.size(); i++) {
+			TorusGeometry torus = tori.get(i);
+			TorusGeometry unit = new TorusGeometry(torus.getRadius(), torus.getThickness(), torus.getCenter(), 
+					torus.getDirection(), 1);
+			MagneticField coil = field.createTorusField(unit, getCoilFilename(field, i));
+			coil.prepareLattice(lattice);
+			list.add(coil);
+		}
+		coils = ImmutableList.<MagneticField>copyOf(list);
+	}
+	
+	/**
+	 * Gets the name of the file the field of a coil is stored in
+	 */
+	private static String getCoilFilename(MagneticField field, int coil) {
+		return field.getFilename() + " coil" + coil;
+	}
+	
+	/**
+	 * Gets the number of coils
+	 */
+	public int getCoilCount() {
+		return coils.size();
+	}
+	
+	/**
+	 * Gets the field of a coil at unit magnitude
+	 */
+	public MagneticField getCoilField(int coil) {
+		return coils.get(coil);
+	}
+	
+	/**
+	 * Gets the magnitude of each coil of the field the basis was made from
+	 */
+	public double[] getMagnitudes() {
+		double[] magnitudes = new double[tori.size()];
+		for (int i = 0; i < magnitudes.length; i++) {
+			magnitudes[i] = tori.get(i).getMagnitude();
+		}
+		return magnitudes;
+	}
+	
+	/**
+	 * Checks whether every coil field has been computed at every point of the lattice
+	 */
+	public boolean isComplete() {
+		for (MagneticField coil : coils) {
+			if (!coil.getLattice().isComplete()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Computes the missing points of each coil field and stores them. An interrupted computation is
+	 * resumed from the journal of the coil it stopped at.
+	 * @param threads number of threads to compute each coil on
+	 * @return number of points computed
+	 * @throws IOException if a journal or field file cannot be written
+	 */
+	public int precompute(int threads) throws IOException {
+		int computed = 0;
+		for (MagneticField coil : coils) {
+			if (!coil.getLattice().isComplete()) {
+				System.out.println("Computing coil " + coil.getFilename());
+				GridPrecomputer precomputer = new GridPrecomputer(coil, new File(coil.getFilename() + ".journal"));
+				precomputer.setThreads(threads);
+				computed += precomputer.run();
+			}
+		}
+		return computed;
+	}
+	
+	/**
+	 * Finds the field of the coils with the given magnitudes at every point of the lattice, summing
+	 * the basis on a pool with the configured number of threads of the field. The pool is kept between
+	 * calls, and small lattices are summed on the calling thread.
+	 * @param magnitudes magnitude of the current in each coil
+	 * @return new lattice holding the field
+	 * @throws IllegalStateException if the basis has not been computed
+	 */
+	public FieldLattice combine(double[] magnitudes) {
+		if (magnitudes.length != coils.size()) {
+			throw new IllegalArgumentException("Expected " + coils.size() + " magnitudes");
+		}
+		if (!isComplete()) {
+			throw new IllegalStateException("Basis has not been computed");
+		}
+		int size = lattice.getSize();
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		int count = Math.min(tasks, size / MIN_TASK_POINTS);
+		if (count <= 1) {
+			combine(magnitudes, 0, size, x, y, z);
+		} else {
+			final List<CombineTask> list = Lists.<CombineTask>newArrayList();
+			for (int t = 0; t < count; t++) {
+				list.add(new CombineTask(magnitudes, (int) ((long) size * t / count), 
+						(int) ((long) size * (t + 1) / count), x, y, z));
+			}
+			getPool().invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(list);
+				}
+			});
+		}
+		double[] origin = new double[3];
+		double[] spacing = new double[3];
+		int[] dims = new int[3];
+		for (int d = 0; d < 3; d++) {
+			origin[d] = lattice.getOrigin(d);
+			spacing[d] = lattice.getSpacing(d);
+			dims[d] = lattice.getDimension(d);
+		}
+		return new FieldLattice(origin, spacing, dims, x, y, z);
+	}
+	
+	/**
+	 * Gets the pool the sums run on, created on first use and kept for later calls. Its worker threads
+	 * are daemons which end when idle, so the pool is never shut down.
+	 */
+	private synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(tasks);
+		}
+		return pool;
+	}
+	
+	/**
+	 * Sums the basis over the lattice points [from, to)
+	 */
+	private void combine(double[] magnitudes, int from, int to, double[] x, double[] y, double[] z) {
+		for (int c = 0; c < coils.size(); c++) {
+			double magnitude = magnitudes[c];
+			FieldLattice coil = coils.get(c).getLattice();
+			double[] coilX = coil.getX();
+			double[] coilY = coil.getY();
+			double[] coilZ = coil.getZ();
+			for (int i = from; i < to; i++) {
+				x[i] += magnitude * coilX[i];
+				y[i] += magnitude * coilY[i];
+				z[i] += magnitude * coilZ[i];
+			}
+		}
+	}
+	
+	/**
+	 * Task which sums the basis over a range of lattice points
+	 */
+	private class CombineTask extends RecursiveAction {
+		private final double[] magnitudes;
+		private final int from;
+		private final int to;
+		private final double[] x;
+		private final double[] y;
+		private final double[] z;
+		
+		public CombineTask(double[] magnitudes, int from, int to, double[] x, double[] y, double[] z) {
+			this.magnitudes = magnitudes;
+			this.from = from;
+			this.to = to;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+		
+		@Override
+		protected void compute() {
+			combine(magnitudes, from, to, x, y, z);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package magnetic;
+
+import java.util.List;
+
+import utilities.DoubleMatrix;
+import utilities.DoubleVector;
+import utilities.Pair;
+import utilities.RigidTransform;
+import utilities.Vec3;
+import utilities.Vec3Function;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+/**
+ * Field of a set of tori which are copies of a few reference tori, moved and turned into place. The
+ * field of each reference torus is found once, centered on the origin with its axis along z and unit
+ * magnitude, and the field of every copy is found by mapping the point into the frame of the copy,
+ * evaluating the reference there and turning the result back. The magnetic field is a pseudovector,
+ * so the field of a copy made with a reflection would also change sign, although copies of tori
+ * are always made by proper rotations.
+ * @author Ryan Dewey
+ */
+public final class CoilCopies implements Function<DoubleVector, DoubleVector>, Vec3Function {
+	private static final double RANGE_MARGIN = 1.0E-9;
+	
+	private final List<Vec3Function> references;
+	private final int[] reference;
+	private final RigidTransform[] toLocal;
+	private final double[] weight;
+	
+	private CoilCopies(List<Vec3Function> references, int[] reference, RigidTransform[] toLocal, 
+			double[] weight) {
+		this.references = references;
+		this.reference = reference;
+		this.toLocal = toLocal;
+		this.weight = weight;
+	}
+	
+	/**
+	 * Creates the field of the given tori, finding the field of one reference torus for each distinct
+	 * radius and thickness
+	 * @param tori tori to model
+	 * @param referenceField gives the field of a reference torus, centered on the origin with its axis
+	 * 			along z and unit magnitude
+	 * @return field of the tori
+	 * @throws IllegalArgumentException if a torus is not centered on its axis, since its current
+	 * 			direction x p then has a uniform part which the reference does not
+	 */
+	public static CoilCopies create(List<TorusGeometry> tori, 
+			Function<TorusGeometry, ? extends Vec3Function> referenceField) {
+		List<TorusGeometry> shapes = Lists.<TorusGeometry>newArrayList();
+		List<Vec3Function> references = Lists.<Vec3Function>newArrayList();
+		int[] reference = new int[tori.size()];
+		RigidTransform[] toLocal = new RigidTransform[tori.size()];
+		double[] weight = new double[tori.size()];
+		for (int i = 0; i < tori.size(); i++) {
+			TorusGeometry torus = tori.get(i);
+			if (!torus.isCenteredOnAxis()) {
+				throw new IllegalArgumentException("Coil reuse requires tori centered on their axis: " + torus);
+			}
+			int shape = 0;
+			while (shape < shapes.size() && (shapes.get(shape).getRadius() != torus.getRadius() 
+					|| shapes.get(shape).getThickness() != torus.getThickness())) {
+				shape++;
+			}
+			if (shape == shapes.size()) {
+				TorusGeometry unit = new TorusGeometry(torus.getRadius(), torus.getThickness(), 
+						new DoubleVector(0, 0, 0), new DoubleVector(0, 0, 1), 1);
+				shapes.add(unit);
+				references.add(referenceField.apply(unit));
+			}
+			reference[i] = shape;
+			toLocal[i] = getLocalFrame(torus);
+			weight[i] = torus.getMagnitude() * toLocal[i].getDeterminant();
+		}
+		return new CoilCopies(references, reference, toLocal, weight);
+	}
+	
+	/**
+	 * Gets the extent along each axis of the frame of a reference torus which holds a lattice as seen
+	 * from every copy, so that a reference lattice over these ranges covers every point of the lattice
+	 * @param tori tori to model
+	 * @param lattice lattice the field of the tori is found on
+	 * @return range along each local axis
+	 */
+	public static List<Pair<Double, Double>> getLocalRanges(List<TorusGeometry> tori, FieldLattice lattice) {
+		double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		Vec3 local = new Vec3();
+		for (TorusGeometry torus : tori) {
+			RigidTransform transform = getLocalFrame(torus);
+			// The lattice is a box, so its image is bounded by the images of its corners
+			for (int c = 0; c < 8; c++) {
+				double[] corner = new double[3];
+				for (int d = 0; d < 3; d++) {
+					int end = (c >> d) & 1;
+					corner[d] = lattice.getOrigin(d) + end * (lattice.getDimension(d) - 1) * lattice.getSpacing(d);
+				}
+				transform.apply(corner[0], corner[1], corner[2], local);
+				double[] position = {local.getX(), local.getY(), local.getZ()};
+				for (int d = 0; d < 3; d++) {
+					min[d] = Math.min(min[d], position[d]);
+					max[d] = Math.max(max[d], position[d]);
+				}
+			}
+		}
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList();
+		for (int d = 0; d < 3; d++) {
+			// Widen slightly so that corners of the lattice are not lost to rounding
+			double margin = RANGE_MARGIN * (max[d] - min[d]);
+			ranges.add(Pair.of(min[d] - margin, max[d] + margin));
+		}
+		return ranges;
+	}
+	
+	private static RigidTransform getLocalFrame(TorusGeometry torus) {
+		return RigidTransform.toLocalFrame(torus.getCenter(), 
+				DoubleMatrix.getRotationMatrix(torus.getDirection().normalize(), new DoubleVector(0, 0, 1)));
+	}
+	
+	/**
+	 * Gets the number of reference tori whose field is found
+	 */
+	public int getReferenceCount() {
+		return references.size();
+	}
+	
+	/**
+	 * Gets the number of tori
+	 */
+	public int getCopyCount() {
+		return reference.length;
+	}
+	
+	@Override
+	public DoubleVector apply(DoubleVector x) {
+		Vec3 result = new Vec3();
+		apply(x.getValue(0), x.getValue(1), x.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	/**
+	 * Evaluates the field at (x, y, z)
+	 * @param result vector to store the field in
+	 */
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		Vec3 local = new Vec3();
+		Vec3 field = new Vec3();
+		double bx = 0;
+		double by = 0;
+		double bz = 0;
+		for (int i = 0; i < reference.length; i++) {
+			toLocal[i].apply(x, y, z, local);
+			references.get(reference[i]).apply(local.getX(), local.getY(), local.getZ(), field);
+			toLocal[i].inverseRotate(field.getX(), field.getY(), field.getZ(), field);
+			bx += weight[i] * field.getX();
+			by += weight[i] * field.getY();
+			bz += weight[i] * field.getZ();
+		}
+		result.set(bx, by, bz);
+	}
+}
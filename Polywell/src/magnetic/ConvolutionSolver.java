@@ -0,0 +1,227 @@
+package magnetic;
+
+import java.util.List;
+
+import utilities.FFT;
+import utilities.Pair;
+import utilities.Vec3;
+
+/**
+ * Finds the field at every point of a lattice at once by writing the Biot-Savart law as a convolution.
+ * The current density is averaged over the voxels of a grid aligned with the lattice, optionally
+ * refined, and each component is convolved with the kernel r / |r|^3 by three dimensional FFTs on a grid
+ * padded so that the convolution does not wrap around. This takes O(M^3 log M) time for a padded grid
+ * of M^3 voxels instead of a Monte-Carlo integral per lattice point. The field is accurate where the
+ * current is resolved by several voxels, and least accurate inside and next to the conductors where
+ * the voxels stair-step its surface.
+ * @author Ryan Dewey
+ */
+public class ConvolutionSolver {
+	private final CurrentDensityFunction j;
+	private final List<Pair<Double, Double>> ranges;
+	private int refinement = 1;
+	private int subsamples = 4;
+	
+	/**
+	 * Creates a solver
+	 * @param j current density to find the field of
+	 * @param ranges maximum extent of current
+	 */
+	public ConvolutionSolver(CurrentDensityFunction j, List<Pair<Double, Double>> ranges) {
+		this.j = j;
+		this.ranges = ranges;
+	}
+	
+	/**
+	 * Sets the number of voxels per lattice spacing along each axis
+	 */
+	public void setRefinement(int refinement) {
+		if (refinement <= 0) {
+			throw new IllegalArgumentException("Refinement must be positive");
+		}
+		this.refinement = refinement;
+	}
+	
+	/**
+	 * Sets the number of points along each axis of a voxel which the current density is averaged over
+	 */
+	public void setSubsamples(int subsamples) {
+		if (subsamples <= 0) {
+			throw new IllegalArgumentException("Number of subsamples must be positive");
+		}
+		this.subsamples = subsamples;
+	}
+	
+	/**
+	 * Gets the number of voxels along each axis of the padded grid used to find the field on a lattice
+	 */
+	public int[] getGridSize(FieldLattice lattice) {
+		int[] size = new int[3];
+		for (int d = 0; d < 3; d++) {
+			size[d] = FFT.nextPowerOfTwo(getTargetCount(lattice, d) + getSourceCount(lattice, d) - 1);
+		}
+		return size;
+	}
+	
+	/**
+	 * Finds the field at every point of a lattice. The lattice must not be in use by other threads.
+	 */
+	public void solve(FieldLattice lattice) {
+		int[] size = getGridSize(lattice);
+		int[] offset = new int[3];
+		int[] sources = new int[3];
+		double[] spacing = new double[3];
+		for (int d = 0; d < 3; d++) {
+			offset[d] = getSourceOffset(lattice, d);
+			sources[d] = getSourceCount(lattice, d);
+			spacing[d] = lattice.getSpacing(d) / refinement;
+		}
+		int total = size[0] * size[1] * size[2];
+		
+		// Current density times voxel volume, with real and imaginary parts of each component
+		double[][] current = new double[6][total];
+		voxelize(lattice, size, offset, sources, spacing, current);
+		for (int c = 0; c < 3; c++) {
+			FFT.transform(current[2 * c], current[2 * c + 1], size[0], size[1], size[2], false);
+		}
+		double[][] kernel = new double[6][total];
+		fillKernel(size, offset, sources, spacing, kernel);
+		for (int c = 0; c < 3; c++) {
+			FFT.transform(kernel[2 * c], kernel[2 * c + 1], size[0], size[1], size[2], false);
+		}
+		
+		// B = J x K in frequency space, written over the current
+		for (int i = 0; i < total; i++) {
+			double jxr = current[0][i];
+			double jxi = current[1][i];
+			double jyr = current[2][i];
+			double jyi = current[3][i];
+			double jzr = current[4][i];
+			double jzi = current[5][i];
+			double kxr = kernel[0][i];
+			double kxi = kernel[1][i];
+			double kyr = kernel[2][i];
+			double kyi = kernel[3][i];
+			double kzr = kernel[4][i];
+			double kzi = kernel[5][i];
+			current[0][i] = jyr * kzr - jyi * kzi - (jzr * kyr - jzi * kyi);
+			current[1][i] = jyr * kzi + jyi * kzr - (jzr * kyi + jzi * kyr);
+			current[2][i] = jzr * kxr - jzi * kxi - (jxr * kzr - jxi * kzi);
+			current[3][i] = jzr * kxi + jzi * kxr - (jxr * kzi + jxi * kzr);
+			current[4][i] = jxr * kyr - jxi * kyi - (jyr * kxr - jyi * kxi);
+			current[5][i] = jxr * kyi + jxi * kyr - (jyr * kxi + jyi * kxr);
+		}
+		// Release the kernel before the inverse transforms
+		kernel = null;
+		for (int c = 0; c < 3; c++) {
+			FFT.transform(current[2 * c], current[2 * c + 1], size[0], size[1], size[2], true);
+		}
+		
+		for (int i = 0; i < lattice.getDimension(0); i++) {
+			int u = Math.floorMod(i * refinement - offset[0], size[0]);
+			for (int jj = 0; jj < lattice.getDimension(1); jj++) {
+				int v = Math.floorMod(jj * refinement - offset[1], size[1]);
+				for (int k = 0; k < lattice.getDimension(2); k++) {
+					int w = Math.floorMod(k * refinement - offset[2], size[2]);
+					int index = (u * size[1] + v) * size[2] + w;
+					lattice.set(lattice.getIndex(i, jj, k), current[0][index], current[2][index], 
+							current[4][index]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Averages the current density over each source voxel, scaled by the voxel volume
+	 */
+	private void voxelize(FieldLattice lattice, int[] size, int[] offset, int[] sources, double[] spacing, 
+			double[][] current) {
+		Vec3 value = new Vec3();
+		double volume = spacing[0] * spacing[1] * spacing[2];
+		double weight = volume / (subsamples * subsamples * subsamples);
+		for (int i = 0; i < sources[0]; i++) {
+			double x = lattice.getOrigin(0) + (offset[0] + i) * spacing[0];
+			for (int jj = 0; jj < sources[1]; jj++) {
+				double y = lattice.getOrigin(1) + (offset[1] + jj) * spacing[1];
+				for (int k = 0; k < sources[2]; k++) {
+					double z = lattice.getOrigin(2) + (offset[2] + k) * spacing[2];
+					double sx = 0;
+					double sy = 0;
+					double sz = 0;
+					for (int a = 0; a < subsamples; a++) {
+						double px = x + ((a + 0.5) / subsamples - 0.5) * spacing[0];
+						for (int b = 0; b < subsamples; b++) {
+							double py = y + ((b + 0.5) / subsamples - 0.5) * spacing[1];
+							for (int c = 0; c < subsamples; c++) {
+								double pz = z + ((c + 0.5) / subsamples - 0.5) * spacing[2];
+								j.apply(px, py, pz, value);
+								sx += value.getX();
+								sy += value.getY();
+								sz += value.getZ();
+							}
+						}
+					}
+					int index = (i * size[1] + jj) * size[2] + k;
+					current[0][index] = sx * weight;
+					current[2][index] = sy * weight;
+					current[4][index] = sz * weight;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Fills the kernel r / |r|^3 at every displacement from a source voxel to a target point, stored at
+	 * the displacement in voxels modulo the grid size. The kernel is zero at zero displacement, where its
+	 * average over a voxel vanishes.
+	 */
+	private static void fillKernel(int[] size, int[] offset, int[] sources, double[] spacing, 
+			double[][] kernel) {
+		int[] minimum = new int[3];
+		for (int d = 0; d < 3; d++) {
+			minimum[d] = -(sources[d] - 1) - offset[d];
+		}
+		for (int u = 0; u < size[0]; u++) {
+			double rx = (minimum[0] + Math.floorMod(u - minimum[0], size[0])) * spacing[0];
+			for (int v = 0; v < size[1]; v++) {
+				double ry = (minimum[1] + Math.floorMod(v - minimum[1], size[1])) * spacing[1];
+				for (int w = 0; w < size[2]; w++) {
+					double rz = (minimum[2] + Math.floorMod(w - minimum[2], size[2])) * spacing[2];
+					double r2 = rx * rx + ry * ry + rz * rz;
+					if (r2 == 0) {
+						continue;
+					}
+					double scale = 1 / (r2 * Math.sqrt(r2));
+					int index = (u * size[1] + v) * size[2] + w;
+					kernel[0][index] = rx * scale;
+					kernel[2][index] = ry * scale;
+					kernel[4][index] = rz * scale;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of voxels along an axis spanned by the lattice
+	 */
+	private int getTargetCount(FieldLattice lattice, int axis) {
+		return (lattice.getDimension(axis) - 1) * refinement + 1;
+	}
+	
+	/**
+	 * Gets the position of the first source voxel along an axis, in voxels from the lattice origin
+	 */
+	private int getSourceOffset(FieldLattice lattice, int axis) {
+		double spacing = lattice.getSpacing(axis) / refinement;
+		return (int) Math.floor((ranges.get(axis).getA() - lattice.getOrigin(axis)) / spacing);
+	}
+	
+	/**
+	 * Gets the number of source voxels along an axis needed to cover the extent of the current
+	 */
+	private int getSourceCount(FieldLattice lattice, int axis) {
+		double spacing = lattice.getSpacing(axis) / refinement;
+		int last = (int) Math.ceil((ranges.get(axis).getB() - lattice.getOrigin(axis)) / spacing);
+		return last - getSourceOffset(lattice, axis) + 1;
+	}
+}
@@ -0,0 +1,315 @@
+package magnetic;
+
+import java.util.List;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+
+/**
+ * Symmetry of a current under the 48 signed permutations of the axes about a center, the symmetries of
+ * a cube. Any point can be mapped into the fundamental wedge x >= y >= z >= 0, relative to the center,
+ * and the field there mapped back. The field is a pseudovector, so an operation g with determinant
+ * det(g) which maps the current onto itself times chi(g) = +/-1 gives B(g p) = chi(g) det(g) g B(p).
+ * In the cubic polywell every coil faces the center, so mirrors reverse the current and the field
+ * transforms like an ordinary vector.
+ * <p>
+ * Operations are encoded as 8 * permutation + signs, where bit d of signs is set when axis d is
+ * negated and component k of the mapped point comes from axis PERMUTATIONS[permutation][k].
+ * @author Ryan Dewey
+ */
+public final class CubicSymmetry {
+	/**
+	 * Operation which leaves every point unchanged
+	 */
+	public static final int IDENTITY = 0;
+	
+	private static final int[][] PERMUTATIONS = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, 
+			{2, 1, 0}};
+	private static final int[] PARITY = {1, -1, -1, 1, 1, -1};
+	private static final int OPERATIONS = 48;
+	private static final double TOLERANCE = 1.0E-9;
+	
+	private final double cx;
+	private final double cy;
+	private final double cz;
+	private final double[] factors;
+	
+	private CubicSymmetry(double cx, double cy, double cz, double[] factors) {
+		this.cx = cx;
+		this.cy = cy;
+		this.cz = cz;
+		this.factors = factors;
+	}
+	
+	/**
+	 * Finds the cubic symmetry of a current made of tori, about the mean of their centers
+	 * @param tori geometry of the current
+	 * @return symmetry, or null if the tori are not mapped onto themselves by every operation or the
+	 * 			current of a torus does not circulate about its axis
+	 */
+	public static CubicSymmetry detect(List<TorusGeometry> tori) {
+		if (tori == null || tori.isEmpty()) {
+			return null;
+		}
+		for (TorusGeometry torus : tori) {
+			// The current direction x p of a torus whose axis misses the origin has a uniform part
+			// which the geometry does not describe
+			if (!torus.isCenteredOnAxis()) {
+				return null;
+			}
+		}
+		double[] center = new double[3];
+		for (TorusGeometry torus : tori) {
+			for (int d = 0; d < 3; d++) {
+				center[d] += torus.getCenter().getValue(d) / tori.size();
+			}
+		}
+		double[] factors = new double[OPERATIONS];
+		for (int op = 0; op < OPERATIONS; op++) {
+			if (matches(tori, center, op, 1)) {
+				factors[op] = getDeterminant(op);
+			} else if (matches(tori, center, op, -1)) {
+				factors[op] = -getDeterminant(op);
+			} else {
+				return null;
+			}
+		}
+		return new CubicSymmetry(center[0], center[1], center[2], factors);
+	}
+	
+	/**
+	 * Checks whether an operation maps every torus onto a torus of the set with its current times chi
+	 */
+	private static boolean matches(List<TorusGeometry> tori, double[] center, int op, double chi) {
+		double[] relative = new double[3];
+		double[] image = new double[3];
+		for (TorusGeometry torus : tori) {
+			for (int d = 0; d < 3; d++) {
+				relative[d] = torus.getCenter().getValue(d) - center[d];
+			}
+			transform(op, relative, image);
+			for (int d = 0; d < 3; d++) {
+				image[d] += center[d];
+			}
+			DoubleVector imageCenter = new DoubleVector(image[0], image[1], image[2]);
+			// The current circulates about the axis, which maps as a pseudovector
+			double[] axis = getAxis(torus);
+			transform(op, axis, image);
+			double scale = chi * getDeterminant(op);
+			DoubleVector imageAxis = new DoubleVector(image[0] * scale, image[1] * scale, image[2] * scale);
+			boolean found = false;
+			for (TorusGeometry other : tori) {
+				double[] otherAxis = getAxis(other);
+				if (Math.abs(other.getRadius() - torus.getRadius()) < TOLERANCE
+						&& Math.abs(other.getThickness() - torus.getThickness()) < TOLERANCE
+						&& other.getCenter().equals(imageCenter, TOLERANCE)
+						&& imageAxis.equals(new DoubleVector(otherAxis[0], otherAxis[1], otherAxis[2]), 
+								TOLERANCE)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the unit axis of a torus scaled by its signed magnitude
+	 */
+	private static double[] getAxis(TorusGeometry torus) {
+		DoubleVector direction = torus.getDirection();
+		double norm = Vec3.norm(direction.getValue(0), direction.getValue(1), direction.getValue(2));
+		double[] axis = new double[3];
+		for (int d = 0; d < 3; d++) {
+			axis[d] = direction.getValue(d) / norm * torus.getMagnitude();
+		}
+		return axis;
+	}
+	
+	private static void transform(int op, double[] p, double[] result) {
+		int[] permutation = PERMUTATIONS[op >> 3];
+		for (int k = 0; k < 3; k++) {
+			int axis = permutation[k];
+			result[k] = (op & (1 << axis)) != 0 ? -p[axis] : p[axis];
+		}
+	}
+	
+	private static double getDeterminant(int op) {
+		return PARITY[op >> 3] * (Integer.bitCount(op & 7) % 2 == 0 ? 1 : -1);
+	}
+	
+	public DoubleVector getCenter() {
+		return new DoubleVector(cx, cy, cz);
+	}
+	
+	/**
+	 * Maps the point (x, y, z) into the fundamental wedge
+	 * @param result vector to store the mapped point in
+	 * @return operation which maps the point into the wedge
+	 */
+	public int reduce(double x, double y, double z, Vec3 result) {
+		double ax = x - cx;
+		double ay = y - cy;
+		double az = z - cz;
+		int signs = 0;
+		if (ax < 0) {
+			ax = -ax;
+			signs |= 1;
+		}
+		if (ay < 0) {
+			ay = -ay;
+			signs |= 2;
+		}
+		if (az < 0) {
+			az = -az;
+			signs |= 4;
+		}
+		int permutation = getPermutation(ax, ay, az);
+		int[] order = PERMUTATIONS[permutation];
+		result.set(getComponent(order[0], ax, ay, az) + cx, getComponent(order[1], ax, ay, az) + cy, 
+				getComponent(order[2], ax, ay, az) + cz);
+		return permutation << 3 | signs;
+	}
+	
+	/**
+	 * Maps a point into the fundamental wedge
+	 */
+	public DoubleVector reduce(DoubleVector p) {
+		Vec3 result = new Vec3();
+		reduce(p.getValue(0), p.getValue(1), p.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	/**
+	 * Gets the index into PERMUTATIONS of the permutation which sorts the values in decreasing order
+	 */
+	private static int getPermutation(double a, double b, double c) {
+		if (a >= b) {
+			if (b >= c) {
+				return 0;
+			}
+			return a >= c ? 1 : 4;
+		}
+		if (a >= c) {
+			return 2;
+		}
+		return b >= c ? 3 : 5;
+	}
+	
+	private static double getComponent(int axis, double x, double y, double z) {
+		return axis == 0 ? x : axis == 1 ? y : z;
+	}
+	
+	/**
+	 * Finds the field at a point from the field at its image in the fundamental wedge
+	 * @param op operation which maps the point into the wedge
+	 * @param result vector to store the field at the point in
+	 * @return result
+	 */
+	public Vec3 expand(int op, double bx, double by, double bz, Vec3 result) {
+		int[] order = PERMUTATIONS[op >> 3];
+		double factor = factors[op];
+		double[] b = {bx, by, bz};
+		double[] original = new double[3];
+		for (int k = 0; k < 3; k++) {
+			int axis = order[k];
+			original[axis] = ((op & (1 << axis)) != 0 ? -factor : factor) * b[k];
+		}
+		return result.set(original[0], original[1], original[2]);
+	}
+	
+	/**
+	 * Finds the field at a point from the field at its image in the fundamental wedge
+	 * @param op operation which maps the point into the wedge
+	 */
+	public DoubleVector expand(int op, DoubleVector b) {
+		return expand(op, b.getValue(0), b.getValue(1), b.getValue(2), new Vec3()).toDoubleVector();
+	}
+	
+	/**
+	 * Checks whether a lattice is mapped onto itself by every operation, which needs the same spacing
+	 * and number of points on every axis and the lattice to be centered on the center of symmetry
+	 */
+	public boolean fits(FieldLattice lattice) {
+		int n = lattice.getDimension(0);
+		double spacing = lattice.getSpacing(0);
+		double[] center = {cx, cy, cz};
+		for (int d = 0; d < 3; d++) {
+			if (lattice.getDimension(d) != n 
+					|| Math.abs(lattice.getSpacing(d) - spacing) > TOLERANCE * spacing
+					|| Math.abs(lattice.getOrigin(d) + (n - 1) * spacing / 2 - center[d]) > TOLERANCE * spacing) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the indices of the points of a lattice in the fundamental wedge about the center of the
+	 * lattice, in increasing order
+	 * @param lattice lattice with the same number of points on every axis
+	 */
+	public static int[] getWedgeIndices(FieldLattice lattice) {
+		int count = 0;
+		int[] indices = new int[lattice.getSize()];
+		for (int index = 0; index < lattice.getSize(); index++) {
+			if (reduceIndex(lattice, index) == IDENTITY) {
+				indices[count++] = index;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(indices, 0, result, 0, count);
+		return result;
+	}
+	
+	/**
+	 * Sets every lattice point outside the fundamental wedge from its image in the wedge, leaving it
+	 * unset if the image has not been computed
+	 * @param lattice lattice which fits this symmetry
+	 */
+	public void fill(FieldLattice lattice) {
+		Vec3 b = new Vec3();
+		int[] image = new int[1];
+		for (int index = 0; index < lattice.getSize(); index++) {
+			int op = reduceIndex(lattice, index, image);
+			if (op != IDENTITY && lattice.isComputed(image[0])) {
+				lattice.get(image[0], b);
+				expand(op, b.getX(), b.getY(), b.getZ(), b);
+				lattice.set(index, b.getX(), b.getY(), b.getZ());
+			}
+		}
+	}
+	
+	private static int reduceIndex(FieldLattice lattice, int index) {
+		return reduceIndex(lattice, index, new int[1]);
+	}
+	
+	/**
+	 * Maps a lattice point into the fundamental wedge about the center of the lattice, working with
+	 * twice the offset from the center so that the arithmetic is exact
+	 * @param image array to store the index of the mapped point in
+	 * @return operation which maps the point into the wedge
+	 */
+	private static int reduceIndex(FieldLattice lattice, int index, int[] image) {
+		int n = lattice.getDimension(0);
+		int k = index % n;
+		int j = index / n % n;
+		int i = index / (n * n);
+		int[] offset = {2 * i - (n - 1), 2 * j - (n - 1), 2 * k - (n - 1)};
+		int signs = 0;
+		for (int d = 0; d < 3; d++) {
+			if (offset[d] < 0) {
+				offset[d] = -offset[d];
+				signs |= 1 << d;
+			}
+		}
+		int permutation = getPermutation(offset[0], offset[1], offset[2]);
+		int[] order = PERMUTATIONS[permutation];
+		image[0] = lattice.getIndex((offset[order[0]] + n - 1) / 2, (offset[order[1]] + n - 1) / 2, 
+				(offset[order[2]] + n - 1) / 2);
+		return permutation << 3 | signs;
+	}
+}
@@ -1,14 +1,79 @@
 package magnetic;
 
+import java.util.Collections;
+import java.util.List;
+
 import utilities.DoubleVector;
+import utilities.Vec3;
+import utilities.Vec3BatchFunction;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 
 /**
  * Wrapper for Function to ensure that only valid current densities are used for magnetic field calculation.
  * @author Ryan Dewey
  */
-public abstract class CurrentDensityFunction implements Function<DoubleVector, DoubleVector> {
+public abstract class CurrentDensityFunction implements Function<DoubleVector, DoubleVector>, 
+		Vec3BatchFunction {
+	/**
+	 * Evaluates the current density at (x, y, z) without allocating. Subclasses used in integration
+	 * should override this, the default implementation delegates to apply(DoubleVector).
+	 * @param result vector to store the current density in
+	 */
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		result.set(apply(new DoubleVector(x, y, z)));
+	}
+
+	/**
+	 * Adds the current density at (x, y, z) into the given vector without allocating
+	 * @param result vector to add the current density to
+	 */
+	public void addTo(double x, double y, double z, Vec3 result) {
+		result.add(new Vec3(apply(new DoubleVector(x, y, z))));
+	}
+
+	/**
+	 * Evaluates the current density at the first n points of the given arrays. Subclasses should
+	 * override this with a loop over primitive values, the default implementation calls
+	 * apply(double, double, double, Vec3) for each point.
+	 */
+	@Override
+	public void applyBatch(double[] x, double[] y, double[] z, int n, 
+			double[] resultX, double[] resultY, double[] resultZ) {
+		Vec3 value = new Vec3();
+		for (int i = 0; i < n; i++) {
+			apply(x[i], y[i], z[i], value);
+			resultX[i] = value.getX();
+			resultY[i] = value.getY();
+			resultZ[i] = value.getZ();
+		}
+	}
+
+	/**
+	 * Adds the current density at the first n points of the given arrays into the result arrays
+	 */
+	public void addToBatch(double[] x, double[] y, double[] z, int n, 
+			double[] resultX, double[] resultY, double[] resultZ) {
+		Vec3 value = new Vec3();
+		for (int i = 0; i < n; i++) {
+			value.set(resultX[i], resultY[i], resultZ[i]);
+			addTo(x[i], y[i], z[i], value);
+			resultX[i] = value.getX();
+			resultY[i] = value.getY();
+			resultZ[i] = value.getZ();
+		}
+	}
+
+	/**
+	 * Gets the functions which are summed to make up this function
+	 * @return list of functions which are not themselves sums
+	 */
+	List<CurrentDensityFunction> getTerms() {
+		return Collections.singletonList(this);
+	}
+
 	/**
 	 * Returns a new function which adds the given functions
 	 * @param functions functions to add
@@ -24,6 +89,47 @@ public abstract class CurrentDensityFunction implements Function<DoubleVector, D
 				}
 				return result;
 			}
+
+			@Override
+			public void apply(double x, double y, double z, Vec3 result) {
+				result.setZero();
+				addTo(x, y, z, result);
+			}
+
+			@Override
+			public void addTo(double x, double y, double z, Vec3 result) {
+				for (CurrentDensityFunction f : functions) {
+					f.addTo(x, y, z, result);
+				}
+			}
+
+			@Override
+			List<CurrentDensityFunction> getTerms() {
+				List<CurrentDensityFunction> terms = Lists.<CurrentDensityFunction>newArrayList();
+				for (CurrentDensityFunction f : functions) {
+					terms.addAll(f.getTerms());
+				}
+				return terms;
+			}
+
+			@Override
+			public void applyBatch(double[] x, double[] y, double[] z, int n, 
+					double[] resultX, double[] resultY, double[] resultZ) {
+				for (int i = 0; i < n; i++) {
+					resultX[i] = 0;
+					resultY[i] = 0;
+					resultZ[i] = 0;
+				}
+				addToBatch(x, y, z, n, resultX, resultY, resultZ);
+			}
+
+			@Override
+			public void addToBatch(double[] x, double[] y, double[] z, int n, 
+					double[] resultX, double[] resultY, double[] resultZ) {
+				for (CurrentDensityFunction f : functions) {
+					f.addToBatch(x, y, z, n, resultX, resultY, resultZ);
+				}
+			}
 		};
 	}
-}
\ No newline at end of file
+}
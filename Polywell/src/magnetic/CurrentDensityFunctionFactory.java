@@ -2,7 +2,6 @@ package magnetic;
 
 import java.util.List;
 
-import utilities.DoubleMatrix;
 import utilities.DoubleVector;
 import utilities.Pair;
 
@@ -36,31 +35,66 @@ public class CurrentDensityFunctionFactory {
 		ranges.add(Pair.<Double, Double>of(center.getValue(2) - radius - thickness,
 				center.getValue(2) + radius + thickness));
 		
-		final DoubleMatrix matrix = DoubleMatrix.getRotationMatrix(direction.normalize(), 
-				new DoubleVector(0, 0, 1));
-		
-		CurrentDensityFunction f = new CurrentDensityFunction() {
-			@Override
-			public DoubleVector apply(DoubleVector x) {
-				DoubleVector centerDistance = x.subtract(center);
-				DoubleVector xTrans = matrix.multiply(centerDistance);
-				double ringDistance = Math.sqrt(Math.pow(xTrans.getValue(2), 2) + 
-						Math.pow(Math.sqrt(Math.pow(xTrans.getValue(0), 2) + 
-								Math.pow(xTrans.getValue(1), 2)) - radius, 2));
-				if (ringDistance <= thickness) {
-					DoubleVector res = direction.crossProduct(x).normalize().multiply(magnitude);
-					return res;
-				} else {
-					DoubleVector res = new DoubleVector(0, 0, 0);
-					return res;
-				}
-			}
-		};
+		CurrentDensityFunction f = new TorusDensityFunction(radius, thickness, center, direction, magnitude);
 		
 		return Pair.<CurrentDensityFunction, List<Pair<Double, Double>>>of(f, 
 				ImmutableList.<Pair<Double, Double>>copyOf(ranges));
 	}
 
+	/**
+	 * Returns the magnetic field of a torus of given geometry
+	 * @param geometry shape and current of the torus
+	 * @return CurrentDensityFunction describing this current flow and range describing maximum extent
+	 * 			of the current
+	 */
+	public static Pair<CurrentDensityFunction, List<Pair<Double, Double>>> 
+			getTorusDensityFunction(TorusGeometry geometry) {
+		return getTorusDensityFunction(geometry.getRadius(), geometry.getThickness(), geometry.getCenter(), 
+				geometry.getDirection(), geometry.getMagnitude());
+	}
+	
+	/**
+	 * Returns the tori making up a cubic polywell configuration with the given parameters, one for
+	 * each of the 6 sides
+	 * @param radius radius of the rings for the polywell
+	 * @param thickness thickness of the rings for the polywell
+	 * @param magnitude magnitude of the current flow for the polywell
+	 * @return geometry of each torus in the polywell
+	 */
+	public static List<TorusGeometry> getCubicPolywellGeometry(double radius, double thickness, 
+			double magnitude) {
+		double centerDist = radius + Math.sqrt(2) * thickness;
+		return ImmutableList.<TorusGeometry>of(
+				new TorusGeometry(radius, thickness, new DoubleVector(centerDist, 0, 0), 
+						new DoubleVector(-1, 0, 0), magnitude),
+				new TorusGeometry(radius, thickness, new DoubleVector(-centerDist, 0, 0), 
+						new DoubleVector(1, 0, 0), magnitude),
+				new TorusGeometry(radius, thickness, new DoubleVector(0, centerDist, 0), 
+						new DoubleVector(0, -1, 0), magnitude),
+				new TorusGeometry(radius, thickness, new DoubleVector(0, -centerDist, 0), 
+						new DoubleVector(0, 1, 0), magnitude),
+				new TorusGeometry(radius, thickness, new DoubleVector(0, 0, centerDist), 
+						new DoubleVector(0, 0, -1), magnitude),
+				new TorusGeometry(radius, thickness, new DoubleVector(0, 0, -centerDist), 
+						new DoubleVector(0, 0, 1), magnitude));
+	}
+	
+	/**
+	 * Gets the tori which make up a current density created by this factory
+	 * @param j current density to describe
+	 * @return geometry of each torus in j, or null if j is not made up entirely of tori
+	 */
+	public static List<TorusGeometry> getTorusGeometry(CurrentDensityFunction j) {
+		List<TorusGeometry> result = Lists.<TorusGeometry>newArrayList();
+		for (CurrentDensityFunction term : j.getTerms()) {
+			if (!(term instanceof TorusDensityFunction)) {
+				return null;
+			}
+			result.add(((TorusDensityFunction) term).getGeometry());
+		}
+		return ImmutableList.<TorusGeometry>copyOf(result);
+	}
+
 	/**
 	 * Returns a current density function describing a cubic polywell configuration with the given
 	 * parameters. Each of the 6 sides is a single torus
@@ -73,29 +107,12 @@ public class CurrentDensityFunctionFactory {
 	public static Pair<CurrentDensityFunction, List<Pair<Double, Double>>> getCubicPolywellFunction(
 			double radius, double thickness, double magnitude) {
 		double centerDist = radius + Math.sqrt(2) * thickness;
-		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus1 = 
-				CurrentDensityFunctionFactory.getTorusDensityFunction(radius, thickness, 
-						new DoubleVector(centerDist, 0, 0), new DoubleVector(-1, 0, 0), magnitude);
-		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus2 = 
-				CurrentDensityFunctionFactory.getTorusDensityFunction(radius, thickness, 
-						new DoubleVector(-centerDist, 0, 0), new DoubleVector(1, 0, 0), magnitude);
-		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus3 = 
-				CurrentDensityFunctionFactory.getTorusDensityFunction(radius, thickness, 
-						new DoubleVector(0, centerDist, 0), new DoubleVector(0, -1, 0), magnitude);
-		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus4 = 
-				CurrentDensityFunctionFactory.getTorusDensityFunction(radius, thickness, 
-						new DoubleVector(0, -centerDist, 0), new DoubleVector(0, 1, 0), magnitude);
-		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus5 = 
-				CurrentDensityFunctionFactory.getTorusDensityFunction(radius, thickness, 
-						new DoubleVector(0, 0, centerDist), new DoubleVector(0, 0, -1), magnitude);
-		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus6 = 
-				CurrentDensityFunctionFactory.getTorusDensityFunction(radius, thickness, 
-						new DoubleVector(0, 0, -centerDist), new DoubleVector(0, 0, 1), magnitude);
-		CurrentDensityFunction combined = CurrentDensityFunction.addFunctions(
-				torus1.getA(), torus2.getA(), torus3.getA(), torus4.getA(), torus5.getA(), torus6.getA());
-//		@SuppressWarnings("unchecked")
-//		List<Pair<Double, Double>> totalRange = combineRanges(Lists.<List<Pair<Double, Double>>>newArrayList(
-//				torus1.getB(), torus2.getB(), torus3.getB(), torus4.getB(), torus5.getB(), torus6.getB()));
+		List<TorusGeometry> tori = getCubicPolywellGeometry(radius, thickness, magnitude);
+		CurrentDensityFunction[] functions = new CurrentDensityFunction[tori.size()];
+		for (int i = 0; i < functions.length; i++) {
+			functions[i] = getTorusDensityFunction(tori.get(i)).getA();
+		}
+		CurrentDensityFunction combined = CurrentDensityFunction.addFunctions(functions);
 		List<Pair<Double, Double>> totalRange = Lists.<Pair<Double, Double>>newArrayList();
 		totalRange.add(Pair.of(-1 * centerDist - thickness, centerDist + thickness));
 		totalRange.add(Pair.of(-1 * centerDist - thickness, centerDist + thickness));
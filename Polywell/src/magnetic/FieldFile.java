@@ -0,0 +1,449 @@
+package magnetic;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import utilities.DoubleVector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Binary .field file holding a magnetic field on a lattice. All values are little-endian. The file
+ * starts with a header:
+ * <ul>
+ * <li>the 4 bytes "PWFD", an int version and, from version 2, an int of flags</li>
+ * <li>3 doubles of lattice origin, 3 doubles of spacing and 3 ints of dimensions</li>
+ * <li>a long number of samples used to compute each point, 0 if unknown</li>
+ * <li>an int number of tori, then for each torus 9 doubles: radius, thickness, center, direction
+ * and magnitude</li>
+ * <li>from version 3, an int length and the UTF-8 bytes of the settings the field was computed with,
+ * or a length of -1 if they are unknown</li>
+ * </ul>
+ * The header is padded to a multiple of 8 bytes and followed by the x, y and z components of the field
+ * as three contiguous arrays of doubles in lattice index order, with NaN at points not computed. When
+ * the SYMMETRIC flag is set the tori have cubic symmetry about the center of the lattice and only the
+ * points in the fundamental wedge are stored, the rest being reconstructed on reading. Files are read
+ * through a memory map, so the payload is copied straight from the page cache.
+ * @author Ryan Dewey
+ */
+public class FieldFile {
+	public static final int VERSION = 3;
+	/**
+	 * Flag set when only the fundamental wedge of a field with cubic symmetry is stored
+	 */
+	public static final int SYMMETRIC = 1;
+	private static final byte[] MAGIC = {'P', 'W', 'F', 'D'};
+	private static final int WRITE_CHUNK = 8192;
+	
+	private final FieldLattice lattice;
+	private final List<TorusGeometry> tori;
+	private final long samples;
+	private final boolean symmetric;
+	private final String settings;
+	
+	/**
+	 * Creates a field file which stores every lattice point
+	 * @param lattice field to store
+	 * @param tori geometry of the current which produced the field, may be empty
+	 * @param samples number of samples used to compute each point, 0 if unknown
+	 */
+	public FieldFile(FieldLattice lattice, List<TorusGeometry> tori, long samples) {
+		this(lattice, tori, samples, false);
+	}
+	
+	/**
+	 * Creates a field file
+	 * @param lattice field to store
+	 * @param tori geometry of the current which produced the field, may be empty
+	 * @param samples number of samples used to compute each point, 0 if unknown
+	 * @param symmetric whether to store only the fundamental wedge, which needs the tori to have cubic
+	 * 			symmetry about the center of the lattice
+	 */
+	public FieldFile(FieldLattice lattice, List<TorusGeometry> tori, long samples, boolean symmetric) {
+		this(lattice, tori, samples, symmetric, null);
+	}
+	
+	/**
+	 * Creates a field file
+	 * @param lattice field to store
+	 * @param tori geometry of the current which produced the field, may be empty
+	 * @param samples number of samples used to compute each point, 0 if unknown
+	 * @param symmetric whether to store only the fundamental wedge, which needs the tori to have cubic
+	 * 			symmetry about the center of the lattice
+	 * @param settings description of the settings the field was computed with, or null if unknown
+	 */
+	public FieldFile(FieldLattice lattice, List<TorusGeometry> tori, long samples, boolean symmetric, 
+			String settings) {
+		if (symmetric) {
+			CubicSymmetry symmetry = CubicSymmetry.detect(tori);
+			if (symmetry == null || !symmetry.fits(lattice)) {
+				throw new IllegalArgumentException("Tori must have cubic symmetry about the lattice center");
+			}
+		}
+		this.lattice = lattice;
+		this.tori = ImmutableList.<TorusGeometry>copyOf(tori);
+		this.samples = samples;
+		this.symmetric = symmetric;
+		this.settings = settings;
+	}
+	
+	public FieldLattice getLattice() {
+		return lattice;
+	}
+	
+	/**
+	 * Gets the geometry of the current which produced the field
+	 */
+	public List<TorusGeometry> getTori() {
+		return tori;
+	}
+	
+	/**
+	 * Gets the number of samples used to compute each point, 0 if unknown
+	 */
+	public long getSamples() {
+		return samples;
+	}
+	
+	/**
+	 * Gets the description of the settings the field was computed with
+	 * @return settings, or null if unknown
+	 */
+	public String getSettings() {
+		return settings;
+	}
+	
+	/**
+	 * Checks whether the field was computed for the given tori with the given settings
+	 * @param tori geometry of the current, may be empty
+	 * @param settings description of the settings
+	 * @return false if the tori or settings differ, or the settings are unknown
+	 */
+	public boolean matches(List<TorusGeometry> tori, String settings) {
+		if (this.settings == null || !this.settings.equals(settings) || this.tori.size() != tori.size()) {
+			return false;
+		}
+		for (int i = 0; i < tori.size(); i++) {
+			TorusGeometry stored = this.tori.get(i);
+			TorusGeometry torus = tori.get(i);
+			if (stored.getRadius() != torus.getRadius() || stored.getThickness() != torus.getThickness() 
+					|| stored.getMagnitude() != torus.getMagnitude() 
+					|| !Arrays.equals(stored.getCenter().toArray(), torus.getCenter().toArray()) 
+					|| !Arrays.equals(stored.getDirection().toArray(), torus.getDirection().toArray())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks whether only the fundamental wedge of the lattice is stored
+	 */
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+	
+	/**
+	 * Checks whether a file is in the binary format rather than the text format
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] start = new byte[MAGIC.length];
+			int read = in.read(start);
+			if (read != MAGIC.length) {
+				return false;
+			}
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (start[i] != MAGIC[i]) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads a binary field file
+	 * @throws IOException if the file cannot be read or is not a binary field file of a known version
+	 */
+	public static FieldFile read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (buffer.get() != MAGIC[i]) {
+					throw new IOException("Not a binary field file: " + file);
+				}
+			}
+			int version = buffer.getInt();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported field file version " + version);
+			}
+			int flags = version >= 2 ? buffer.getInt() : 0;
+			double[] origin = new double[3];
+			double[] spacing = new double[3];
+			int[] dims = new int[3];
+			for (int d = 0; d < 3; d++) {
+				origin[d] = buffer.getDouble();
+			}
+			for (int d = 0; d < 3; d++) {
+				spacing[d] = buffer.getDouble();
+			}
+			for (int d = 0; d < 3; d++) {
+				dims[d] = buffer.getInt();
+			}
+			long samples = buffer.getLong();
+			int count = buffer.getInt();
+			List<TorusGeometry> tori = Lists.<TorusGeometry>newArrayList();
+			for (int i = 0; i < count; i++) {
+				double radius = buffer.getDouble();
+				double thickness = buffer.getDouble();
+				DoubleVector center = new DoubleVector(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+				DoubleVector direction = new DoubleVector(buffer.getDouble(), buffer.getDouble(), 
+						buffer.getDouble());
+				tori.add(new TorusGeometry(radius, thickness, center, direction, buffer.getDouble()));
+			}
+			String settings = null;
+			int settingsLength = -1;
+			if (version >= 3) {
+				settingsLength = buffer.getInt();
+				if (settingsLength > buffer.remaining()) {
+					throw new IOException("Field file is truncated: " + file);
+				}
+				if (settingsLength >= 0) {
+					byte[] bytes = new byte[settingsLength];
+					buffer.get(bytes);
+					settings = new String(bytes, StandardCharsets.UTF_8);
+				}
+			}
+			int size = dims[0] * dims[1] * dims[2];
+			buffer.position(getHeaderSize(version, count, settingsLength));
+			if ((flags & SYMMETRIC) != 0) {
+				return readWedge(file, buffer, new FieldLattice(origin, spacing, dims), tori, samples, 
+						settings);
+			}
+			if (buffer.remaining() < 3L * size * 8) {
+				throw new IOException("Field file is truncated: " + file);
+			}
+			DoubleBuffer payload = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			double[] x = new double[size];
+			double[] y = new double[size];
+			double[] z = new double[size];
+			payload.get(x);
+			payload.get(y);
+			payload.get(z);
+			return new FieldFile(new FieldLattice(origin, spacing, dims, x, y, z), tori, samples, false, 
+					settings);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads the fundamental wedge of a symmetric field and reconstructs the rest of the lattice
+	 * @param buffer file positioned at the start of the payload
+	 * @param lattice empty lattice to store the field in
+	 */
+	private static FieldFile readWedge(File file, ByteBuffer buffer, FieldLattice lattice, 
+			List<TorusGeometry> tori, long samples, String settings) throws IOException {
+		CubicSymmetry symmetry = CubicSymmetry.detect(tori);
+		if (symmetry == null || !symmetry.fits(lattice)) {
+			throw new IOException("Symmetric field file without cubic symmetry: " + file);
+		}
+		int[] wedge = CubicSymmetry.getWedgeIndices(lattice);
+		if (buffer.remaining() < 3L * wedge.length * 8) {
+			throw new IOException("Field file is truncated: " + file);
+		}
+		DoubleBuffer payload = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		double[][] components = new double[3][wedge.length];
+		for (double[] component : components) {
+			payload.get(component);
+		}
+		for (int i = 0; i < wedge.length; i++) {
+			lattice.set(wedge[i], components[0][i], components[1][i], components[2][i]);
+		}
+		symmetry.fill(lattice);
+		return new FieldFile(lattice, tori, samples, true, settings);
+	}
+	
+	/**
+	 * Writes this field to a binary file. The field is written to a temporary file which then replaces
+	 * the target, so a crash during the write leaves any previous file intact.
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			FileChannel channel = out.getChannel();
+			byte[] settingsBytes = settings == null ? null : settings.getBytes(StandardCharsets.UTF_8);
+			int settingsLength = settingsBytes == null ? -1 : settingsBytes.length;
+			ByteBuffer header = ByteBuffer.allocate(getHeaderSize(VERSION, tori.size(), settingsLength))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(symmetric ? SYMMETRIC : 0);
+			for (int d = 0; d < 3; d++) {
+				header.putDouble(lattice.getOrigin(d));
+			}
+			for (int d = 0; d < 3; d++) {
+				header.putDouble(lattice.getSpacing(d));
+			}
+			for (int d = 0; d < 3; d++) {
+				header.putInt(lattice.getDimension(d));
+			}
+			header.putLong(samples);
+			header.putInt(tori.size());
+			for (TorusGeometry torus : tori) {
+				header.putDouble(torus.getRadius());
+				header.putDouble(torus.getThickness());
+				for (int d = 0; d < 3; d++) {
+					header.putDouble(torus.getCenter().getValue(d));
+				}
+				for (int d = 0; d < 3; d++) {
+					header.putDouble(torus.getDirection().getValue(d));
+				}
+				header.putDouble(torus.getMagnitude());
+			}
+			header.putInt(settingsLength);
+			if (settingsBytes != null) {
+				header.put(settingsBytes);
+			}
+			header.clear();
+			writeFully(channel, header);
+			ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK * 8).order(ByteOrder.LITTLE_ENDIAN);
+			for (double[] component : getComponents()) {
+				for (int from = 0; from < component.length; from += WRITE_CHUNK) {
+					int length = Math.min(WRITE_CHUNK, component.length - from);
+					chunk.clear();
+					chunk.asDoubleBuffer().put(component, from, length);
+					chunk.limit(length * 8);
+					writeFully(channel, chunk);
+				}
+			}
+			channel.force(true);
+		} finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Gets the x, y and z components of the field at the stored points
+	 */
+	private double[][] getComponents() {
+		double[][] all = {lattice.getX(), lattice.getY(), lattice.getZ()};
+		if (!symmetric) {
+			return all;
+		}
+		int[] wedge = CubicSymmetry.getWedgeIndices(lattice);
+		double[][] components = new double[3][wedge.length];
+		for (int c = 0; c < 3; c++) {
+			for (int i = 0; i < wedge.length; i++) {
+				components[c][i] = all[c][wedge[i]];
+			}
+		}
+		return components;
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Gets the size of the header, padded to a multiple of 8 bytes
+	 * @param version version of the file
+	 * @param count number of tori in the header
+	 * @param settingsLength length of the settings in bytes, -1 if there are none
+	 */
+	private static int getHeaderSize(int version, int count, int settingsLength) {
+		int size = MAGIC.length + 4 + (version >= 2 ? 4 : 0) + 6 * 8 + 3 * 4 + 8 + 4 + count * 9 * 8;
+		if (version >= 3) {
+			size += 4 + Math.max(settingsLength, 0);
+		}
+		return (size + 7) / 8 * 8;
+	}
+	
+	/**
+	 * Reads a text field file, with one point per line given as the coordinates of the point followed
+	 * by the components of the field, separated by spaces
+	 * @return field at each point in the file
+	 */
+	public static HashMap<DoubleVector, DoubleVector> readText(File file) throws IOException {
+		HashMap<DoubleVector, DoubleVector> points = Maps.<DoubleVector, DoubleVector>newHashMap();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] values = line.split("\\s+");
+				if (values.length != 6) {
+					throw new IOException("Expected 6 values per line: " + line);
+				}
+				double[] parsed = new double[6];
+				for (int i = 0; i < 6; i++) {
+					parsed[i] = Double.parseDouble(values[i]);
+				}
+				points.put(new DoubleVector(parsed[0], parsed[1], parsed[2]), 
+						new DoubleVector(parsed[3], parsed[4], parsed[5]));
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number in " + file, e);
+		} finally {
+			in.close();
+		}
+		return points;
+	}
+	
+	/**
+	 * Converts a text field file to a binary field file
+	 * @param text text file to read, whose points must form a regular grid
+	 * @param binary binary file to write
+	 * @param tori geometry of the current which produced the field, may be empty
+	 * @param samples number of samples used to compute each point, 0 if unknown
+	 */
+	public static void convert(File text, File binary, List<TorusGeometry> tori, long samples) 
+			throws IOException {
+		new FieldFile(FieldLattice.fromPoints(readText(text)), tori, samples).write(binary);
+	}
+	
+	/**
+	 * Converts a text field file to a binary field file
+	 * @param args name of text file to read and name of binary file to write
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: FieldFile <text file> <binary file>");
+			return;
+		}
+		convert(new File(args[0]), new File(args[1]), Lists.<TorusGeometry>newArrayList(), 0);
+	}
+}
@@ -0,0 +1,275 @@
+package magnetic;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+import utilities.Vec3Function;
+
+import com.google.common.base.Function;
+
+/**
+ * Interpolates a magnetic field from values on a regular lattice. The cell containing the last point is
+ * remembered along with the values needed to interpolate within it, so that the nearby points visited
+ * by a particle path are found without recomputing anything. Because of this an interpolator should
+ * only be used from one thread at a time.
+ * @author Ryan Dewey
+ */
+public final class FieldInterpolator implements Function<DoubleVector, DoubleVector>, Vec3Function {
+	/**
+	 * Methods of interpolating within a cell
+	 */
+	public enum Mode {
+		/**
+		 * Linear along each axis between the 8 corners of the cell. Continuous but with a kink in the
+		 * field at each cell face.
+		 */
+		TRILINEAR,
+		/**
+		 * Cubic Hermite along each axis, using the value and the derivatives at the corners of the cell
+		 * as estimated from neighbouring grid points. The field and its first derivatives are continuous.
+		 * The estimated derivatives are adjusted to have no divergence at each grid point.
+		 */
+		TRICUBIC
+	}
+	
+	private final Mode mode;
+	private final double[] origin;
+	private final double[] spacing;
+	private final int[] dims;
+	private final double[][] values;
+	
+	private int cellX = -1;
+	private int cellY = -1;
+	private int cellZ = -1;
+	// Corner data of the current cell, component-major
+	private final double[] cell;
+	private final double[] basisX = new double[4];
+	private final double[] basisY = new double[4];
+	private final double[] basisZ = new double[4];
+	
+	/**
+	 * Creates an interpolator over a lattice. Values set in the lattice later are seen by the
+	 * interpolator once a query leaves the current cell.
+	 * @param mode method of interpolation
+	 * @param lattice lattice of field values, complete and with at least 2 points along each axis
+	 */
+	public FieldInterpolator(Mode mode, FieldLattice lattice) {
+		if (!lattice.isComplete()) {
+			throw new IllegalArgumentException("Field must be known at every lattice point");
+		}
+		origin = new double[3];
+		spacing = new double[3];
+		dims = new int[3];
+		for (int d = 0; d < 3; d++) {
+			origin[d] = lattice.getOrigin(d);
+			spacing[d] = lattice.getSpacing(d);
+			dims[d] = lattice.getDimension(d);
+			if (dims[d] < 2) {
+				throw new IllegalArgumentException("Lattice must have at least 2 points along each axis");
+			}
+		}
+		this.mode = mode;
+		values = new double[][] {lattice.getX(), lattice.getY(), lattice.getZ()};
+		cell = new double[mode == Mode.TRILINEAR ? 3 * 8 : 3 * 64];
+	}
+	
+	private FieldInterpolator(FieldInterpolator other) {
+		mode = other.mode;
+		origin = other.origin;
+		spacing = other.spacing;
+		dims = other.dims;
+		values = other.values;
+		cell = new double[other.cell.length];
+	}
+	
+	/**
+	 * Creates an interpolator over the same values with a cell of its own, so that it can be used from
+	 * another thread
+	 */
+	public FieldInterpolator copy() {
+		return new FieldInterpolator(this);
+	}
+	
+	public Mode getMode() {
+		return mode;
+	}
+	
+	/**
+	 * Checks whether a point lies within the grid
+	 */
+	public boolean contains(double x, double y, double z) {
+		return inRange(x, 0) && inRange(y, 1) && inRange(z, 2);
+	}
+	
+	private boolean inRange(double value, int d) {
+		double position = (value - origin[d]) / spacing[d];
+		return position >= 0 && position <= dims[d] - 1;
+	}
+	
+	@Override
+	public DoubleVector apply(DoubleVector x) {
+		Vec3 result = new Vec3();
+		apply(x.getValue(0), x.getValue(1), x.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	/**
+	 * Interpolates the field at (x, y, z)
+	 * @param result vector to store the field in
+	 * @throws IllegalArgumentException if the point is outside the grid
+	 */
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		double px = (x - origin[0]) / spacing[0];
+		double py = (y - origin[1]) / spacing[1];
+		double pz = (z - origin[2]) / spacing[2];
+		if (!(px >= 0 && px <= dims[0] - 1 && py >= 0 && py <= dims[1] - 1 && pz >= 0 && pz <= dims[2] - 1)) {
+			throw new IllegalArgumentException("Point is outside the grid: " + x + ", " + y + ", " + z);
+		}
+		int i = Math.min((int) px, dims[0] - 2);
+		int j = Math.min((int) py, dims[1] - 2);
+		int k = Math.min((int) pz, dims[2] - 2);
+		if (i != cellX || j != cellY || k != cellZ) {
+			loadCell(i, j, k);
+		}
+		if (mode == Mode.TRILINEAR) {
+			trilinear(px - i, py - j, pz - k, result);
+		} else {
+			tricubic(px - i, py - j, pz - k, result);
+		}
+	}
+	
+	private void trilinear(double tx, double ty, double tz, Vec3 result) {
+		double bx = 0;
+		double by = 0;
+		double bz = 0;
+		for (int c = 0; c < 8; c++) {
+			double weight = ((c & 4) == 0 ? 1 - tx : tx) * ((c & 2) == 0 ? 1 - ty : ty) 
+					* ((c & 1) == 0 ? 1 - tz : tz);
+			bx += weight * cell[c];
+			by += weight * cell[8 + c];
+			bz += weight * cell[16 + c];
+		}
+		result.set(bx, by, bz);
+	}
+	
+	private void tricubic(double tx, double ty, double tz, Vec3 result) {
+		hermite(tx, basisX);
+		hermite(ty, basisY);
+		hermite(tz, basisZ);
+		result.set(contract(0), contract(64), contract(128));
+	}
+	
+	/**
+	 * Contracts the corner data of one component with the basis along z, then y, then x
+	 * @param offset start of the component in the cell data
+	 */
+	private double contract(int offset) {
+		double sum = 0;
+		for (int a = 0; a < 4; a++) {
+			double sumY = 0;
+			for (int b = 0; b < 4; b++) {
+				int index = offset + (a * 4 + b) * 4;
+				double sumZ = basisZ[0] * cell[index] + basisZ[1] * cell[index + 1] 
+						+ basisZ[2] * cell[index + 2] + basisZ[3] * cell[index + 3];
+				sumY += basisY[b] * sumZ;
+			}
+			sum += basisX[a] * sumY;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Computes the cubic Hermite basis at t, [value at 0, value at 1, slope at 0, slope at 1]
+	 */
+	private static void hermite(double t, double[] basis) {
+		double t2 = t * t;
+		double t3 = t2 * t;
+		basis[0] = 2 * t3 - 3 * t2 + 1;
+		basis[1] = -2 * t3 + 3 * t2;
+		basis[2] = t3 - 2 * t2 + t;
+		basis[3] = t3 - t2;
+	}
+	
+	/**
+	 * Loads the corner data of the cell with lowest corner (i, j, k). For tricubic interpolation the
+	 * data of each component is stored at index (a * 4 + b) * 4 + c, where each of a, b and c is the
+	 * index of a Hermite basis function along x, y and z respectively. Index 0 or 1 is the value at the
+	 * low or high corner, and 2 or 3 is the derivative there in grid units.
+	 */
+	private void loadCell(int i, int j, int k) {
+		cellX = i;
+		cellY = j;
+		cellZ = k;
+		if (mode == Mode.TRILINEAR) {
+			for (int c = 0; c < 8; c++) {
+				int index = getIndex(i + ((c >> 2) & 1), j + ((c >> 1) & 1), k + (c & 1));
+				for (int component = 0; component < 3; component++) {
+					cell[component * 8 + c] = values[component][index];
+				}
+			}
+			return;
+		}
+		for (int c = 0; c < 8; c++) {
+			int cx = (c >> 2) & 1;
+			int cy = (c >> 1) & 1;
+			int cz = c & 1;
+			for (int component = 0; component < 3; component++) {
+				for (int m = 0; m < 8; m++) {
+					int a = cx + 2 * ((m >> 2) & 1);
+					int b = cy + 2 * ((m >> 1) & 1);
+					int d = cz + 2 * (m & 1);
+					cell[component * 64 + (a * 4 + b) * 4 + d] = derivative(values[component], i + cx, j + cy, 
+							k + cz, m);
+				}
+			}
+			// Remove the divergence of the estimated first derivatives, spread evenly between the axes
+			int dx = ((cx + 2) * 4 + cy) * 4 + cz;
+			int dy = 64 + (cx * 4 + cy + 2) * 4 + cz;
+			int dz = 128 + (cx * 4 + cy) * 4 + cz + 2;
+			double divergence = (cell[dx] / spacing[0] + cell[dy] / spacing[1] + cell[dz] / spacing[2]) / 3;
+			cell[dx] -= divergence * spacing[0];
+			cell[dy] -= divergence * spacing[1];
+			cell[dz] -= divergence * spacing[2];
+		}
+	}
+	
+	/**
+	 * Estimates a derivative of one component at a grid point by second order central differences, or
+	 * second order one sided differences at the edges of the grid. Mixed derivatives are found by
+	 * differencing along one axis at a time.
+	 * @param mask derivatives to take, bit 2 for x, bit 1 for y and bit 0 for z
+	 */
+	private double derivative(double[] component, int i, int j, int k, int mask) {
+		if (mask == 0) {
+			return component[getIndex(i, j, k)];
+		}
+		int bit = Integer.highestOneBit(mask);
+		int axis = bit == 4 ? 0 : bit == 2 ? 1 : 2;
+		int rest = mask & ~bit;
+		int position = axis == 0 ? i : axis == 1 ? j : k;
+		int di = axis == 0 ? 1 : 0;
+		int dj = axis == 1 ? 1 : 0;
+		int dk = axis == 2 ? 1 : 0;
+		if (dims[axis] == 2) {
+			int low = -position;
+			return derivative(component, i + di * (low + 1), j + dj * (low + 1), k + dk * (low + 1), rest)
+					- derivative(component, i + di * low, j + dj * low, k + dk * low, rest);
+		}
+		if (position == 0) {
+			return (-3 * derivative(component, i, j, k, rest) 
+					+ 4 * derivative(component, i + di, j + dj, k + dk, rest)
+					- derivative(component, i + 2 * di, j + 2 * dj, k + 2 * dk, rest)) / 2;
+		}
+		if (position == dims[axis] - 1) {
+			return (3 * derivative(component, i, j, k, rest) 
+					- 4 * derivative(component, i - di, j - dj, k - dk, rest)
+					+ derivative(component, i - 2 * di, j - 2 * dj, k - 2 * dk, rest)) / 2;
+		}
+		return (derivative(component, i + di, j + dj, k + dk, rest) 
+				- derivative(component, i - di, j - dj, k - dk, rest)) / 2;
+	}
+	
+	private int getIndex(int i, int j, int k) {
+		return (i * dims[1] + j) * dims[2] + k;
+	}
+}
@@ -0,0 +1,226 @@
+package magnetic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of field values computed at lattice points. Each record holds the lattice index,
+ * the field and a CRC32 of both, and records are written in batches which are forced to disk together.
+ * A torn or corrupt record at the end of the journal, left by a crash during a write, is ignored on
+ * replay. The journal starts with the shape of its lattice so it is never replayed into another one.
+ * @author Ryan Dewey
+ */
+public class FieldJournal {
+	private static final byte[] MAGIC = {'P', 'W', 'F', 'J'};
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = MAGIC.length + 4 + 6 * 8 + 3 * 4;
+	private static final int RECORD_SIZE = 4 + 3 * 8 + 4;
+	
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final CRC32 crc = new CRC32();
+	
+	/**
+	 * Opens a journal for appending, creating it if it does not exist. Records left after a torn
+	 * record are discarded.
+	 * @param path file holding the journal
+	 * @param lattice lattice whose points are journaled
+	 * @param batchSize number of records written to disk together
+	 * @throws IOException if the journal cannot be opened or belongs to a different lattice
+	 */
+	public FieldJournal(File path, FieldLattice lattice, int batchSize) throws IOException {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		buffer = ByteBuffer.allocate(batchSize * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				writeHeader(lattice);
+			} else {
+				channel.position(0);
+				readHeader(channel, lattice);
+				channel.truncate(HEADER_SIZE + countRecords(channel, null) * RECORD_SIZE);
+			}
+			channel.position(channel.size());
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Adds the field at a lattice point, writing the batch to disk once it is full
+	 */
+	public void append(int index, double bx, double by, double bz) throws IOException {
+		int start = buffer.position();
+		buffer.putInt(index);
+		buffer.putDouble(bx);
+		buffer.putDouble(by);
+		buffer.putDouble(bz);
+		crc.reset();
+		crc.update(buffer.array(), start, RECORD_SIZE - 4);
+		buffer.putInt((int) crc.getValue());
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+	}
+	
+	/**
+	 * Writes the records added since the last flush and forces them to disk
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		channel.force(false);
+	}
+	
+	/**
+	 * Discards every record, called once the journaled values are safely stored elsewhere
+	 */
+	public void reset() throws IOException {
+		buffer.clear();
+		channel.truncate(HEADER_SIZE);
+		channel.position(HEADER_SIZE);
+		channel.force(false);
+	}
+	
+	/**
+	 * Flushes and closes the journal
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Applies the records of a journal to a lattice, stopping at the first torn or corrupt record
+	 * @param path file holding the journal
+	 * @param lattice lattice to store the field in
+	 * @return number of records applied, 0 if the journal does not exist
+	 * @throws IOException if the journal cannot be read or belongs to a different lattice
+	 */
+	public static int replay(File path, FieldLattice lattice) throws IOException {
+		if (!path.exists()) {
+			return 0;
+		}
+		RandomAccessFile in = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				return 0;
+			}
+			readHeader(channel, lattice);
+			return countRecords(channel, lattice);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private void writeHeader(FieldLattice lattice) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		for (int d = 0; d < 3; d++) {
+			header.putDouble(lattice.getOrigin(d));
+		}
+		for (int d = 0; d < 3; d++) {
+			header.putDouble(lattice.getSpacing(d));
+		}
+		for (int d = 0; d < 3; d++) {
+			header.putInt(lattice.getDimension(d));
+		}
+		header.flip();
+		channel.truncate(0);
+		channel.position(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(false);
+	}
+	
+	/**
+	 * Reads the header at the position of the channel and checks it matches the lattice
+	 */
+	private static void readHeader(FileChannel channel, FieldLattice lattice) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header.get() != MAGIC[i]) {
+				throw new IOException("Not a field journal");
+			}
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported field journal version " + version);
+		}
+		boolean matches = true;
+		for (int d = 0; d < 3; d++) {
+			matches &= header.getDouble() == lattice.getOrigin(d);
+		}
+		for (int d = 0; d < 3; d++) {
+			matches &= header.getDouble() == lattice.getSpacing(d);
+		}
+		for (int d = 0; d < 3; d++) {
+			matches &= header.getInt() == lattice.getDimension(d);
+		}
+		if (!matches) {
+			throw new IOException("Field journal belongs to a different lattice");
+		}
+	}
+	
+	/**
+	 * Counts the valid records from the position of the channel up to the first torn or corrupt record
+	 * @param lattice lattice to store the records in, or null to only count them
+	 */
+	private static int countRecords(FileChannel channel, FieldLattice lattice) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		int count = 0;
+		int size = lattice == null ? Integer.MAX_VALUE : lattice.getSize();
+		while (readFully(channel, record)) {
+			crc.reset();
+			crc.update(record.array(), 0, RECORD_SIZE - 4);
+			int index = record.getInt();
+			double bx = record.getDouble();
+			double by = record.getDouble();
+			double bz = record.getDouble();
+			if (record.getInt() != (int) crc.getValue() || index < 0 || index >= size) {
+				break;
+			}
+			if (lattice != null) {
+				lattice.set(index, bx, by, bz);
+			}
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Fills a buffer from a channel and flips it for reading
+	 * @return false if the channel ended before the buffer was full
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+}
@@ -0,0 +1,295 @@
+package magnetic;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+import utilities.Vec3;
+
+/**
+ * Magnetic field stored at the points of a regular lattice. Lattice point (i, j, k) is at
+ * origin + (i, j, k) * spacing, and its field is kept in three primitive arrays at index
+ * (i * ny + j) * nz + k, so a point is found by arithmetic on its coordinates rather than by hashing.
+ * Points whose field has not been computed hold NaN.
+ * @author Ryan Dewey
+ */
+public class FieldLattice {
+	/**
+	 * Fraction of the spacing within which a coordinate is matched to a lattice point
+	 */
+	private static final double TOLERANCE = 1.0E-6;
+	
+	private final double[] origin;
+	private final double[] spacing;
+	private final int[] dims;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private int computed;
+	
+	/**
+	 * Creates a lattice with no computed points
+	 * @param origin position of lattice point (0, 0, 0)
+	 * @param spacing distance between lattice points along each axis
+	 * @param dims number of lattice points along each axis
+	 */
+	public FieldLattice(double[] origin, double[] spacing, int[] dims) {
+		if (origin.length != 3 || spacing.length != 3 || dims.length != 3) {
+			throw new IllegalArgumentException("Lattice must be 3 dimensional");
+		}
+		for (int d = 0; d < 3; d++) {
+			if (dims[d] <= 0 || !(spacing[d] > 0)) {
+				throw new IllegalArgumentException("Dimensions and spacing must be positive");
+			}
+		}
+		this.origin = origin.clone();
+		this.spacing = spacing.clone();
+		this.dims = dims.clone();
+		int size = dims[0] * dims[1] * dims[2];
+		x = new double[size];
+		y = new double[size];
+		z = new double[size];
+		Arrays.fill(x, Double.NaN);
+		Arrays.fill(y, Double.NaN);
+		Arrays.fill(z, Double.NaN);
+	}
+	
+	/**
+	 * Creates a lattice holding the given component arrays, which are not copied
+	 */
+	FieldLattice(double[] origin, double[] spacing, int[] dims, double[] x, double[] y, double[] z) {
+		this.origin = origin.clone();
+		this.spacing = spacing.clone();
+		this.dims = dims.clone();
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		for (int i = 0; i < x.length; i++) {
+			if (isComputed(i)) {
+				computed++;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a lattice of the same shape with no computed points
+	 */
+	public FieldLattice copyShape() {
+		return new FieldLattice(origin, spacing, dims);
+	}
+	
+	/**
+	 * Checks whether another lattice has exactly the same points as this one
+	 */
+	public boolean hasSameShape(FieldLattice other) {
+		return Arrays.equals(origin, other.origin) && Arrays.equals(spacing, other.spacing) 
+				&& Arrays.equals(dims, other.dims);
+	}
+	
+	/**
+	 * Creates a lattice with no computed points spanning the given ranges, including both ends
+	 * @param ranges extent of the lattice along each axis
+	 * @param points number of lattice points along each axis, at least 2
+	 */
+	public static FieldLattice fromRanges(List<Pair<Double, Double>> ranges, int points) {
+		if (points < 2) {
+			throw new IllegalArgumentException("Lattice must have at least 2 points along each axis");
+		}
+		double[] origin = new double[3];
+		double[] spacing = new double[3];
+		for (int d = 0; d < 3; d++) {
+			origin[d] = ranges.get(d).getA();
+			spacing[d] = (ranges.get(d).getB() - ranges.get(d).getA()) / (points - 1);
+		}
+		return new FieldLattice(origin, spacing, new int[] {points, points, points});
+	}
+	
+	/**
+	 * Creates a lattice from field values at the points of a regular grid, such as those loaded from a
+	 * .field file. Coordinates which are accumulated by repeatedly adding a grid width are matched to
+	 * the nearest lattice point.
+	 * @param points field at each point
+	 * @return lattice holding the points
+	 * @throws IllegalArgumentException if the points do not fill a regular grid
+	 */
+	public static FieldLattice fromPoints(Map<DoubleVector, DoubleVector> points) {
+		if (points.isEmpty()) {
+			throw new IllegalArgumentException("No points given");
+		}
+		double[] origin = new double[3];
+		double[] spacing = new double[3];
+		int[] dims = new int[3];
+		for (int d = 0; d < 3; d++) {
+			double[] coords = new double[points.size()];
+			int index = 0;
+			for (DoubleVector point : points.keySet()) {
+				coords[index++] = point.getValue(d);
+			}
+			Arrays.sort(coords);
+			double range = coords[coords.length - 1] - coords[0];
+			int lines = 1;
+			for (int i = 1; i < coords.length; i++) {
+				if (coords[i] - coords[i - 1] > TOLERANCE * range) {
+					lines++;
+				}
+			}
+			origin[d] = coords[0];
+			spacing[d] = lines > 1 ? range / (lines - 1) : 1;
+			dims[d] = lines;
+		}
+		if (dims[0] * dims[1] * dims[2] != points.size()) {
+			throw new IllegalArgumentException("Points do not form a complete regular grid");
+		}
+		FieldLattice lattice = new FieldLattice(origin, spacing, dims);
+		for (Map.Entry<DoubleVector, DoubleVector> entry : points.entrySet()) {
+			DoubleVector point = entry.getKey();
+			int index = lattice.findIndex(point.getValue(0), point.getValue(1), point.getValue(2), 0.01);
+			if (index < 0) {
+				throw new IllegalArgumentException("Points are not evenly spaced");
+			}
+			if (lattice.isComputed(index)) {
+				throw new IllegalArgumentException("Points do not form a complete regular grid");
+			}
+			DoubleVector field = entry.getValue();
+			lattice.set(index, field.getValue(0), field.getValue(1), field.getValue(2));
+		}
+		return lattice;
+	}
+	
+	/**
+	 * Gets the coordinate of lattice points with index 0 along an axis
+	 */
+	public double getOrigin(int axis) {
+		return origin[axis];
+	}
+	
+	/**
+	 * Gets the distance between lattice points along an axis
+	 */
+	public double getSpacing(int axis) {
+		return spacing[axis];
+	}
+	
+	/**
+	 * Gets the number of lattice points along an axis
+	 */
+	public int getDimension(int axis) {
+		return dims[axis];
+	}
+	
+	/**
+	 * Gets the total number of lattice points
+	 */
+	public int getSize() {
+		return x.length;
+	}
+	
+	/**
+	 * Gets the number of lattice points whose field has been set
+	 */
+	public int getComputedCount() {
+		return computed;
+	}
+	
+	/**
+	 * Checks whether the field has been set at every lattice point
+	 */
+	public boolean isComplete() {
+		return computed == x.length;
+	}
+	
+	/**
+	 * Gets the index of lattice point (i, j, k)
+	 */
+	public int getIndex(int i, int j, int k) {
+		return (i * dims[1] + j) * dims[2] + k;
+	}
+	
+	/**
+	 * Gets the position of a lattice point
+	 */
+	public DoubleVector getPoint(int index) {
+		int k = index % dims[2];
+		int j = (index / dims[2]) % dims[1];
+		int i = index / (dims[1] * dims[2]);
+		return new DoubleVector(origin[0] + i * spacing[0], origin[1] + j * spacing[1], 
+				origin[2] + k * spacing[2]);
+	}
+	
+	/**
+	 * Finds the lattice point at (x, y, z)
+	 * @return index of the lattice point, or -1 if (x, y, z) is not a lattice point
+	 */
+	public int findIndex(double x, double y, double z) {
+		return findIndex(x, y, z, TOLERANCE);
+	}
+	
+	private int findIndex(double x, double y, double z, double tolerance) {
+		int i = findLine(x, 0, tolerance);
+		int j = findLine(y, 1, tolerance);
+		int k = findLine(z, 2, tolerance);
+		if (i < 0 || j < 0 || k < 0) {
+			return -1;
+		}
+		return getIndex(i, j, k);
+	}
+	
+	private int findLine(double value, int axis, double tolerance) {
+		double position = (value - origin[axis]) / spacing[axis];
+		long line = Math.round(position);
+		if (line < 0 || line >= dims[axis] || Math.abs(position - line) > tolerance) {
+			return -1;
+		}
+		return (int) line;
+	}
+	
+	/**
+	 * Checks whether the field has been set at a lattice point
+	 */
+	public boolean isComputed(int index) {
+		return !Double.isNaN(x[index]);
+	}
+	
+	/**
+	 * Sets the field at a lattice point
+	 */
+	public void set(int index, double bx, double by, double bz) {
+		if (!isComputed(index)) {
+			computed++;
+		}
+		x[index] = bx;
+		y[index] = by;
+		z[index] = bz;
+	}
+	
+	/**
+	 * Gets the field at a lattice point
+	 * @param result vector to store the field in
+	 * @return result
+	 */
+	public Vec3 get(int index, Vec3 result) {
+		return result.set(x[index], y[index], z[index]);
+	}
+	
+	/**
+	 * Gets the field at a lattice point
+	 * @return field, or null if it has not been set
+	 */
+	public DoubleVector get(int index) {
+		return isComputed(index) ? new DoubleVector(x[index], y[index], z[index]) : null;
+	}
+	
+	double[] getX() {
+		return x;
+	}
+	
+	double[] getY() {
+		return y;
+	}
+	
+	double[] getZ() {
+		return z;
+	}
+}
@@ -0,0 +1,184 @@
+package magnetic;
+
+import java.util.List;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+import utilities.Vec3Function;
+
+import com.google.common.base.Function;
+
+/**
+ * Closed form magnetic field of a set of thin circular current filaments, in the same units as the
+ * integrated Biot-Savart law. Each torus is modelled as one filament along its central ring or as a
+ * bundle of filaments spread evenly over its cross section, each carrying an equal share of the
+ * current through the torus. The field of each filament is given by the complete elliptic integrals
+ * K(k) and E(k), computed with the arithmetic-geometric mean.
+ * @author Ryan Dewey
+ */
+public final class FilamentField implements Function<DoubleVector, DoubleVector>, Vec3Function {
+	/**
+	 * Relative size of the last term of the arithmetic-geometric mean at which it is stopped
+	 */
+	private static final double AGM_TOLERANCE = 1.0E-15;
+	
+	private final double[] centerX;
+	private final double[] centerY;
+	private final double[] centerZ;
+	private final double[] axisX;
+	private final double[] axisY;
+	private final double[] axisZ;
+	private final double[] radius;
+	private final double[] current;
+	
+	private FilamentField(int size) {
+		centerX = new double[size];
+		centerY = new double[size];
+		centerZ = new double[size];
+		axisX = new double[size];
+		axisY = new double[size];
+		axisZ = new double[size];
+		radius = new double[size];
+		current = new double[size];
+	}
+	
+	/**
+	 * Creates the field of the given tori, each modelled as a single filament along its central ring
+	 * @param tori tori to model
+	 * @return field of the tori
+	 */
+	public static FilamentField create(List<TorusGeometry> tori) {
+		return create(tori, 0, 0);
+	}
+	
+	/**
+	 * Creates the field of the given tori, each modelled as a bundle of filaments. The cross section of
+	 * each torus is divided into rings of equal area, and each ring into equal sectors, with one
+	 * filament at the middle of each sector. A single filament is already accurate to within about a
+	 * percent outside the coil, and bundles converge to the field of the full cross section as the
+	 * number of filaments grows. Only tori whose axis passes through the origin have a current which
+	 * circulates about the axis, so other tori are rejected.
+	 * @param tori tori to model
+	 * @param rings number of rings of filaments across the cross section, 0 for a single filament
+	 * 			along the central ring
+	 * @param filamentsPerRing number of filaments in each ring
+	 * @return field of the tori
+	 */
+	public static FilamentField create(List<TorusGeometry> tori, int rings, int filamentsPerRing) {
+		if (rings < 0 || (rings > 0 && filamentsPerRing <= 0)) {
+			throw new IllegalArgumentException("Number of filaments must be positive");
+		}
+		for (TorusGeometry torus : tori) {
+			if (!torus.isCenteredOnAxis()) {
+				throw new IllegalArgumentException("Filament model requires tori centered on their axis: " + torus);
+			}
+		}
+		int perTorus = rings == 0 ? 1 : rings * filamentsPerRing;
+		FilamentField field = new FilamentField(tori.size() * perTorus);
+		int index = 0;
+		for (TorusGeometry torus : tori) {
+			Vec3 axis = new Vec3(torus.getDirection()).normalize();
+			Vec3 center = new Vec3(torus.getCenter());
+			double thickness = torus.getThickness();
+			double totalCurrent = torus.getMagnitude() * Math.PI * thickness * thickness;
+			if (rings == 0) {
+				field.setFilament(index++, center, axis, torus.getRadius(), totalCurrent);
+				continue;
+			}
+			for (int i = 0; i < rings; i++) {
+				double r = thickness * Math.sqrt((i + 0.5) / rings);
+				for (int k = 0; k < filamentsPerRing; k++) {
+					double angle = 2 * Math.PI * (k + 0.5) / filamentsPerRing;
+					Vec3 shifted = new Vec3().set(center).addScaled(axis, r * Math.sin(angle));
+					field.setFilament(index++, shifted, axis, torus.getRadius() + r * Math.cos(angle), 
+							totalCurrent / (rings * filamentsPerRing));
+				}
+			}
+		}
+		return field;
+	}
+	
+	private void setFilament(int index, Vec3 center, Vec3 axis, double radius, double current) {
+		centerX[index] = center.getX();
+		centerY[index] = center.getY();
+		centerZ[index] = center.getZ();
+		axisX[index] = axis.getX();
+		axisY[index] = axis.getY();
+		axisZ[index] = axis.getZ();
+		this.radius[index] = radius;
+		this.current[index] = current;
+	}
+	
+	/**
+	 * Gets the number of filaments
+	 */
+	public int getFilamentCount() {
+		return radius.length;
+	}
+	
+	@Override
+	public DoubleVector apply(DoubleVector x) {
+		Vec3 result = new Vec3();
+		apply(x.getValue(0), x.getValue(1), x.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	/**
+	 * Evaluates the field at (x, y, z). The field is taken to be 0 at points exactly on a filament.
+	 * @param result vector to store the field in
+	 */
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		double bx = 0;
+		double by = 0;
+		double bz = 0;
+		for (int i = 0; i < radius.length; i++) {
+			double dx = x - centerX[i];
+			double dy = y - centerY[i];
+			double dz = z - centerZ[i];
+			// Height above the plane of the loop and displacement from its axis
+			double height = dx * axisX[i] + dy * axisY[i] + dz * axisZ[i];
+			double rhoX = dx - height * axisX[i];
+			double rhoY = dy - height * axisY[i];
+			double rhoZ = dz - height * axisZ[i];
+			double rho = Math.sqrt(rhoX * rhoX + rhoY * rhoY + rhoZ * rhoZ);
+			double a = radius[i];
+			double height2 = height * height;
+			double near2 = (a - rho) * (a - rho) + height2;
+			if (near2 == 0) {
+				continue;
+			}
+			double far2 = (a + rho) * (a + rho) + height2;
+			double far = Math.sqrt(far2);
+			double m = 4 * a * rho / far2;
+			// Complete elliptic integrals of parameter m by the arithmetic-geometric mean
+			double agmA = 1;
+			double agmB = Math.sqrt(Math.max(0, 1 - m));
+			double agmC = Math.sqrt(m);
+			double power = 0.5;
+			double sum = power * agmC * agmC;
+			while (Math.abs(agmC) > AGM_TOLERANCE * agmA) {
+				double nextA = (agmA + agmB) / 2;
+				agmC = (agmA - agmB) / 2;
+				agmB = Math.sqrt(agmA * agmB);
+				agmA = nextA;
+				power *= 2;
+				sum += power * agmC * agmC;
+			}
+			double ellipticK = Math.PI / (2 * agmA);
+			double ellipticE = ellipticK * (1 - sum);
+			double scale = 2 * current[i] / far;
+			double axial = scale * (ellipticK + (a * a - rho * rho - height2) / near2 * ellipticE);
+			bx += axial * axisX[i];
+			by += axial * axisY[i];
+			bz += axial * axisZ[i];
+			if (rho > 0) {
+				double radial = scale * height / rho * (-ellipticK + (a * a + rho * rho + height2) / near2 * ellipticE);
+				bx += radial * rhoX / rho;
+				by += radial * rhoY / rho;
+				bz += radial * rhoZ / rho;
+			}
+		}
+		result.set(bx, by, bz);
+	}
+}
@@ -0,0 +1,296 @@
+package magnetic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+import utilities.Vec3Function;
+
+/**
+ * Computes the field at every point of the lattice of a magnetic field. The missing points are split
+ * into work units which run on a work-stealing pool, all summing over one shared sample of the current.
+ * Each finished unit is appended to a journal, which is replayed when the computation is restarted so
+ * only the remaining points are computed, and the journal is periodically compacted into the field
+ * file. Throughput and the estimated time remaining are reported as units finish. When the field uses
+ * cubic symmetry and the lattice fits it, only the fundamental wedge is computed and the rest of the
+ * lattice is filled from it. With a treecode opening angle set on the field, the samples are summed by
+ * the treecode and its error against the direct sum is reported at the end.
+ * @author Ryan Dewey
+ */
+public class GridPrecomputer {
+	private final MagneticField field;
+	private final FieldLattice lattice;
+	private final File journalFile;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int unitSize = 64;
+	private int compactInterval = 256;
+	private long reportInterval = 10000;
+	
+	private SourceElements sources;
+	private SourceTree tree;
+	private Vec3Function closedForm;
+	private FieldJournal journal;
+	private int total;
+	private int completed;
+	private int units;
+	private long start;
+	private long lastReport;
+	
+	/**
+	 * Creates a precomputer
+	 * @param field field to compute, which must have a lattice
+	 * @param journalFile file to journal finished points in
+	 */
+	public GridPrecomputer(MagneticField field, File journalFile) {
+		if (field.getLattice() == null) {
+			throw new IllegalArgumentException("Field must have a lattice to precompute");
+		}
+		this.field = field;
+		this.lattice = field.getLattice();
+		this.journalFile = journalFile;
+	}
+	
+	/**
+	 * Sets the number of threads in the pool
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Sets the number of points in each work unit
+	 */
+	public void setUnitSize(int unitSize) {
+		if (unitSize <= 0) {
+			throw new IllegalArgumentException("Unit size must be positive");
+		}
+		this.unitSize = unitSize;
+	}
+	
+	/**
+	 * Sets the number of finished units between compactions of the journal into the field file
+	 */
+	public void setCompactInterval(int compactInterval) {
+		if (compactInterval <= 0) {
+			throw new IllegalArgumentException("Compaction interval must be positive");
+		}
+		this.compactInterval = compactInterval;
+	}
+	
+	/**
+	 * Sets the minimum time between progress reports
+	 * @param reportInterval time in milliseconds, 0 to report after every unit
+	 */
+	public void setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+	
+	/**
+	 * Computes every missing point of the lattice and stores the field. The journal is deleted once the
+	 * field file holds every point.
+	 * @return number of points computed
+	 * @throws IOException if the journal or field file cannot be written
+	 */
+	public int run() throws IOException {
+		int replayed = FieldJournal.replay(journalFile, lattice);
+		if (replayed > 0) {
+			System.out.println("Resumed " + replayed + " points from " + journalFile);
+		}
+		CubicSymmetry symmetry = field.getSymmetry();
+		if (symmetry != null && !symmetry.fits(lattice)) {
+			symmetry = null;
+		}
+		int[] candidates = symmetry == null ? null : CubicSymmetry.getWedgeIndices(lattice);
+		int size = candidates == null ? lattice.getSize() : candidates.length;
+		int[] missing = new int[size];
+		total = 0;
+		for (int c = 0; c < size; c++) {
+			int i = candidates == null ? c : candidates[c];
+			if (!lattice.isComputed(i)) {
+				missing[total++] = i;
+			}
+		}
+		missing = Arrays.copyOf(missing, total);
+		completed = 0;
+		units = 0;
+		closedForm = field.getClosedFormField();
+		if (closedForm == null && total > 0) {
+			sources = field.getSourceElements();
+			if (field.getTreeOpeningAngle() > 0) {
+				tree = new SourceTree(sources, field.getTreeOpeningAngle());
+			}
+		}
+		journal = new FieldJournal(journalFile, lattice, unitSize);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			System.out.println("Computing " + total + " points on " + threads + " threads");
+			start = System.currentTimeMillis();
+			lastReport = start;
+			pool.invoke(new UnitTask(missing, 0, (total + unitSize - 1) / unitSize));
+			report(true);
+			if (tree != null && total > 0) {
+				reportTreeError(missing);
+			}
+			if (symmetry != null) {
+				synchronized (lattice) {
+					symmetry.fill(lattice);
+				}
+			}
+			field.storeResults();
+			journal.reset();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+			journal.close();
+			sources = null;
+			tree = null;
+		}
+		journalFile.delete();
+		return total;
+	}
+	
+	/**
+	 * Computes the points of a work unit and commits them
+	 * @param missing indices of every missing point
+	 * @param unit index of the unit
+	 */
+	private void compute(int[] missing, int unit) throws IOException {
+		int from = unit * unitSize;
+		int n = Math.min(unitSize, missing.length - from);
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] z = new double[n];
+		for (int i = 0; i < n; i++) {
+			DoubleVector point = lattice.getPoint(missing[from + i]);
+			x[i] = point.getValue(0);
+			y[i] = point.getValue(1);
+			z[i] = point.getValue(2);
+		}
+		double[] bx = new double[n];
+		double[] by = new double[n];
+		double[] bz = new double[n];
+		if (closedForm != null) {
+			Vec3 b = new Vec3();
+			for (int i = 0; i < n; i++) {
+				closedForm.apply(x[i], y[i], z[i], b);
+				bx[i] = b.getX();
+				by[i] = b.getY();
+				bz[i] = b.getZ();
+			}
+		} else if (tree != null) {
+			tree.getFields(x, y, z, n, bx, by, bz, 1);
+		} else {
+			sources.getFields(x, y, z, n, bx, by, bz, 1);
+		}
+		commit(missing, from, n, bx, by, bz);
+	}
+	
+	/**
+	 * Stores the field at the points of a finished unit and appends them to the journal
+	 */
+	private synchronized void commit(int[] missing, int from, int n, double[] bx, double[] by, double[] bz) 
+			throws IOException {
+		synchronized (lattice) {
+			for (int i = 0; i < n; i++) {
+				lattice.set(missing[from + i], bx[i], by[i], bz[i]);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			journal.append(missing[from + i], bx[i], by[i], bz[i]);
+		}
+		journal.flush();
+		completed += n;
+		if (++units % compactInterval == 0) {
+			field.storeResults();
+			journal.reset();
+		}
+		report(false);
+	}
+	
+	/**
+	 * Prints the progress, throughput and estimated time remaining
+	 * @param force whether to report even if the report interval has not passed
+	 */
+	private void report(boolean force) {
+		long now = System.currentTimeMillis();
+		if (!force && now - lastReport < reportInterval) {
+			return;
+		}
+		lastReport = now;
+		double seconds = Math.max(now - start, 1) / 1000.0;
+		double rate = completed / seconds;
+		String eta = rate > 0 ? formatTime((long) ((total - completed) / rate)) : "unknown";
+		System.out.println(String.format("Computed %d/%d points, %.1f points/s, ETA %s", completed, total, 
+				rate, eta));
+	}
+	
+	/**
+	 * Prints the error of the treecode against the direct sum at some of the computed points
+	 */
+	private void reportTreeError(int[] missing) {
+		int n = Math.min(MagneticField.TREE_ERROR_CHECKS, missing.length);
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] z = new double[n];
+		double[] bx = new double[n];
+		double[] by = new double[n];
+		double[] bz = new double[n];
+		for (int i = 0; i < n; i++) {
+			int index = missing[(int) ((long) missing.length * i / n)];
+			DoubleVector point = lattice.getPoint(index);
+			DoubleVector b = lattice.get(index);
+			x[i] = point.getValue(0);
+			y[i] = point.getValue(1);
+			z[i] = point.getValue(2);
+			bx[i] = b.getValue(0);
+			by[i] = b.getValue(1);
+			bz[i] = b.getValue(2);
+		}
+		System.out.println(String.format("Treecode error %.2e relative to the direct sum", 
+				tree.getError(x, y, z, n, bx, by, bz, n)));
+	}
+	
+	private static String formatTime(long seconds) {
+		return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+	
+	/**
+	 * Task which computes a range of work units, splitting it so idle threads can steal half
+	 */
+	private class UnitTask extends RecursiveAction {
+		private final int[] missing;
+		private final int from;
+		private final int to;
+		
+		public UnitTask(int[] missing, int from, int to) {
+			this.missing = missing;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (to > from) {
+					try {
+						GridPrecomputer.this.compute(missing, from);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new UnitTask(missing, from, middle), new UnitTask(missing, middle, to));
+		}
+	}
+}
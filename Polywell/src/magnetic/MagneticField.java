@@ -5,29 +5,114 @@ import integration.Integrator;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
 import utilities.DoubleVector;
 import utilities.Pair;
+import utilities.Vec3;
+import utilities.Vec3Function;
 
 import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
- * Describes a magnetic field
+ * Describes a magnetic field. Fields may be found from several threads at once, but the settings and
+ * files should only be changed while no fields are being found.
  * @author Ryan Dewey
  */
 public class MagneticField {
 	public static final int DEFAULT_MONTE_CARLO_ITERATIONS = 100000;
+	public static final long DEFAULT_CACHE_SIZE = 100000;
+	public static final int QUASI_MONTE_CARLO_REPLICATES = 8;
+	public static final int ADAPTIVE_MINIMUM_ITERATIONS = 4096;
+	public static final int VEGAS_ITERATIONS = 10;
+	public static final int TREE_ERROR_CHECKS = 16;
+	public static final int DEFAULT_SEGMENTS = 256;
+	
+	/**
+	 * Methods available for integrating the Biot-Savart law
+	 */
+	public enum IntegrationMethod {
+		/**
+		 * Pseudo-random points over the extent of the current
+		 */
+		MONTE_CARLO,
+		/**
+		 * Randomly shifted Sobol points over the extent of the current
+		 */
+		QUASI_MONTE_CARLO,
+		/**
+		 * Pseudo-random points until the estimated error is within tolerance, with the number of
+		 * iterations as an upper limit
+		 */
+		ADAPTIVE_MONTE_CARLO,
+		/**
+		 * Pseudo-random points inside the volume of each torus. Only available when the current is
+		 * made up entirely of tori.
+		 */
+		TORUS_VOLUME,
+		/**
+		 * Points drawn through a VEGAS importance grid which adapts over several iterations
+		 */
+		VEGAS,
+		/**
+		 * Closed form field of circular filaments through each torus rather than an integral. Only
+		 * available when the current is made up entirely of tori whose axes pass through the origin.
+		 */
+		FILAMENT,
+		/**
+		 * Closed form field of polygons of straight segments through each torus rather than an
+		 * integral. Only available when the current is made up entirely of tori whose axes pass through
+		 * the origin.
+		 */
+		SEGMENTS
+	}
 	
 	private final CurrentDensityFunction j;
+	private final TorusVolumeSampler torusSampler;
+	private final List<TorusGeometry> tori;
+	private final CubicSymmetry cubicSymmetry;
 	private final List<Pair<Double, Double>> ranges;
 
 	private String filename;
+	private int threads = 1;
+	private int iterations = DEFAULT_MONTE_CARLO_ITERATIONS;
+	private IntegrationMethod method = IntegrationMethod.MONTE_CARLO;
+	private double absoluteError = 0;
+	private double relativeError = 0.01;
+	private FilamentField filamentField;
+	private SegmentField segmentField;
+	private int segments = DEFAULT_SEGMENTS;
+	private int coilPoints = 0;
+	private CoilCopies coilCopies;
+	private FieldInterpolator.Mode interpolation;
+	private volatile FieldInterpolator interpolator;
+	/**
+	 * Copy of the interpolator for each thread, with the interpolator it was copied from
+	 */
+	private final ThreadLocal<FieldInterpolator[]> threadInterpolators = new ThreadLocal<FieldInterpolator[]>();
+	private FieldLattice lattice;
+	private int filamentRings = 0;
+	private int filamentsPerRing = 0;
+	private long cacheSize = DEFAULT_CACHE_SIZE;
+	private boolean symmetric = false;
+	private boolean seeded = false;
+	private long seed;
+	private double treeOpeningAngle = 0;
+	private volatile double treeError = 0;
+	private volatile FieldFile storedFile;
 	
-	private HashMap<DoubleVector, DoubleVector> results = Maps.<DoubleVector, DoubleVector>newHashMap();
+	private LoadingCache<DoubleVector, DoubleVector> results = createCache(cacheSize);
 	
 	/**
 	 * Creates a new magnetic field
@@ -38,6 +123,9 @@ public class MagneticField {
 	public MagneticField(CurrentDensityFunction j, List<Pair<Double, Double>> ranges, String filename) {
 		this.j = j;
 		this.ranges = ranges;
+		torusSampler = TorusVolumeSampler.create(j);
+		tori = CurrentDensityFunctionFactory.getTorusGeometry(j);
+		cubicSymmetry = CubicSymmetry.detect(tori);
 		this.filename = filename;
 		try {
 			readResults();
@@ -45,18 +133,581 @@ public class MagneticField {
 	}
 	
 	/**
-	 * Clears loaded data
+	 * Sets the number of parallel tasks used for each Monte-Carlo integration
+	 * @param threads number of tasks, 1 to integrate on the calling thread
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Gets the number of parallel tasks used for each Monte-Carlo integration
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * Sets the number of integrand evaluations used to compute the field at each point
+	 */
+	public void setIterations(int iterations) {
+		if (iterations <= 0) {
+			throw new IllegalArgumentException("Number of iterations must be positive");
+		}
+		this.iterations = iterations;
+	}
+	
+	/**
+	 * Gets the number of integrand evaluations used to compute the field at each point
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+	
+	/**
+	 * Sets the seed of the random points, so that every integration and sample of the current uses
+	 * the same points and gives the same result. Plain Monte-Carlo on a single thread is not seeded.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		seeded = true;
+	}
+	
+	/**
+	 * Gets the seed for the next random points, either the set seed or a new random one
+	 */
+	private long nextSeed() {
+		return seeded ? seed : ThreadLocalRandom.current().nextLong();
+	}
+	
+	/**
+	 * Sets the method used to integrate the Biot-Savart law
+	 */
+	public void setIntegrationMethod(IntegrationMethod method) {
+		if (method == IntegrationMethod.TORUS_VOLUME && torusSampler == null) {
+			throw new IllegalArgumentException("Torus volume sampling requires a current made of tori");
+		}
+		if ((method == IntegrationMethod.FILAMENT || method == IntegrationMethod.SEGMENTS) && tori == null) {
+			throw new IllegalArgumentException("Filament model requires a current made of tori");
+		}
+		if ((method == IntegrationMethod.FILAMENT || method == IntegrationMethod.SEGMENTS) 
+				&& !isCenteredOnAxis(tori)) {
+			throw new IllegalArgumentException("Filament model requires tori centered on their axis");
+		}
+		this.method = method;
+	}
+	
+	/**
+	 * Checks whether the current of every torus circulates about its axis
+	 */
+	private static boolean isCenteredOnAxis(List<TorusGeometry> tori) {
+		for (TorusGeometry torus : tori) {
+			if (!torus.isCenteredOnAxis()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the method used to integrate the Biot-Savart law
+	 */
+	public IntegrationMethod getIntegrationMethod() {
+		return method;
+	}
+	
+	/**
+	 * Sets the error at which adaptive integration stops. Integration stops once either tolerance
+	 * is met.
+	 * @param absoluteError acceptable standard error of the field
+	 * @param relativeError acceptable standard error relative to the size of the field
+	 */
+	public void setTolerance(double absoluteError, double relativeError) {
+		if (absoluteError < 0 || relativeError < 0) {
+			throw new IllegalArgumentException("Tolerance must not be negative");
+		}
+		this.absoluteError = absoluteError;
+		this.relativeError = relativeError;
+	}
+	
+	/**
+	 * Gets the acceptable standard error of the field for adaptive integration
+	 */
+	public double getAbsoluteError() {
+		return absoluteError;
+	}
+	
+	/**
+	 * Gets the acceptable relative standard error of the field for adaptive integration
+	 */
+	public double getRelativeError() {
+		return relativeError;
+	}
+	
+	/**
+	 * Sets the bundle of filaments used to model each torus with the FILAMENT and SEGMENTS methods
+	 * @param rings number of rings of filaments across the cross section, 0 for a single filament
+	 * 			along the central ring
+	 * @param filamentsPerRing number of filaments in each ring
+	 */
+	public void setFilamentBundle(int rings, int filamentsPerRing) {
+		if (rings < 0 || (rings > 0 && filamentsPerRing <= 0)) {
+			throw new IllegalArgumentException("Number of filaments must be positive");
+		}
+		this.filamentRings = rings;
+		this.filamentsPerRing = filamentsPerRing;
+		filamentField = null;
+		segmentField = null;
+	}
+	
+	/**
+	 * Gets the number of rings of filaments across the cross section of each torus
+	 */
+	public int getFilamentRings() {
+		return filamentRings;
+	}
+	
+	/**
+	 * Gets the number of filaments in each ring
+	 */
+	public int getFilamentsPerRing() {
+		return filamentsPerRing;
+	}
+	
+	/**
+	 * Sets the number of straight segments in each filament with the SEGMENTS method
+	 */
+	public void setSegments(int segments) {
+		if (segments < 3) {
+			throw new IllegalArgumentException("Filaments need at least 3 segments");
+		}
+		this.segments = segments;
+		segmentField = null;
+	}
+	
+	/**
+	 * Gets the number of straight segments in each filament with the SEGMENTS method
+	 */
+	public int getSegments() {
+		return segments;
+	}
+	
+	/**
+	 * Gets the closed form field of filaments through each torus with the current bundle settings
+	 * @return field of the filaments, or null if the current is not made up entirely of tori
+	 */
+	public synchronized FilamentField getFilamentField() {
+		if (filamentField == null && tori != null) {
+			filamentField = FilamentField.create(tori, filamentRings, filamentsPerRing);
+		}
+		return filamentField;
+	}
+	
+	/**
+	 * Gets the closed form field of polygonal filaments through each torus with the current bundle
+	 * and segment settings
+	 * @return field of the filaments, or null if the current is not made up entirely of tori
+	 */
+	public synchronized SegmentField getSegmentField() {
+		if (segmentField == null && tori != null) {
+			segmentField = SegmentField.create(tori, segments, filamentRings, filamentsPerRing);
+		}
+		return segmentField;
+	}
+	
+	/**
+	 * Sets whether the tori share the field of a reference torus for each distinct shape instead of each
+	 * being found separately. With the FILAMENT and SEGMENTS methods the field of each reference is in
+	 * closed form. With other methods it is computed once on a lattice around the reference, stored to
+	 * file and interpolated, and integrated directly at points outside the lattice. The reference
+	 * lattice is sized to cover the lattice of this field as seen from every torus.
+	 * @param points number of reference lattice points along each axis, at least 2, or 0 to find each
+	 * 			torus separately
+	 * @throws IllegalArgumentException if a torus is not centered on its axis
+	 */
+	public void setCoilReuse(int points) {
+		if (points < 0 || points == 1) {
+			throw new IllegalArgumentException("Reference lattice needs at least 2 points along each axis");
+		}
+		if (points > 0 && tori != null && !isCenteredOnAxis(tori)) {
+			throw new IllegalArgumentException("Coil reuse requires tori centered on their axis");
+		}
+		coilPoints = points;
+		coilCopies = null;
+	}
+	
+	/**
+	 * Gets the number of points along each axis of the lattice around each reference torus
+	 * @return number of points, or 0 if each torus is found separately
+	 */
+	public int getCoilPoints() {
+		return coilPoints;
+	}
+	
+	/**
+	 * Gets the field of the tori as copies of reference tori with the current coil reuse settings,
+	 * computing the lattice of each reference if it is not stored
+	 * @return field of the copies, or null if the current is not made up entirely of tori or coil reuse
+	 * 			is not set
+	 * @throws UncheckedIOException if the field of a reference cannot be stored
+	 * @throws IllegalStateException if the reference lattice is needed but there is no lattice to size
+	 * 			it from
+	 */
+	public synchronized CoilCopies getCoilCopies() {
+		if (coilCopies == null && tori != null && coilPoints > 0) {
+			final int[] count = {0};
+			coilCopies = CoilCopies.create(tori, new Function<TorusGeometry, Vec3Function>() {
+				@Override
+				public Vec3Function apply(TorusGeometry torus) {
+					final MagneticField reference = createTorusField(torus, filename + " reference" + count[0]++);
+					Vec3Function closedForm = reference.getOwnClosedFormField();
+					if (closedForm != null) {
+						return closedForm;
+					}
+					if (lattice == null) {
+						throw new IllegalStateException("Coil reuse needs a lattice to size the reference lattice");
+					}
+					reference.prepareLattice(FieldLattice.fromRanges(CoilCopies.getLocalRanges(tori, lattice), 
+							coilPoints));
+					if (!reference.getLattice().isComplete()) {
+						try {
+							new GridPrecomputer(reference, new File(reference.filename + ".journal")).run();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+					final FieldInterpolator shared = new FieldInterpolator(FieldInterpolator.Mode.TRICUBIC, 
+							reference.getLattice());
+					final ThreadLocal<FieldInterpolator> local = new ThreadLocal<FieldInterpolator>() {
+						@Override
+						protected FieldInterpolator initialValue() {
+							return shared.copy();
+						}
+					};
+					return new Vec3Function() {
+						@Override
+						public void apply(double x, double y, double z, Vec3 result) {
+							FieldInterpolator grid = local.get();
+							if (grid.contains(x, y, z)) {
+								grid.apply(x, y, z, result);
+							} else {
+								result.set(reference.getField(new DoubleVector(x, y, z)));
+							}
+						}
+					};
+				}
+			});
+		}
+		return coilCopies;
+	}
+	
+	/**
+	 * Gets a description of the settings which change the computed field
+	 */
+	public String getSettings() {
+		return method + " iterations=" + iterations + " tolerance=" + absoluteError + "," + relativeError 
+				+ " bundle=" + filamentRings + "x" + filamentsPerRing + " segments=" + segments 
+				+ " tree=" + treeOpeningAngle + " coils=" + coilPoints;
+	}
+	
+	/**
+	 * Checks whether the field loaded from file was computed for the current tori with the current
+	 * settings
+	 * @return false if the file was computed for other tori or settings or does not record them, or no
+	 * 			binary file was loaded
+	 */
+	public boolean isStoredCurrent() {
+		return storedFile != null && storedFile.matches(getGeometry(), getSettings());
+	}
+	
+	private List<TorusGeometry> getGeometry() {
+		return tori == null ? Lists.<TorusGeometry>newArrayList() : tori;
+	}
+	
+	/**
+	 * Prepares to compute the field on a lattice. The stored field is kept only if it was computed on a
+	 * lattice of the same shape for the same tori with the same settings, otherwise it is discarded
+	 * along with the journal of any unfinished computation of it.
+	 * @param shape lattice to compute the field on
+	 */
+	void prepareLattice(FieldLattice shape) {
+		if (lattice != null && lattice.hasSameShape(shape) && isStoredCurrent()) {
+			return;
+		}
+		if (lattice != null) {
+			new File(filename + ".journal").delete();
+		}
+		clear();
+		setLattice(shape.copyShape());
+	}
+	
+	/**
+	 * Creates the field of a single torus with the same settings as this field, without a lattice
+	 * @param torus torus to find field of
+	 * @param filename file to load from and save to
+	 */
+	MagneticField createTorusField(TorusGeometry torus, String filename) {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> single = 
+				CurrentDensityFunctionFactory.getTorusDensityFunction(torus);
+		MagneticField field = new MagneticField(single.getA(), single.getB(), filename);
+		field.setIntegrationMethod(method);
+		field.setIterations(iterations);
+		field.setThreads(threads);
+		field.setTolerance(absoluteError, relativeError);
+		field.setFilamentBundle(filamentRings, filamentsPerRing);
+		field.setSegments(segments);
+		field.setTreeOpeningAngle(treeOpeningAngle);
+		return field;
+	}
+	
+	/**
+	 * Gets the closed form field used by the integration method
+	 * @return field of the filaments, or null if the method integrates over the current
+	 */
+	Vec3Function getClosedFormField() {
+		if (coilPoints > 0 && tori != null) {
+			return getCoilCopies();
+		}
+		return getOwnClosedFormField();
+	}
+	
+	private Vec3Function getOwnClosedFormField() {
+		if (method == IntegrationMethod.FILAMENT) {
+			return getFilamentField();
+		} else if (method == IntegrationMethod.SEGMENTS) {
+			return getSegmentField();
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets the tori making up the current
+	 * @return tori, or null if the current is not made up entirely of tori
+	 */
+	List<TorusGeometry> getTori() {
+		return tori;
+	}
+	
+	/**
+	 * Gets the name of the file the field is stored in
+	 */
+	String getFilename() {
+		return filename;
+	}
+	
+	/**
+	 * Sets whether to use the cubic symmetry of the current. When used, the field is only found in the
+	 * fundamental wedge and mapped to other points, and only the wedge of the lattice is stored to file.
+	 * Currents without cubic symmetry are always found in full.
+	 * @param symmetric whether to use the symmetry of the current if it has any
+	 */
+	public void setSymmetry(boolean symmetric) {
+		this.symmetric = symmetric;
+	}
+	
+	/**
+	 * Gets the cubic symmetry used to find the field
+	 * @return symmetry, or null if it is not used or the current does not have cubic symmetry
+	 */
+	public CubicSymmetry getSymmetry() {
+		return symmetric ? cubicSymmetry : null;
+	}
+	
+	/**
+	 * Sets the opening angle of the treecode used to sum over the samples of the current when the
+	 * field is found at many points at once. Groups of samples narrower than the opening angle times
+	 * their distance from a point are summed as a single dipole expansion, which is faster but less
+	 * accurate the larger the angle.
+	 * @param treeOpeningAngle opening angle, 0 to sum over every sample
+	 */
+	public void setTreeOpeningAngle(double treeOpeningAngle) {
+		if (treeOpeningAngle < 0) {
+			throw new IllegalArgumentException("Opening angle must not be negative");
+		}
+		this.treeOpeningAngle = treeOpeningAngle;
+	}
+	
+	/**
+	 * Gets the opening angle of the treecode
+	 * @return opening angle, 0 if every sample is summed
+	 */
+	public double getTreeOpeningAngle() {
+		return treeOpeningAngle;
+	}
+	
+	/**
+	 * Gets the error of the last treecode sum, measured against the direct sum over the same samples
+	 * at some of its points
+	 * @return root mean square error relative to the root mean square field, 0 if the treecode has
+	 * 			not been used
+	 */
+	public double getTreeError() {
+		return treeError;
+	}
+	
+	/**
+	 * Sets the maximum number of points off the lattice which are kept. The least recently used points
+	 * are evicted once the cache is full. Points on the lattice are always kept.
+	 */
+	public void setCacheSize(long cacheSize) {
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("Cache size must not be negative");
+		}
+		this.cacheSize = cacheSize;
+		LoadingCache<DoubleVector, DoubleVector> resized = createCache(cacheSize);
+		resized.putAll(results.asMap());
+		results = resized;
+	}
+	
+	/**
+	 * Gets the maximum number of points off the lattice which are kept
+	 */
+	public long getCacheSize() {
+		return cacheSize;
+	}
+	
+	/**
+	 * Gets the hit, miss, load and eviction counts of the cache of points off the lattice
+	 */
+	public CacheStats getCacheStats() {
+		return results.stats();
+	}
+	
+	/**
+	 * Creates a cache which integrates the field at points it does not hold. Concurrent requests for
+	 * the same point wait for a single integration. Lattice points are stored on the lattice before
+	 * they are returned, and are not integrated again if they are already there.
+	 */
+	private LoadingCache<DoubleVector, DoubleVector> createCache(long size) {
+		return CacheBuilder.newBuilder().maximumSize(size).recordStats().build(
+				new CacheLoader<DoubleVector, DoubleVector>() {
+			@Override
+			public DoubleVector load(DoubleVector coord) {
+				// Another thread may have stored the point on the lattice since the caller looked
+				DoubleVector known = getLatticeField(coord);
+				if (known != null) {
+					return known;
+				}
+				DoubleVector result = computeField(coord);
+				int index = lattice == null ? -1 : 
+						lattice.findIndex(coord.getValue(0), coord.getValue(1), coord.getValue(2));
+				if (index >= 0) {
+					storeLattice(index, result);
+				}
+				return result;
+			}
+		});
+	}
+	
+	/**
+	 * Sets how the field is found at points which have not been computed. When set, points inside the
+	 * grid of computed points are interpolated from it, and points outside the grid are integrated
+	 * but not stored, so that the stored points remain a regular grid.
+	 * @param interpolation method of interpolation, or null to integrate at every new point
+	 */
+	public void setInterpolation(FieldInterpolator.Mode interpolation) {
+		this.interpolation = interpolation;
+		interpolator = null;
+	}
+	
+	/**
+	 * Gets how the field is found at points which have not been computed
+	 * @return method of interpolation, or null if every new point is integrated
+	 */
+	public FieldInterpolator.Mode getInterpolation() {
+		return interpolation;
+	}
+	
+	/**
+	 * Gets the interpolator over the lattice with the current interpolation setting. The interpolator
+	 * should only be used from one thread at a time; use {@link FieldInterpolator#copy()} for others.
+	 * @return interpolator, or null if interpolation is not set or the field is not known at every
+	 * 			lattice point
+	 */
+	public FieldInterpolator getInterpolator() {
+		FieldInterpolator grid = interpolator;
+		if (grid != null || interpolation == null || lattice == null) {
+			return grid;
+		}
+		synchronized (lattice) {
+			if (interpolator == null && lattice.isComplete()) {
+				interpolator = new FieldInterpolator(interpolation, lattice);
+			}
+			return interpolator;
+		}
+	}
+	
+	/**
+	 * Gets a copy of the interpolator for the calling thread, since an interpolator remembers its
+	 * last cell
+	 * @return interpolator, or null if there is no interpolator
+	 */
+	private FieldInterpolator getThreadInterpolator() {
+		FieldInterpolator grid = getInterpolator();
+		if (grid == null) {
+			return null;
+		}
+		FieldInterpolator[] copy = threadInterpolators.get();
+		if (copy == null || copy[0] != grid) {
+			copy = new FieldInterpolator[] {grid, grid.copy()};
+			threadInterpolators.set(copy);
+		}
+		return copy[1];
+	}
+	
+	/**
+	 * Sets the lattice used to store the field. Points on the lattice are stored in it, other points
+	 * are stored individually.
+	 * @param lattice lattice to store the field in, or null to store every point individually
+	 */
+	public void setLattice(FieldLattice lattice) {
+		this.lattice = lattice;
+		interpolator = null;
+		synchronized (this) {
+			coilCopies = null;
+		}
+	}
+	
+	/**
+	 * Gets the lattice used to store the field
+	 * @return lattice, or null if every point is stored individually
+	 */
+	public FieldLattice getLattice() {
+		return lattice;
+	}
+	
+	/**
+	 * Clears loaded data. The lattice keeps its shape but loses its values.
 	 */
 	public void clear() {
-		results.clear();
+		results.invalidateAll();
+		if (lattice != null) {
+			lattice = lattice.copyShape();
+		}
+		interpolator = null;
+		storedFile = null;
 	}
 	
 	/**
-	 * Returns all currently computed points
+	 * Returns all currently computed points. Points on the lattice are copied into the map.
 	 * @return map of all known points
 	 */
 	public HashMap<DoubleVector, DoubleVector> getResults() {
-		return results;
+		HashMap<DoubleVector, DoubleVector> all = 
+				Maps.<DoubleVector, DoubleVector>newHashMap(results.asMap());
+		if (lattice != null) {
+			synchronized (lattice) {
+				for (int i = 0; i < lattice.getSize(); i++) {
+					if (lattice.isComputed(i)) {
+						all.put(lattice.getPoint(i), lattice.get(i));
+					}
+				}
+			}
+		}
+		return all;
 	}
 	
 	/**
@@ -65,41 +716,102 @@ public class MagneticField {
 	 * @param fx vector
 	 */
 	public void addResult(DoubleVector x, DoubleVector fx) {
-		results.put(x, fx);
+		int index = lattice == null ? -1 : lattice.findIndex(x.getValue(0), x.getValue(1), x.getValue(2));
+		if (index >= 0) {
+			storeLattice(index, fx);
+		} else {
+			results.put(x, fx);
+		}
+	}
+	
+	/**
+	 * Stores a newly computed field. With interpolation, points off the lattice are not kept so that
+	 * every later query inside the lattice is interpolated.
+	 */
+	private void store(DoubleVector coord, DoubleVector field) {
+		int index = lattice == null ? -1 : 
+				lattice.findIndex(coord.getValue(0), coord.getValue(1), coord.getValue(2));
+		if (index >= 0) {
+			storeLattice(index, field);
+		} else if (interpolation == null) {
+			results.put(coord, field);
+		}
 	}
 	
 	/**
-	 * Reads magnetic field from a file
+	 * Stores a field found from its image in the fundamental wedge. Only lattice points are kept, other
+	 * points are found from the stored image each time.
+	 */
+	private void storeImage(DoubleVector coord, DoubleVector field) {
+		int index = lattice == null ? -1 : 
+				lattice.findIndex(coord.getValue(0), coord.getValue(1), coord.getValue(2));
+		if (index >= 0) {
+			storeLattice(index, field);
+		}
+	}
+	
+	private void storeLattice(int index, DoubleVector field) {
+		synchronized (lattice) {
+			lattice.set(index, field.getValue(0), field.getValue(1), field.getValue(2));
+		}
+	}
+	
+	/**
+	 * Reads magnetic field from a file in either the binary or the text format. If the points in a text
+	 * file form a regular grid they are stored in a lattice, otherwise they are stored individually.
 	 * @throws IOException
 	 * @throws ClassNotFoundException
 	 */
 	public void readResults() throws IOException, ClassNotFoundException {
-		Scanner in = new Scanner(new File(filename + ".field"));
-		results = Maps.<DoubleVector, DoubleVector>newHashMap();
-		while(in.hasNextLine()) {
-			Scanner line = new Scanner(in.nextLine());
-			double a = line.nextDouble();
-			double b = line.nextDouble();
-			double c = line.nextDouble();
-			DoubleVector x = new DoubleVector(a, b, c);
-			a = line.nextDouble();
-			b = line.nextDouble();
-			c = line.nextDouble();
-			DoubleVector fx = new DoubleVector(a, b, c);
-			results.put(x, fx);
+		File file = new File(filename + ".field");
+		interpolator = null;
+		storedFile = null;
+		if (FieldFile.isBinary(file)) {
+			storedFile = FieldFile.read(file);
+			lattice = storedFile.getLattice();
+			results.invalidateAll();
+			return;
+		}
+		HashMap<DoubleVector, DoubleVector> points = FieldFile.readText(file);
+		try {
+			lattice = FieldLattice.fromPoints(points);
+			results.invalidateAll();
+		} catch (IllegalArgumentException e) {
+			lattice = null;
+			results.invalidateAll();
+			results.putAll(points);
 		}
-		in.close();
 	}
 	
 	/**
-	 * Stores results to a file
+	 * Stores results to a file. Results on a lattice are stored in the binary format along with the
+	 * geometry of the current, the number of iterations and the settings, scattered results in the text
+	 * format.
 	 * @throws IOException
 	 */
 	public void storeResults() throws IOException {
+		if (lattice != null && results.size() == 0) {
+			boolean wedge = getSymmetry() != null && getSymmetry().fits(lattice);
+			FieldFile stored = new FieldFile(lattice, getGeometry(), iterations, wedge, getSettings());
+			stored.write(new File(filename + ".field"));
+			storedFile = stored;
+			return;
+		}
 		PrintWriter out = new PrintWriter(filename + ".field");
-		for (DoubleVector v : results.keySet()) {
+		if (lattice != null) {
+			for (int i = 0; i < lattice.getSize(); i++) {
+				if (lattice.isComputed(i)) {
+					DoubleVector v = lattice.getPoint(i);
+					out.print(v.getValue(0) + " " + v.getValue(1) + " " + v.getValue(2) + " ");
+					DoubleVector res = lattice.get(i);
+					out.println(res.getValue(0) + " " + res.getValue(1) + " " + res.getValue(2));
+				}
+			}
+		}
+		for (Map.Entry<DoubleVector, DoubleVector> entry : results.asMap().entrySet()) {
+			DoubleVector v = entry.getKey();
 			out.print(v.getValue(0) + " " + v.getValue(1) + " " + v.getValue(2) + " ");
-			DoubleVector res = results.get(v);
+			DoubleVector res = entry.getValue();
 			out.println(res.getValue(0) + " " + res.getValue(1) + " " + res.getValue(2));
 		}
 		out.close();
@@ -119,40 +831,210 @@ public class MagneticField {
 	 * @return field at given point or null if not computed
 	 */
 	public DoubleVector getFieldLoaded(DoubleVector coord) {
-		return results.get(coord);
+		DoubleVector known = getLatticeField(coord);
+		return known != null ? known : results.asMap().get(coord);
+	}
+	
+	/**
+	 * Gets the field at a lattice point
+	 * @return field at given point or null if it is not a computed lattice point
+	 */
+	private DoubleVector getLatticeField(DoubleVector coord) {
+		if (lattice == null) {
+			return null;
+		}
+		int index = lattice.findIndex(coord.getValue(0), coord.getValue(1), coord.getValue(2));
+		if (index < 0) {
+			return null;
+		}
+		synchronized (lattice) {
+			return lattice.isComputed(index) ? lattice.get(index) : null;
+		}
 	}
 	
 	/**
-	 * Gets the field at a given point. Computes using a Monte-Carlo integration if not known
+	 * Gets the field at a given point. Computes using a Monte-Carlo integration if not known. When
+	 * several threads ask for the same unknown point it is only computed once.
 	 * @param coord point to find field at
 	 * @return field at given point
 	 */
 	public DoubleVector getField(DoubleVector coord) {
-		if (results.get(coord) != null) {
-			return results.get(coord);
+		DoubleVector known = getLatticeField(coord);
+		if (known != null) {
+			return known;
+		}
+		FieldInterpolator grid = getThreadInterpolator();
+		if (grid != null && grid.contains(coord.getValue(0), coord.getValue(1), coord.getValue(2))) {
+			known = results.asMap().get(coord);
+			return known != null ? known : grid.apply(coord);
+		}
+		CubicSymmetry wedge = getSymmetry();
+		if (wedge != null) {
+			Vec3 image = new Vec3();
+			int op = wedge.reduce(coord.getValue(0), coord.getValue(1), coord.getValue(2), image);
+			if (op != CubicSymmetry.IDENTITY) {
+				DoubleVector result = wedge.expand(op, getField(image.toDoubleVector()));
+				storeImage(coord, result);
+				return result;
+			}
+		}
+		DoubleVector result = results.getUnchecked(coord);
+		if (interpolation != null || (lattice != null 
+				&& lattice.findIndex(coord.getValue(0), coord.getValue(1), coord.getValue(2)) >= 0)) {
+			// Lattice points are kept on the lattice, and with interpolation other points are not kept
+			results.invalidate(coord);
 		}
-		DoubleVector result = Integrator.integrateMonteCarlo(getBiotSavartFunction(coord), ranges, 
-				DEFAULT_MONTE_CARLO_ITERATIONS);
-		results.put(coord, result);
 		return result;
 	}
 	
+	/**
+	 * Finds the field at many points at once. The current density is sampled once, using the number of
+	 * iterations, and the Biot-Savart law is summed over the same samples for every point, split between
+	 * the configured number of threads. The samples are drawn inside the tori when the integration method
+	 * is TORUS_VOLUME and over the whole extent of the current otherwise, and the FILAMENT and SEGMENTS
+	 * methods need no samples. The sum over the samples uses a treecode when an opening angle is set.
+	 * Points which are already known are not recomputed, and with symmetry only the image of each point
+	 * in the fundamental wedge is computed.
+	 * @param coords points to find field at
+	 * @return field at each given point
+	 */
+	public List<DoubleVector> getFields(List<DoubleVector> coords) {
+		CubicSymmetry wedge = getSymmetry();
+		if (wedge == null) {
+			return findFields(coords);
+		}
+		List<DoubleVector> images = Lists.<DoubleVector>newArrayList();
+		int[] ops = new int[coords.size()];
+		Vec3 image = new Vec3();
+		for (int i = 0; i < ops.length; i++) {
+			DoubleVector coord = coords.get(i);
+			ops[i] = wedge.reduce(coord.getValue(0), coord.getValue(1), coord.getValue(2), image);
+			images.add(ops[i] == CubicSymmetry.IDENTITY ? coord : image.toDoubleVector());
+		}
+		List<DoubleVector> fields = findFields(images);
+		for (int i = 0; i < ops.length; i++) {
+			if (ops[i] != CubicSymmetry.IDENTITY) {
+				DoubleVector result = wedge.expand(ops[i], fields.get(i));
+				storeImage(coords.get(i), result);
+				fields.set(i, result);
+			}
+		}
+		return fields;
+	}
+	
+	/**
+	 * Finds the field at many points at once, computing each distinct missing point once
+	 */
+	private List<DoubleVector> findFields(List<DoubleVector> coords) {
+		List<DoubleVector> fields = Lists.<DoubleVector>newArrayList();
+		List<Integer> missing = Lists.<Integer>newArrayList();
+		Map<DoubleVector, Integer> first = Maps.<DoubleVector, Integer>newHashMap();
+		for (DoubleVector coord : coords) {
+			DoubleVector known = getFieldLoaded(coord);
+			if (known == null && !first.containsKey(coord)) {
+				first.put(coord, fields.size());
+				missing.add(fields.size());
+			}
+			fields.add(known);
+		}
+		Vec3Function closedForm = getClosedFormField();
+		if (closedForm != null) {
+			Vec3 b = new Vec3();
+			for (int index : missing) {
+				DoubleVector coord = coords.get(index);
+				closedForm.apply(coord.getValue(0), coord.getValue(1), coord.getValue(2), b);
+				fields.set(index, b.toDoubleVector());
+			}
+		} else if (!missing.isEmpty()) {
+			int n = missing.size();
+			double[] x = new double[n];
+			double[] y = new double[n];
+			double[] z = new double[n];
+			for (int i = 0; i < n; i++) {
+				DoubleVector coord = coords.get(missing.get(i));
+				x[i] = coord.getValue(0);
+				y[i] = coord.getValue(1);
+				z[i] = coord.getValue(2);
+			}
+			double[] fieldX = new double[n];
+			double[] fieldY = new double[n];
+			double[] fieldZ = new double[n];
+			if (treeOpeningAngle > 0) {
+				SourceTree tree = new SourceTree(getSourceElements(), treeOpeningAngle);
+				tree.getFields(x, y, z, n, fieldX, fieldY, fieldZ, threads);
+				treeError = tree.getError(x, y, z, n, fieldX, fieldY, fieldZ, TREE_ERROR_CHECKS);
+			} else {
+				getSourceElements().getFields(x, y, z, n, fieldX, fieldY, fieldZ, threads);
+			}
+			for (int i = 0; i < n; i++) {
+				fields.set(missing.get(i), new DoubleVector(fieldX[i], fieldY[i], fieldZ[i]));
+			}
+		}
+		for (int index : missing) {
+			store(coords.get(index), fields.get(index));
+		}
+		for (int i = 0; i < fields.size(); i++) {
+			if (fields.get(i) == null) {
+				fields.set(i, fields.get(first.get(coords.get(i))));
+			}
+		}
+		return fields;
+	}
+	
+	/**
+	 * Samples the current density into point sources with the current settings
+	 */
+	SourceElements getSourceElements() {
+		SplittableRandom random = new SplittableRandom(nextSeed());
+		if (method == IntegrationMethod.TORUS_VOLUME) {
+			return torusSampler.sampleSources(iterations, random);
+		}
+		return SourceElements.sample(j, ranges, iterations, random);
+	}
+	
+	/**
+	 * Integrates the Biot-Savart law for the field at a given point with the current settings
+	 * @param coord point to find field at
+	 * @return field at given point
+	 */
+	private DoubleVector computeField(DoubleVector coord) {
+		Vec3Function closedForm = getClosedFormField();
+		if (closedForm != null) {
+			Vec3 result = new Vec3();
+			closedForm.apply(coord.getValue(0), coord.getValue(1), coord.getValue(2), result);
+			return result.toDoubleVector();
+		}
+		BiotSavartFunction f = getBiotSavartFunction(coord);
+		switch (method) {
+		case QUASI_MONTE_CARLO:
+			return Integrator.integrateQuasiMonteCarlo(f, ranges, iterations, QUASI_MONTE_CARLO_REPLICATES,
+					nextSeed()).getValue();
+		case TORUS_VOLUME:
+			return torusSampler.integrate(coord.getValue(0), coord.getValue(1), coord.getValue(2), iterations, 
+					new SplittableRandom(nextSeed())).getValue();
+		case VEGAS:
+			return Integrator.integrateVegas(f, ranges, Math.max(iterations / VEGAS_ITERATIONS, 2 * threads), 
+					VEGAS_ITERATIONS, threads, nextSeed()).getValue();
+		case ADAPTIVE_MONTE_CARLO:
+			return Integrator.integrateMonteCarloAdaptive(f, ranges, absoluteError, relativeError, 
+					Math.min(ADAPTIVE_MINIMUM_ITERATIONS, iterations), iterations, 
+					nextSeed()).getValue();
+		case MONTE_CARLO:
+		default:
+			if (threads > 1) {
+				return Integrator.integrateMonteCarloParallel(f, ranges, iterations, threads, 
+						nextSeed());
+			}
+			return Integrator.integrateMonteCarlo3D(f, ranges, iterations);
+		}
+	}
+	
 	/**
 	 * Gets the function to integrate over from the Biot-Savart law
 	 * @param coord point to find field at
 	 * @return function describing integrand for this point.
 	 */
-	public Function<DoubleVector, DoubleVector> getBiotSavartFunction(final DoubleVector coord) {
-		return new Function<DoubleVector, DoubleVector>() {
-			@Override
-			public DoubleVector apply(DoubleVector x) {
-				DoubleVector relative = coord.subtract(x);
-				if (relative.norm() == 0) {
-					return new DoubleVector(0, 0, 0);
-				}
-				DoubleVector direction = relative.normalize();
-				return j.apply(x).crossProduct(direction).divide(Math.pow(relative.norm(), 2));
-			}
-		};
+	public BiotSavartFunction getBiotSavartFunction(final DoubleVector coord) {
+		return new BiotSavartFunction(j, coord);
 	}
 }
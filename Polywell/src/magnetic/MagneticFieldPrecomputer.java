@@ -1,52 +1,59 @@
 package magnetic;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
-import utilities.DoubleVector;
 import utilities.Pair;
 
+import com.google.common.collect.Lists;
+
 /**
- * Precomputes a magnetic field and stores to file
+ * Precomputes a magnetic field and stores to file. The computation is resumed from the journal if a
+ * previous run was interrupted.
  * @author Ryan Dewey
  */
 public class MagneticFieldPrecomputer {
 
+	/**
+	 * @param args optional file name, number of grid intervals in each dimension and number of threads
+	 */
 	public static void main(String[] args) {
-		String filename = "Cubic Polywell30";
+		String filename = args.length > 0 ? args[0] : "Cubic Polywell30";
+		int gridPoints = args.length > 1 ? Integer.parseInt(args[1]) : 30; //Number of grid intervals in each dimension
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
 		double radius = 4;
 		double thickness = 0.5;
 		double magnitude = 1.0;
 		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
 				CurrentDensityFunctionFactory.getCubicPolywellFunction(radius, thickness, magnitude);
 		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), filename);
+		field.setSymmetry(true);
+		field.setTreeOpeningAngle(0); //Opening angle of the treecode, 0 to sum over every sample directly
 		//field.clear(); //Uncomment to remove old data
+		//field.setCoilReuse(gridPoints + 1); //Uncomment to compute one coil around the whole lattice and copy it to the others
 		
-		int gridPoints = 30; //Number of points to compute in each dimension
 		double rangeFactor = 2; //Factor to extend range past outside of polywell
-		Pair<Double, Double> xRange = polywell.getB().get(0);
-		Pair<Double, Double> yRange = polywell.getB().get(1);
-		Pair<Double, Double> zRange = polywell.getB().get(2);
-		DoubleVector gridWidths = new DoubleVector((xRange.getB() - xRange.getA()) * rangeFactor / gridPoints,
-				(yRange.getB() - yRange.getA()) * rangeFactor/ gridPoints,
-				(zRange.getB() - zRange.getA()) * rangeFactor/ gridPoints);
+		boolean convolution = false; //Solve the whole grid at once by FFT convolution instead of integrating
+		if (field.getLattice() == null) {
+			List<Pair<Double, Double>> gridRanges = Lists.<Pair<Double, Double>>newArrayList();
+			for (Pair<Double, Double> range : polywell.getB()) {
+				gridRanges.add(Pair.of(range.getA() * rangeFactor, range.getB() * rangeFactor));
+			}
+			field.setLattice(FieldLattice.fromRanges(gridRanges, gridPoints + 1));
+		}
 		
-		for (double x = xRange.getA() * rangeFactor; x <= xRange.getB() * rangeFactor; 
-				x += gridWidths.getValue(0)) {
-			for (double y = yRange.getA() * rangeFactor; y <= yRange.getB() * rangeFactor; 
-					y += gridWidths.getValue(1)) {
-				for (double z = zRange.getA() * rangeFactor; z <= zRange.getB() * rangeFactor; 
-						z += gridWidths.getValue(2)) {
-					DoubleVector coord = new DoubleVector(x, y, z);
-					System.out.println(coord);
-					field.getField(coord);
-					try {
-						field.storeResults();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
+		try {
+			if (convolution) {
+				new ConvolutionSolver(polywell.getA(), polywell.getB()).solve(field.getLattice());
+				field.storeResults();
+			} else {
+				GridPrecomputer precomputer = new GridPrecomputer(field, new File(filename + ".journal"));
+				precomputer.setThreads(threads);
+				precomputer.run();
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 }
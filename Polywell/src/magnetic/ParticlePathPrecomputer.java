@@ -7,10 +7,11 @@ import java.util.Scanner;
 
 import utilities.DoubleVector;
 import utilities.Pair;
+import utilities.Vec3;
 
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 
+import diffeq.Derivatives;
 import diffeq.RungeKutta;
 
 /**
@@ -28,21 +29,23 @@ public class ParticlePathPrecomputer {
 		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
 				CurrentDensityFunctionFactory.getCubicPolywellFunction(radius, thickness, magnitude);
 		final MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), filename);
+		field.setInterpolation(FieldInterpolator.Mode.TRICUBIC);
 	
-		Function<Pair<DoubleVector, Double>, DoubleVector> deriv = 
-				new Function<Pair<DoubleVector, Double>, DoubleVector>() {
+		Derivatives deriv = new Derivatives() {
+			private final Vec3 force = new Vec3();
+			
 			@Override
-			public DoubleVector apply(Pair<DoubleVector, Double> xt) {
-				DoubleVector xv = xt.getA();
-				DoubleVector x = new DoubleVector(xv.getValue(0), xv.getValue(1),
-						xv.getValue(2));
-				DoubleVector v = new DoubleVector(xv.getValue(3), xv.getValue(4),
-						xv.getValue(5));
-				DoubleVector b = field.getField(x);
+			public void apply(double[] xv, double t, double[] result) {
+				DoubleVector b = field.getField(new DoubleVector(xv[0], xv[1], xv[2]));
 				//System.out.println(b);
-				DoubleVector force = b.crossProduct(v).multiply(10);
-				return new DoubleVector(v.getValue(0), v.getValue(1), v.getValue(2), 
-						force.getValue(0), force.getValue(1), force.getValue(2));
+				Vec3.cross(b.getValue(0), b.getValue(1), b.getValue(2), xv[3], xv[4], xv[5], force)
+						.multiply(10);
+				result[0] = xv[3];
+				result[1] = xv[4];
+				result[2] = xv[5];
+				result[3] = force.getX();
+				result[4] = force.getY();
+				result[5] = force.getZ();
 			}
 		};
 		
@@ -81,8 +84,11 @@ public class ParticlePathPrecomputer {
 		} else {
 			state = path.get(path.size() - 1);
 		}
+		double[] current = state.toArray();
+		RungeKutta.Workspace work = new RungeKutta.Workspace(current.length);
 		for (int i = path.size(); i < numSteps; i++) {
-			state = RungeKutta.rungeKutta4(state, timeStep * i, timeStep, deriv);
+			RungeKutta.rungeKutta4(current, timeStep * i, timeStep, deriv, work);
+			state = new DoubleVector(current);
 			path.add(state);
 			System.out.println(state);
 			System.out.println(state.getValue(3) * state.getValue(3) + 
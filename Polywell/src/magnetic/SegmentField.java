@@ -0,0 +1,188 @@
+package magnetic;
+
+import java.util.List;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+import utilities.Vec3Function;
+
+import com.google.common.base.Function;
+
+/**
+ * Closed form magnetic field of a set of closed polygonal current filaments, in the same units as the
+ * integrated Biot-Savart law. Each torus is modelled as a polygon of straight segments along its
+ * central ring, or as a bundle of polygons spread over its cross section in the same way as
+ * {@link FilamentField}. The field of each straight segment is exact, so the only error is that of the
+ * polygons, which shrinks with the square of the number of segments. The polygons are scaled to enclose
+ * the same area as the circles they replace so that the far field is unchanged.
+ * @author Ryan Dewey
+ */
+public final class SegmentField implements Function<DoubleVector, DoubleVector>, Vec3Function {
+	/**
+	 * Relative size of the field denominator below which a point is taken to be on a segment
+	 */
+	private static final double ON_SEGMENT_TOLERANCE = 1.0E-14;
+	
+	private final int segments;
+	private final double[] vertexX;
+	private final double[] vertexY;
+	private final double[] vertexZ;
+	private final double[] current;
+	
+	private SegmentField(int polygons, int segments) {
+		this.segments = segments;
+		vertexX = new double[polygons * segments];
+		vertexY = new double[polygons * segments];
+		vertexZ = new double[polygons * segments];
+		current = new double[polygons];
+	}
+	
+	/**
+	 * Creates the field of the given tori, each modelled as a bundle of polygons. The cross section of
+	 * each torus is divided into rings of equal area, and each ring into equal sectors, with one polygon
+	 * through the middle of each sector. Only tori whose axis passes through the origin have a current
+	 * which circulates about the axis, so other tori are rejected.
+	 * @param tori tori to model
+	 * @param segments number of straight segments in each polygon, at least 3
+	 * @param rings number of rings of polygons across the cross section, 0 for a single polygon along
+	 * 			the central ring
+	 * @param filamentsPerRing number of polygons in each ring
+	 * @return field of the tori
+	 */
+	public static SegmentField create(List<TorusGeometry> tori, int segments, int rings, int filamentsPerRing) {
+		if (segments < 3) {
+			throw new IllegalArgumentException("Polygons need at least 3 segments");
+		}
+		if (rings < 0 || (rings > 0 && filamentsPerRing <= 0)) {
+			throw new IllegalArgumentException("Number of filaments must be positive");
+		}
+		for (TorusGeometry torus : tori) {
+			if (!torus.isCenteredOnAxis()) {
+				throw new IllegalArgumentException("Segment model requires tori centered on their axis: " + torus);
+			}
+		}
+		int perTorus = rings == 0 ? 1 : rings * filamentsPerRing;
+		SegmentField field = new SegmentField(tori.size() * perTorus, segments);
+		// Circumradius of the polygon with the area of the unit circle
+		double scale = Math.sqrt(2 * Math.PI / (segments * Math.sin(2 * Math.PI / segments)));
+		int index = 0;
+		for (TorusGeometry torus : tori) {
+			Vec3 axis = new Vec3(torus.getDirection()).normalize();
+			Vec3 center = new Vec3(torus.getCenter());
+			// Unit vectors spanning the plane of the loop, oriented so the current circulates about the axis
+			Vec3 u = new Vec3(Math.abs(axis.getX()) < 0.9 ? 1 : 0, Math.abs(axis.getX()) < 0.9 ? 0 : 1, 0);
+			u.addScaled(axis, -u.dot(axis)).normalize();
+			Vec3 v = new Vec3().cross(axis, u);
+			double thickness = torus.getThickness();
+			double totalCurrent = torus.getMagnitude() * Math.PI * thickness * thickness;
+			if (rings == 0) {
+				field.setPolygon(index++, center, u, v, torus.getRadius() * scale, totalCurrent);
+				continue;
+			}
+			for (int i = 0; i < rings; i++) {
+				double r = thickness * Math.sqrt((i + 0.5) / rings);
+				for (int k = 0; k < filamentsPerRing; k++) {
+					double angle = 2 * Math.PI * (k + 0.5) / filamentsPerRing;
+					Vec3 shifted = new Vec3().set(center).addScaled(axis, r * Math.sin(angle));
+					field.setPolygon(index++, shifted, u, v, (torus.getRadius() + r * Math.cos(angle)) * scale, 
+							totalCurrent / (rings * filamentsPerRing));
+				}
+			}
+		}
+		return field;
+	}
+	
+	private void setPolygon(int index, Vec3 center, Vec3 u, Vec3 v, double radius, double current) {
+		for (int k = 0; k < segments; k++) {
+			double angle = 2 * Math.PI * k / segments;
+			double cos = radius * Math.cos(angle);
+			double sin = radius * Math.sin(angle);
+			int vertex = index * segments + k;
+			vertexX[vertex] = center.getX() + cos * u.getX() + sin * v.getX();
+			vertexY[vertex] = center.getY() + cos * u.getY() + sin * v.getY();
+			vertexZ[vertex] = center.getZ() + cos * u.getZ() + sin * v.getZ();
+		}
+		this.current[index] = current;
+	}
+	
+	/**
+	 * Gets the number of polygons
+	 */
+	public int getPolygonCount() {
+		return current.length;
+	}
+	
+	/**
+	 * Gets the number of straight segments in each polygon
+	 */
+	public int getSegmentCount() {
+		return segments;
+	}
+	
+	@Override
+	public DoubleVector apply(DoubleVector x) {
+		Vec3 result = new Vec3();
+		apply(x.getValue(0), x.getValue(1), x.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	/**
+	 * Evaluates the field at (x, y, z). Segments passing through the point are left out.
+	 * @param result vector to store the field in
+	 */
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		double bx = 0;
+		double by = 0;
+		double bz = 0;
+		for (int p = 0; p < current.length; p++) {
+			int first = p * segments;
+			// Offsets of the point from the start of each segment, shared with the end of the previous one
+			double r1x = x - vertexX[first];
+			double r1y = y - vertexY[first];
+			double r1z = z - vertexZ[first];
+			double r1 = Math.sqrt(r1x * r1x + r1y * r1y + r1z * r1z);
+			double startX = r1x;
+			double startY = r1y;
+			double startZ = r1z;
+			double start = r1;
+			double polygonX = 0;
+			double polygonY = 0;
+			double polygonZ = 0;
+			for (int k = 1; k <= segments; k++) {
+				double r2x;
+				double r2y;
+				double r2z;
+				double r2;
+				if (k < segments) {
+					r2x = x - vertexX[first + k];
+					r2y = y - vertexY[first + k];
+					r2z = z - vertexZ[first + k];
+					r2 = Math.sqrt(r2x * r2x + r2y * r2y + r2z * r2z);
+				} else {
+					r2x = startX;
+					r2y = startY;
+					r2z = startZ;
+					r2 = start;
+				}
+				// B = I (r1 x r2) (|r1| + |r2|) / (|r1| |r2| (|r1| |r2| + r1.r2))
+				double product = r1 * r2;
+				double denominator = product * (product + r1x * r2x + r1y * r2y + r1z * r2z);
+				if (denominator > ON_SEGMENT_TOLERANCE * product * product) {
+					double scale = (r1 + r2) / denominator;
+					polygonX += (r1y * r2z - r1z * r2y) * scale;
+					polygonY += (r1z * r2x - r1x * r2z) * scale;
+					polygonZ += (r1x * r2y - r1y * r2x) * scale;
+				}
+				r1x = r2x;
+				r1y = r2y;
+				r1z = r2z;
+				r1 = r2;
+			}
+			bx += current[p] * polygonX;
+			by += current[p] * polygonY;
+			bz += current[p] * polygonZ;
+		}
+		result.set(bx, by, bz);
+	}
+}
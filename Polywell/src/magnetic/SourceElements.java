@@ -0,0 +1,268 @@
+package magnetic;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import utilities.Pair;
+import utilities.Vec3;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Current density sampled once into a compact set of point sources, each with a position and the
+ * current density at that position multiplied by the volume it represents. The Biot-Savart integral
+ * for any number of field points can then be estimated as a direct sum over the same sources, which
+ * avoids evaluating the current density again for every field point.
+ * @author Ryan Dewey
+ */
+final class SourceElements {
+	/**
+	 * Lower bound on the squared distance from a source to a field point, keeps the sum finite when a
+	 * field point lies exactly on a source. The current there is crossed with a zero vector.
+	 */
+	private static final double MIN_DISTANCE_SQUARED = 1.0E-200;
+	
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final double[] jx;
+	private final double[] jy;
+	private final double[] jz;
+	private final int size;
+	
+	/**
+	 * Creates sources from arrays which are not copied
+	 * @param size number of sources in the arrays
+	 */
+	SourceElements(double[] x, double[] y, double[] z, double[] jx, double[] jy, double[] jz, int size) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.jx = jx;
+		this.jy = jy;
+		this.jz = jz;
+		this.size = size;
+	}
+	
+	/**
+	 * Samples a current density at random points in a box. Points with no current are dropped.
+	 * @param j current density to sample
+	 * @param ranges box to sample in
+	 * @param runs number of points to sample
+	 * @param random source of random numbers
+	 * @return sources describing the current
+	 */
+	static SourceElements sample(CurrentDensityFunction j, List<Pair<Double, Double>> ranges, int runs,
+			SplittableRandom random) {
+		double[] min = new double[3];
+		double[] width = new double[3];
+		double volume = 1;
+		for (int i = 0; i < 3; i++) {
+			min[i] = ranges.get(i).getA();
+			width[i] = ranges.get(i).getB() - min[i];
+			volume *= width[i];
+		}
+		double weight = volume / runs;
+		int block = Math.min(TorusBiotSavartKernel.BLOCK_SIZE, runs);
+		double[] px = new double[block];
+		double[] py = new double[block];
+		double[] pz = new double[block];
+		double[] valueX = new double[block];
+		double[] valueY = new double[block];
+		double[] valueZ = new double[block];
+		Builder builder = new Builder(runs);
+		for (int num = 0; num < runs; num += block) {
+			int n = Math.min(block, runs - num);
+			for (int i = 0; i < n; i++) {
+				px[i] = min[0] + width[0] * random.nextDouble();
+				py[i] = min[1] + width[1] * random.nextDouble();
+				pz[i] = min[2] + width[2] * random.nextDouble();
+			}
+			j.applyBatch(px, py, pz, n, valueX, valueY, valueZ);
+			for (int i = 0; i < n; i++) {
+				builder.add(px[i], py[i], pz[i], valueX[i] * weight, valueY[i] * weight, valueZ[i] * weight);
+			}
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * Gets the number of sources
+	 */
+	int size() {
+		return size;
+	}
+	
+	double[] getX() {
+		return x;
+	}
+	
+	double[] getY() {
+		return y;
+	}
+	
+	double[] getZ() {
+		return z;
+	}
+	
+	double[] getCurrentX() {
+		return jx;
+	}
+	
+	double[] getCurrentY() {
+		return jy;
+	}
+	
+	double[] getCurrentZ() {
+		return jz;
+	}
+	
+	/**
+	 * Estimates the Biot-Savart integral for the field at (fx, fy, fz)
+	 * @param result vector to store the field in
+	 */
+	void getField(double fx, double fy, double fz, Vec3 result) {
+		double bx = 0;
+		double by = 0;
+		double bz = 0;
+		for (int i = 0; i < size; i++) {
+			double rx = fx - x[i];
+			double ry = fy - y[i];
+			double rz = fz - z[i];
+			double r2 = Math.max(rx * rx + ry * ry + rz * rz, MIN_DISTANCE_SQUARED);
+			double scale = 1 / (r2 * Math.sqrt(r2));
+			bx += (jy[i] * rz - jz[i] * ry) * scale;
+			by += (jz[i] * rx - jx[i] * rz) * scale;
+			bz += (jx[i] * ry - jy[i] * rx) * scale;
+		}
+		result.set(bx, by, bz);
+	}
+	
+	/**
+	 * Estimates the Biot-Savart integral for the field at the first n of the given points
+	 * @param tasks number of parallel tasks to split the points between, 1 to use the calling thread
+	 */
+	void getFields(double[] fx, double[] fy, double[] fz, int n, double[] resultX, double[] resultY, 
+			double[] resultZ, int tasks) {
+		if (tasks <= 1) {
+			getFields(fx, fy, fz, 0, n, resultX, resultY, resultZ);
+			return;
+		}
+		List<FieldTask> list = Lists.<FieldTask>newArrayList();
+		for (int t = 0; t < tasks; t++) {
+			list.add(new FieldTask(fx, fy, fz, (int) ((long) n * t / tasks), (int) ((long) n * (t + 1) / tasks),
+					resultX, resultY, resultZ));
+		}
+		ForkJoinTask.invokeAll(list);
+	}
+	
+	private void getFields(double[] fx, double[] fy, double[] fz, int from, int to, double[] resultX, 
+			double[] resultY, double[] resultZ) {
+		Vec3 field = new Vec3();
+		for (int i = from; i < to; i++) {
+			getField(fx[i], fy[i], fz[i], field);
+			resultX[i] = field.getX();
+			resultY[i] = field.getY();
+			resultZ[i] = field.getZ();
+		}
+	}
+	
+	/**
+	 * Task which computes the field at a range of points
+	 */
+	private class FieldTask extends RecursiveAction {
+		private final double[] fx;
+		private final double[] fy;
+		private final double[] fz;
+		private final int from;
+		private final int to;
+		private final double[] resultX;
+		private final double[] resultY;
+		private final double[] resultZ;
+		
+		public FieldTask(double[] fx, double[] fy, double[] fz, int from, int to, double[] resultX, 
+				double[] resultY, double[] resultZ) {
+			this.fx = fx;
+			this.fy = fy;
+			this.fz = fz;
+			this.from = from;
+			this.to = to;
+			this.resultX = resultX;
+			this.resultY = resultY;
+			this.resultZ = resultZ;
+		}
+		
+		@Override
+		protected void compute() {
+			getFields(fx, fy, fz, from, to, resultX, resultY, resultZ);
+		}
+	}
+	
+	/**
+	 * Collects sources into growing arrays, dropping those with no current
+	 */
+	static class Builder {
+		private double[] x;
+		private double[] y;
+		private double[] z;
+		private double[] jx;
+		private double[] jy;
+		private double[] jz;
+		private int size;
+		
+		/**
+		 * Creates a builder
+		 * @param capacity expected number of sources
+		 */
+		Builder(int capacity) {
+			capacity = Math.max(capacity, 16);
+			x = new double[capacity];
+			y = new double[capacity];
+			z = new double[capacity];
+			jx = new double[capacity];
+			jy = new double[capacity];
+			jz = new double[capacity];
+		}
+		
+		/**
+		 * Adds a source at (x, y, z) with current density times volume (jx, jy, jz)
+		 */
+		void add(double x, double y, double z, double jx, double jy, double jz) {
+			if (jx == 0 && jy == 0 && jz == 0) {
+				return;
+			}
+			if (size == this.x.length) {
+				grow();
+			}
+			this.x[size] = x;
+			this.y[size] = y;
+			this.z[size] = z;
+			this.jx[size] = jx;
+			this.jy[size] = jy;
+			this.jz[size] = jz;
+			size++;
+		}
+		
+		private void grow() {
+			int capacity = x.length * 2;
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			z = Arrays.copyOf(z, capacity);
+			jx = Arrays.copyOf(jx, capacity);
+			jy = Arrays.copyOf(jy, capacity);
+			jz = Arrays.copyOf(jz, capacity);
+		}
+		
+		/**
+		 * Creates the sources, trimmed to the number added
+		 */
+		SourceElements build() {
+			return new SourceElements(Arrays.copyOf(x, size), Arrays.copyOf(y, size), 
+					Arrays.copyOf(z, size), Arrays.copyOf(jx, size), 
+					Arrays.copyOf(jy, size), Arrays.copyOf(jz, size), size);
+		}
+	}
+}
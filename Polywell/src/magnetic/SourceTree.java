@@ -0,0 +1,382 @@
+package magnetic;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import utilities.Vec3;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Barnes-Hut treecode for the field of many point sources. The sources are sorted into an octree and
+ * each node keeps the sum of its currents and their first and second moments about the mean position
+ * of its sources, so that the field of a node far from a field point is found from a multipole
+ * expansion instead of a sum over its sources. A node is expanded when the distance from its center to
+ * its furthest source is less than the opening angle times its distance from the field point, and
+ * summed directly otherwise. The moments matter because a closed current loop has almost no net
+ * current.
+ * @author Ryan Dewey
+ */
+final class SourceTree {
+	/**
+	 * Largest number of sources in a leaf
+	 */
+	private static final int LEAF_SIZE = 16;
+	private static final int MAX_DEPTH = 32;
+	private static final double MIN_DISTANCE_SQUARED = 1.0E-200;
+	
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final double[] jx;
+	private final double[] jy;
+	private final double[] jz;
+	private final Node root;
+	private final double openingAngle;
+	
+	/**
+	 * Builds a tree over sources
+	 * @param sources sources to sum
+	 * @param openingAngle largest ratio of node radius to distance for which a node is expanded, 0 to
+	 * 			always sum directly
+	 */
+	SourceTree(SourceElements sources, double openingAngle) {
+		if (openingAngle < 0) {
+			throw new IllegalArgumentException("Opening angle must not be negative");
+		}
+		this.openingAngle = openingAngle;
+		int n = sources.size();
+		x = new double[n];
+		y = new double[n];
+		z = new double[n];
+		jx = new double[n];
+		jy = new double[n];
+		jz = new double[n];
+		int[] order = new int[n];
+		double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		double[][] positions = {sources.getX(), sources.getY(), sources.getZ()};
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			for (int d = 0; d < 3; d++) {
+				min[d] = Math.min(min[d], positions[d][i]);
+				max[d] = Math.max(max[d], positions[d][i]);
+			}
+		}
+		double width = 0;
+		for (int d = 0; d < 3; d++) {
+			width = Math.max(width, max[d] - min[d]);
+		}
+		root = n == 0 ? null : build(positions, order, new int[n], 0, n, min[0], min[1], min[2], width, 0);
+		for (int i = 0; i < n; i++) {
+			x[i] = positions[0][order[i]];
+			y[i] = positions[1][order[i]];
+			z[i] = positions[2][order[i]];
+			jx[i] = sources.getCurrentX()[order[i]];
+			jy[i] = sources.getCurrentY()[order[i]];
+			jz[i] = sources.getCurrentZ()[order[i]];
+		}
+		if (root != null) {
+			computeMoments(root);
+		}
+	}
+	
+	/**
+	 * Builds the node for the sources order[from, to) inside the cube with the given lowest corner,
+	 * sorting them by octant
+	 * @param scratch array as long as order
+	 */
+	private static Node build(double[][] positions, int[] order, int[] scratch, int from, int to, 
+			double minX, double minY, double minZ, double width, int depth) {
+		Node node = new Node(from, to);
+		if (to - from <= LEAF_SIZE || depth >= MAX_DEPTH) {
+			return node;
+		}
+		double half = width / 2;
+		int[] counts = new int[8];
+		for (int i = from; i < to; i++) {
+			counts[getOctant(positions, order[i], minX + half, minY + half, minZ + half)]++;
+		}
+		int[] starts = new int[8];
+		for (int o = 1; o < 8; o++) {
+			starts[o] = starts[o - 1] + counts[o - 1];
+		}
+		int[] next = starts.clone();
+		for (int i = from; i < to; i++) {
+			int octant = getOctant(positions, order[i], minX + half, minY + half, minZ + half);
+			scratch[from + next[octant]++] = order[i];
+		}
+		System.arraycopy(scratch, from, order, from, to - from);
+		List<Node> children = Lists.<Node>newArrayList();
+		for (int o = 0; o < 8; o++) {
+			if (counts[o] > 0) {
+				children.add(build(positions, order, scratch, from + starts[o], from + starts[o] + counts[o], 
+						minX + ((o & 1) != 0 ? half : 0), minY + ((o & 2) != 0 ? half : 0), 
+						minZ + ((o & 4) != 0 ? half : 0), half, depth + 1));
+			}
+		}
+		node.children = children.toArray(new Node[children.size()]);
+		return node;
+	}
+	
+	private static int getOctant(double[][] positions, int i, double midX, double midY, double midZ) {
+		return (positions[0][i] >= midX ? 1 : 0) | (positions[1][i] >= midY ? 2 : 0) 
+				| (positions[2][i] >= midZ ? 4 : 0);
+	}
+	
+	/**
+	 * Finds the center, total current and moments of a node and its descendants from their sources,
+	 * which are contiguous in tree order
+	 */
+	private void computeMoments(Node node) {
+		int count = node.to - node.from;
+		for (int i = node.from; i < node.to; i++) {
+			node.cx += x[i] / count;
+			node.cy += y[i] / count;
+			node.cz += z[i] / count;
+		}
+		for (int i = node.from; i < node.to; i++) {
+			double dx = x[i] - node.cx;
+			double dy = y[i] - node.cy;
+			double dz = z[i] - node.cz;
+			node.radius = Math.max(node.radius, Math.sqrt(dx * dx + dy * dy + dz * dz));
+			node.addSource(jx[i], jy[i], jz[i], dx, dy, dz);
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				computeMoments(child);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of sources
+	 */
+	int size() {
+		return x.length;
+	}
+	
+	/**
+	 * Estimates the Biot-Savart integral for the field at (fx, fy, fz)
+	 * @param stack scratch array at least as deep as the tree times 8
+	 * @param result vector to store the field in
+	 */
+	void getField(double fx, double fy, double fz, Node[] stack, Vec3 result) {
+		double bx = 0;
+		double by = 0;
+		double bz = 0;
+		int top = 0;
+		if (root != null) {
+			stack[top++] = root;
+		}
+		double angle2 = openingAngle * openingAngle;
+		while (top > 0) {
+			Node node = stack[--top];
+			double rx = fx - node.cx;
+			double ry = fy - node.cy;
+			double rz = fz - node.cz;
+			double r2 = rx * rx + ry * ry + rz * rz;
+			if (node.radius * node.radius < angle2 * r2) {
+				double[] t = node.first;
+				double[] q = node.second;
+				double inverse3 = 1 / (r2 * Math.sqrt(r2));
+				double inverse5 = inverse3 / r2;
+				double inverse7 = inverse5 / r2;
+				// Monopole J x R / R^3
+				bx += (node.jy * rz - node.jz * ry) * inverse3;
+				by += (node.jz * rx - node.jx * rz) * inverse3;
+				bz += (node.jx * ry - node.jy * rx) * inverse3;
+				// Dipole -sum(J x d) / R^3 + 3 sum(J (d.R)) x R / R^5
+				double tx = t[0] * rx + t[1] * ry + t[2] * rz;
+				double ty = t[3] * rx + t[4] * ry + t[5] * rz;
+				double tz = t[6] * rx + t[7] * ry + t[8] * rz;
+				bx += -(t[5] - t[7]) * inverse3 + 3 * (ty * rz - tz * ry) * inverse5;
+				by += -(t[6] - t[2]) * inverse3 + 3 * (tz * rx - tx * rz) * inverse5;
+				bz += -(t[1] - t[3]) * inverse3 + 3 * (tx * ry - ty * rx) * inverse5;
+				// Quadrupole -3 sum(J x d (d.R)) / R^5 - 3/2 sum(J |d|^2) x R / R^5
+				// + 15/2 sum(J (d.R)^2) x R / R^7
+				double axx = q[0] * rx + q[1] * ry + q[2] * rz;
+				double axy = q[3] * rx + q[4] * ry + q[5] * rz;
+				double axz = q[6] * rx + q[7] * ry + q[8] * rz;
+				double ayx = q[9] * rx + q[10] * ry + q[11] * rz;
+				double ayy = q[12] * rx + q[13] * ry + q[14] * rz;
+				double ayz = q[15] * rx + q[16] * ry + q[17] * rz;
+				double azx = q[18] * rx + q[19] * ry + q[20] * rz;
+				double azy = q[21] * rx + q[22] * ry + q[23] * rz;
+				double azz = q[24] * rx + q[25] * ry + q[26] * rz;
+				double sx = axx * rx + axy * ry + axz * rz;
+				double sy = ayx * rx + ayy * ry + ayz * rz;
+				double sz = azx * rx + azy * ry + azz * rz;
+				double px = q[0] + q[4] + q[8];
+				double py = q[9] + q[13] + q[17];
+				double pz = q[18] + q[22] + q[26];
+				bx += (-3 * (ayz - azy) - 1.5 * (py * rz - pz * ry)) * inverse5 + 7.5 * (sy * rz - sz * ry) * inverse7;
+				by += (-3 * (azx - axz) - 1.5 * (pz * rx - px * rz)) * inverse5 + 7.5 * (sz * rx - sx * rz) * inverse7;
+				bz += (-3 * (axy - ayx) - 1.5 * (px * ry - py * rx)) * inverse5 + 7.5 * (sx * ry - sy * rx) * inverse7;
+			} else if (node.children == null) {
+				for (int i = node.from; i < node.to; i++) {
+					double sx = fx - x[i];
+					double sy = fy - y[i];
+					double sz = fz - z[i];
+					double s2 = Math.max(sx * sx + sy * sy + sz * sz, MIN_DISTANCE_SQUARED);
+					double scale = 1 / (s2 * Math.sqrt(s2));
+					bx += (jy[i] * sz - jz[i] * sy) * scale;
+					by += (jz[i] * sx - jx[i] * sz) * scale;
+					bz += (jx[i] * sy - jy[i] * sx) * scale;
+				}
+			} else {
+				for (Node child : node.children) {
+					stack[top++] = child;
+				}
+			}
+		}
+		result.set(bx, by, bz);
+	}
+	
+	/**
+	 * Estimates the Biot-Savart integral for the field at the first n of the given points
+	 * @param tasks number of parallel tasks to split the points between, 1 to use the calling thread
+	 */
+	void getFields(double[] fx, double[] fy, double[] fz, int n, double[] resultX, double[] resultY, 
+			double[] resultZ, int tasks) {
+		if (tasks <= 1) {
+			getFields(fx, fy, fz, 0, n, resultX, resultY, resultZ);
+			return;
+		}
+		List<FieldTask> list = Lists.<FieldTask>newArrayList();
+		for (int t = 0; t < tasks; t++) {
+			list.add(new FieldTask(fx, fy, fz, (int) ((long) n * t / tasks), (int) ((long) n * (t + 1) / tasks),
+					resultX, resultY, resultZ));
+		}
+		ForkJoinTask.invokeAll(list);
+	}
+	
+	private void getFields(double[] fx, double[] fy, double[] fz, int from, int to, double[] resultX, 
+			double[] resultY, double[] resultZ) {
+		Node[] stack = new Node[8 * (MAX_DEPTH + 1)];
+		Vec3 field = new Vec3();
+		for (int i = from; i < to; i++) {
+			getField(fx[i], fy[i], fz[i], stack, field);
+			resultX[i] = field.getX();
+			resultY[i] = field.getY();
+			resultZ[i] = field.getZ();
+		}
+	}
+	
+	/**
+	 * Measures the error of the treecode against the direct sum over the sources at some of the
+	 * given points
+	 * @param checks largest number of points to check, spread evenly through the points
+	 * @return root mean square error relative to the root mean square field at the checked points
+	 */
+	double getError(double[] fx, double[] fy, double[] fz, int n, double[] resultX, double[] resultY, 
+			double[] resultZ, int checks) {
+		int step = Math.max(1, n / Math.max(checks, 1));
+		double error = 0;
+		double norm = 0;
+		for (int i = 0; i < n; i += step) {
+			double bx = 0;
+			double by = 0;
+			double bz = 0;
+			for (int s = 0; s < x.length; s++) {
+				double sx = fx[i] - x[s];
+				double sy = fy[i] - y[s];
+				double sz = fz[i] - z[s];
+				double s2 = Math.max(sx * sx + sy * sy + sz * sz, MIN_DISTANCE_SQUARED);
+				double scale = 1 / (s2 * Math.sqrt(s2));
+				bx += (jy[s] * sz - jz[s] * sy) * scale;
+				by += (jz[s] * sx - jx[s] * sz) * scale;
+				bz += (jx[s] * sy - jy[s] * sx) * scale;
+			}
+			double dx = resultX[i] - bx;
+			double dy = resultY[i] - by;
+			double dz = resultZ[i] - bz;
+			error += dx * dx + dy * dy + dz * dz;
+			norm += bx * bx + by * by + bz * bz;
+		}
+		return norm > 0 ? Math.sqrt(error / norm) : Math.sqrt(error);
+	}
+	
+	/**
+	 * Cube of the octree holding the sources [from, to) in tree order
+	 */
+	private static final class Node {
+		private final int from;
+		private final int to;
+		private Node[] children;
+		/**
+		 * Distance from the center to the furthest source
+		 */
+		private double radius;
+		private double cx;
+		private double cy;
+		private double cz;
+		private double jx;
+		private double jy;
+		private double jz;
+		/**
+		 * Sum of J_a d_b over the sources at offsets d from the center, at index 3 a + b
+		 */
+		private final double[] first = new double[9];
+		/**
+		 * Sum of J_a d_b d_c over the sources at offsets d from the center, at index 9 a + 3 b + c
+		 */
+		private final double[] second = new double[27];
+		
+		Node(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		/**
+		 * Adds a current at an offset from the center
+		 */
+		void addSource(double currentX, double currentY, double currentZ, double dx, double dy, double dz) {
+			jx += currentX;
+			jy += currentY;
+			jz += currentZ;
+			double[] current = {currentX, currentY, currentZ};
+			double[] offset = {dx, dy, dz};
+			for (int a = 0; a < 3; a++) {
+				for (int b = 0; b < 3; b++) {
+					first[3 * a + b] += current[a] * offset[b];
+					for (int c = 0; c < 3; c++) {
+						second[9 * a + 3 * b + c] += current[a] * offset[b] * offset[c];
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Task which computes the field at a range of points
+	 */
+	private class FieldTask extends RecursiveAction {
+		private final double[] fx;
+		private final double[] fy;
+		private final double[] fz;
+		private final int from;
+		private final int to;
+		private final double[] resultX;
+		private final double[] resultY;
+		private final double[] resultZ;
+		
+		public FieldTask(double[] fx, double[] fy, double[] fz, int from, int to, double[] resultX, 
+				double[] resultY, double[] resultZ) {
+			this.fx = fx;
+			this.fy = fy;
+			this.fz = fz;
+			this.from = from;
+			this.to = to;
+			this.resultX = resultX;
+			this.resultY = resultY;
+			this.resultZ = resultZ;
+		}
+		
+		@Override
+		protected void compute() {
+			getFields(fx, fy, fz, from, to, resultX, resultY, resultZ);
+		}
+	}
+}
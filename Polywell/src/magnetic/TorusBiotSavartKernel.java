@@ -0,0 +1,187 @@
+package magnetic;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+
+/**
+ * Fused Biot-Savart integrand for current densities made up entirely of tori. Samples are processed in
+ * blocks small enough to stay in cache while the current of every torus is accumulated and then
+ * crossed with the displacement to the field point. Each pass is a branch free loop over primitive
+ * arrays, with torus membership applied as a lane mask, so that the JIT can vectorize it.
+ * <p>
+ * When the optional {@code VectorTorusKernel} is on the class path and the
+ * {@code jdk.incubator.vector} module is present, the samples are instead evaluated explicitly across
+ * the SIMD lanes of the Vector API. It is found by name so that this class builds and runs without it,
+ * and setting the system property {@value #SCALAR_PROPERTY} to true keeps the scalar loops.
+ * @author Ryan Dewey
+ */
+final class TorusBiotSavartKernel {
+	/**
+	 * Number of samples processed per block
+	 */
+	static final int BLOCK_SIZE = 256;
+	
+	/**
+	 * Lower bound on the squared distance to the field point, keeps the kernel finite when a sample
+	 * lands exactly on the field point. The current there is crossed with a zero vector.
+	 */
+	static final double MIN_DISTANCE_SQUARED = 1.0E-200;
+	
+	/**
+	 * System property which disables the Vector API kernel when set to true
+	 */
+	static final String SCALAR_PROPERTY = "magnetic.scalarKernel";
+	
+	private static final String VECTOR_KERNEL = "magnetic.VectorTorusKernel";
+	
+	/**
+	 * Constructor of the Vector API kernel, or null if it cannot be used
+	 */
+	private static final Constructor<? extends Kernel> VECTOR = findVectorKernel();
+	
+	/**
+	 * Scratch arrays of one block for each thread, so that a call allocates nothing
+	 */
+	private static final ThreadLocal<double[][]> SCRATCH = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return new double[3][BLOCK_SIZE];
+		}
+	};
+	
+	private final TorusDensityFunction[] tori;
+	private final Kernel vector;
+	
+	private TorusBiotSavartKernel(TorusDensityFunction[] tori, Kernel vector) {
+		this.tori = tori;
+		this.vector = vector;
+	}
+	
+	/**
+	 * Evaluates the Biot-Savart integrand of the tori over a range of samples
+	 */
+	interface Kernel {
+		/**
+		 * Evaluates the integrand for the field at (fx, fy, fz) at the samples from (inclusive) to to
+		 * (exclusive)
+		 */
+		void apply(double fx, double fy, double fz, double[] x, double[] y, double[] z, int from, int to, 
+				double[] resultX, double[] resultY, double[] resultZ);
+	}
+	
+	/**
+	 * Looks up the Vector API kernel and creates one to check that the incubator module links
+	 * @return constructor taking the tori, or null if the kernel is absent, disabled or cannot link
+	 */
+	private static Constructor<? extends Kernel> findVectorKernel() {
+		if (Boolean.getBoolean(SCALAR_PROPERTY)) {
+			return null;
+		}
+		try {
+			Constructor<? extends Kernel> constructor = Class.forName(VECTOR_KERNEL).asSubclass(Kernel.class)
+					.getDeclaredConstructor(TorusDensityFunction[].class);
+			constructor.newInstance((Object) new TorusDensityFunction[0]);
+			return constructor;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Checks whether blocks are evaluated with the Vector API rather than the scalar loops
+	 */
+	static boolean isVectorized() {
+		return VECTOR != null;
+	}
+	
+	/**
+	 * Creates a kernel for the given current density
+	 * @param j current density to integrate over
+	 * @return kernel for j, or null if j is not made up entirely of tori
+	 */
+	static TorusBiotSavartKernel create(CurrentDensityFunction j) {
+		List<CurrentDensityFunction> terms = j.getTerms();
+		TorusDensityFunction[] tori = new TorusDensityFunction[terms.size()];
+		for (int i = 0; i < tori.length; i++) {
+			if (!(terms.get(i) instanceof TorusDensityFunction)) {
+				return null;
+			}
+			tori[i] = (TorusDensityFunction) terms.get(i);
+		}
+		if (VECTOR == null) {
+			return new TorusBiotSavartKernel(tori, null);
+		}
+		try {
+			return new TorusBiotSavartKernel(tori, VECTOR.newInstance((Object) tori));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Vector kernel failed after loading", e);
+		}
+	}
+	
+	/**
+	 * Evaluates the Biot-Savart integrand for the field at (fx, fy, fz) at the first n sample points
+	 */
+	void apply(double fx, double fy, double fz, double[] x, double[] y, double[] z, int n,
+			double[] resultX, double[] resultY, double[] resultZ) {
+		if (vector != null) {
+			vector.apply(fx, fy, fz, x, y, z, 0, n, resultX, resultY, resultZ);
+			return;
+		}
+		double[][] scratch = SCRATCH.get();
+		double[] u = scratch[0];
+		double[] v = scratch[1];
+		double[] w = scratch[2];
+		for (int from = 0; from < n; from += BLOCK_SIZE) {
+			int to = Math.min(n, from + BLOCK_SIZE);
+			for (int i = from; i < to; i++) {
+				resultX[i] = 0;
+				resultY[i] = 0;
+				resultZ[i] = 0;
+			}
+			for (TorusDensityFunction torus : tori) {
+				torus.addToBatchMasked(x, y, z, from, to, resultX, resultY, resultZ, u, v, w);
+			}
+			crossDisplacement(fx, fy, fz, x, y, z, from, to, resultX, resultY, resultZ, u, v, w);
+		}
+	}
+	
+	/**
+	 * Replaces the current density J at each sample with J x r / |r|^3 for the displacement r from
+	 * the sample to the field point
+	 * @param u scratch array of at least to - from values, the first of which is used for point from
+	 * @param v scratch array of at least to - from values
+	 * @param w scratch array of at least to - from values
+	 */
+	static void crossDisplacement(double fx, double fy, double fz, double[] x, double[] y, 
+			double[] z, int from, int to, double[] resultX, double[] resultY, double[] resultZ, 
+			double[] u, double[] v, double[] w) {
+		int count = to - from;
+		for (int k = 0; k < count; k++) {
+			int i = from + k;
+			double rx = fx - x[i];
+			double ry = fy - y[i];
+			double rz = fz - z[i];
+			double r2 = Math.max(rx * rx + ry * ry + rz * rz, MIN_DISTANCE_SQUARED);
+			w[k] = 1 / (r2 * Math.sqrt(r2));
+		}
+		for (int k = 0; k < count; k++) {
+			int i = from + k;
+			double jx = resultX[i];
+			double jy = resultY[i];
+			double jz = resultZ[i];
+			double rx = fx - x[i];
+			double ry = fy - y[i];
+			double rz = fz - z[i];
+			double scale = w[k];
+			u[k] = (jy * rz - jz * ry) * scale;
+			v[k] = (jz * rx - jx * rz) * scale;
+			resultZ[i] = (jx * ry - jy * rx) * scale;
+		}
+		for (int k = 0; k < count; k++) {
+			resultX[from + k] = u[k];
+			resultY[from + k] = v[k];
+		}
+	}
+}
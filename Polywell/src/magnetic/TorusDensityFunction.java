@@ -0,0 +1,210 @@
+package magnetic;
+
+import utilities.DoubleMatrix;
+import utilities.DoubleVector;
+import utilities.RigidTransform;
+import utilities.Vec3;
+
+/**
+ * Current density of a torus of uniform current flowing around its central axis.
+ * @author Ryan Dewey
+ */
+class TorusDensityFunction extends CurrentDensityFunction {
+	private final TorusGeometry geometry;
+	private final double radius;
+	private final double thickness;
+	private final double magnitude;
+	private final double ax;
+	private final double ay;
+	private final double az;
+	private final RigidTransform toLocal;
+	private final boolean centeredOnAxis;
+	
+	/**
+	 * Creates the current density of a torus
+	 * @param radius distance from center of torus to center of ring
+	 * @param thickness distance from center of ring to edge of ring
+	 * @param center center point of torus
+	 * @param direction vector along central axis of torus
+	 * @param magnitude magnitude of current flow within torus
+	 */
+	TorusDensityFunction(double radius, double thickness, DoubleVector center, DoubleVector direction,
+			double magnitude) {
+		this(new TorusGeometry(radius, thickness, center, direction, magnitude));
+	}
+	
+	/**
+	 * Creates the current density of a torus
+	 * @param geometry shape and current of the torus
+	 */
+	TorusDensityFunction(TorusGeometry geometry) {
+		this.geometry = geometry;
+		double radius = geometry.getRadius();
+		double thickness = geometry.getThickness();
+		DoubleVector center = geometry.getCenter();
+		DoubleVector direction = geometry.getDirection();
+		double magnitude = geometry.getMagnitude();
+		this.radius = radius;
+		this.thickness = thickness;
+		this.magnitude = magnitude;
+		ax = direction.getValue(0);
+		ay = direction.getValue(1);
+		az = direction.getValue(2);
+		toLocal = RigidTransform.toLocalFrame(center, DoubleMatrix.getRotationMatrix(direction.normalize(), 
+				new DoubleVector(0, 0, 1)));
+		centeredOnAxis = center.crossProduct(direction).norm() == 0;
+	}
+	
+	/**
+	 * Gets the shape and current of this torus
+	 */
+	TorusGeometry getGeometry() {
+		return geometry;
+	}
+	
+	/**
+	 * Gets the transform into the frame where the torus is centered on the origin with its axis along z
+	 */
+	RigidTransform getToLocal() {
+		return toLocal;
+	}
+	
+	/**
+	 * Checks whether the axis of the torus passes through the origin, so that the current circulates
+	 * about the axis
+	 */
+	boolean isCenteredOnAxis() {
+		return centeredOnAxis;
+	}
+	
+	@Override
+	public DoubleVector apply(DoubleVector x) {
+		Vec3 result = new Vec3();
+		apply(x.getValue(0), x.getValue(1), x.getValue(2), result);
+		return result.toDoubleVector();
+	}
+	
+	@Override
+	public void apply(double x, double y, double z, Vec3 result) {
+		result.setZero();
+		addTo(x, y, z, result);
+	}
+	
+	@Override
+	public void addTo(double x, double y, double z, Vec3 result) {
+		double tx = toLocal.applyX(x, y, z);
+		double ty = toLocal.applyY(x, y, z);
+		double tz = toLocal.applyZ(x, y, z);
+		double ringRadial = Math.sqrt(tx * tx + ty * ty) - radius;
+		if (ringRadial * ringRadial + tz * tz > thickness * thickness) {
+			return;
+		}
+		double jx = ay * z - az * y;
+		double jy = az * x - ax * z;
+		double jz = ax * y - ay * x;
+		double norm = Vec3.norm(jx, jy, jz);
+		if (norm == 0) {
+			return;
+		}
+		double scale = magnitude / norm;
+		result.add(jx * scale, jy * scale, jz * scale);
+	}
+	
+	@Override
+	public void applyBatch(double[] x, double[] y, double[] z, int n, 
+			double[] resultX, double[] resultY, double[] resultZ) {
+		for (int i = 0; i < n; i++) {
+			resultX[i] = 0;
+			resultY[i] = 0;
+			resultZ[i] = 0;
+		}
+		addToBatch(x, y, z, n, resultX, resultY, resultZ);
+	}
+	
+	@Override
+	public void addToBatch(double[] x, double[] y, double[] z, int n, 
+			double[] resultX, double[] resultY, double[] resultZ) {
+		double thickness2 = thickness * thickness;
+		for (int i = 0; i < n; i++) {
+			double px = x[i];
+			double py = y[i];
+			double pz = z[i];
+			double tx = toLocal.applyX(px, py, pz);
+			double ty = toLocal.applyY(px, py, pz);
+			double tz = toLocal.applyZ(px, py, pz);
+			double ringRadial = Math.sqrt(tx * tx + ty * ty) - radius;
+			double jx = ay * pz - az * py;
+			double jy = az * px - ax * pz;
+			double jz = ax * py - ay * px;
+			double norm2 = jx * jx + jy * jy + jz * jz;
+			// Branch free so that the loop body stays a straight line of arithmetic
+			double scale = ringRadial * ringRadial + tz * tz <= thickness2 && norm2 > 0 
+					? magnitude / Math.sqrt(norm2) : 0;
+			resultX[i] += jx * scale;
+			resultY[i] += jy * scale;
+			resultZ[i] += jz * scale;
+		}
+	}
+	
+	/**
+	 * Adds the current density at points from (inclusive) to to (exclusive) of the given arrays into
+	 * the result arrays. Torus membership is applied as a 0 or 1 mask rather than a branch, and the work
+	 * is split into short loops over primitive arrays, so that each loop is small enough for the JIT to
+	 * unroll and compile to SIMD instructions. Points exactly on the surface of the torus are treated as
+	 * outside.
+	 * @param u scratch array of at least to - from values, the first of which is used for point from
+	 * @param v scratch array of at least to - from values
+	 * @param w scratch array of at least to - from values
+	 */
+	void addToBatchMasked(double[] x, double[] y, double[] z, int from, int to, 
+			double[] resultX, double[] resultY, double[] resultZ, double[] u, double[] v, double[] w) {
+		int count = to - from;
+		// Position in the frame of the torus
+		for (int k = 0; k < count; k++) {
+			u[k] = toLocal.applyX(x[from + k], y[from + k], z[from + k]);
+		}
+		for (int k = 0; k < count; k++) {
+			v[k] = toLocal.applyY(x[from + k], y[from + k], z[from + k]);
+		}
+		for (int k = 0; k < count; k++) {
+			w[k] = toLocal.applyZ(x[from + k], y[from + k], z[from + k]);
+		}
+		// Distance from the axis and membership mask, 1 inside the torus and 0 outside
+		double thickness2 = thickness * thickness;
+		for (int k = 0; k < count; k++) {
+			v[k] = Math.sqrt(u[k] * u[k] + v[k] * v[k]);
+		}
+		for (int k = 0; k < count; k++) {
+			double ringRadial = v[k] - radius;
+			u[k] = Math.ceil(Math.min(1.0, Math.max(0.0, thickness2 - ringRadial * ringRadial - w[k] * w[k])));
+		}
+		// Masked magnitude divided by the norm of direction x point
+		if (centeredOnAxis) {
+			// |direction x point| is |direction| times the distance from the axis
+			double scale = magnitude / Vec3.norm(ax, ay, az);
+			for (int k = 0; k < count; k++) {
+				u[k] = u[k] * scale / Math.max(v[k], Double.MIN_NORMAL);
+			}
+		} else {
+			for (int k = 0; k < count; k++) {
+				int i = from + k;
+				double jx = ay * z[i] - az * y[i];
+				double jy = az * x[i] - ax * z[i];
+				double jz = ax * y[i] - ay * x[i];
+				u[k] = u[k] * magnitude / Math.sqrt(Math.max(jx * jx + jy * jy + jz * jz, Double.MIN_NORMAL));
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			int i = from + k;
+			resultX[i] += (ay * z[i] - az * y[i]) * u[k];
+		}
+		for (int k = 0; k < count; k++) {
+			int i = from + k;
+			resultY[i] += (az * x[i] - ax * z[i]) * u[k];
+		}
+		for (int k = 0; k < count; k++) {
+			int i = from + k;
+			resultZ[i] += (ax * y[i] - ay * x[i]) * u[k];
+		}
+	}
+}
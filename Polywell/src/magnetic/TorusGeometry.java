@@ -0,0 +1,91 @@
+package magnetic;
+
+import utilities.DoubleVector;
+
+/**
+ * Shape and current of a torus of uniform current flowing around its central axis.
+ * @author Ryan Dewey
+ */
+public class TorusGeometry {
+	private static final double AXIS_TOLERANCE = 1.0E-12;
+	
+	private final double radius;
+	private final double thickness;
+	private final DoubleVector center;
+	private final DoubleVector direction;
+	private final double magnitude;
+	
+	/**
+	 * Creates the geometry of a torus
+	 * @param radius distance from center of torus to center of ring
+	 * @param thickness distance from center of ring to edge of ring
+	 * @param center center point of torus
+	 * @param direction vector along central axis of torus
+	 * @param magnitude magnitude of current flow within torus
+	 */
+	public TorusGeometry(double radius, double thickness, DoubleVector center, DoubleVector direction,
+			double magnitude) {
+		this.radius = radius;
+		this.thickness = thickness;
+		this.center = center;
+		this.direction = direction;
+		this.magnitude = magnitude;
+	}
+	
+	/**
+	 * Gets the distance from center of torus to center of ring
+	 */
+	public double getRadius() {
+		return radius;
+	}
+	
+	/**
+	 * Gets the distance from center of ring to edge of ring
+	 */
+	public double getThickness() {
+		return thickness;
+	}
+	
+	/**
+	 * Gets the center point of the torus
+	 */
+	public DoubleVector getCenter() {
+		return center;
+	}
+	
+	/**
+	 * Gets the vector along the central axis of the torus
+	 */
+	public DoubleVector getDirection() {
+		return direction;
+	}
+	
+	/**
+	 * Gets the magnitude of current flow within the torus
+	 */
+	public double getMagnitude() {
+		return magnitude;
+	}
+	
+	/**
+	 * Checks whether the central axis passes through the origin. The current density is direction x p
+	 * for the absolute position p, so it only circulates about the axis when the axis passes through
+	 * the origin, and otherwise has a uniform part as well.
+	 */
+	public boolean isCenteredOnAxis() {
+		return center.crossProduct(direction).norm() <= AXIS_TOLERANCE * center.norm() * direction.norm();
+	}
+	
+	/**
+	 * Gets the volume enclosed by the torus
+	 */
+	public double getVolume() {
+		return 2 * Math.PI * Math.PI * radius * thickness * thickness;
+	}
+	
+	@Override
+	public String toString() {
+		return "Torus radius " + radius + ", thickness " + thickness + ", center " + center 
+				+ ", direction " + direction + ", magnitude " + magnitude;
+	}
+}
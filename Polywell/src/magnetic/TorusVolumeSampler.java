@@ -0,0 +1,184 @@
+package magnetic;
+
+import integration.IntegrationResult;
+import integration.RunningStatistics;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import utilities.DoubleVector;
+import utilities.RigidTransform;
+
+/**
+ * Integrates the Biot-Savart law over current densities made up of tori by drawing sample points
+ * directly inside each torus rather than over a bounding box. Points are drawn in local toroidal
+ * coordinates, with distance from the center of the ring r, poloidal angle theta and toroidal angle
+ * phi, where the volume element is r (R + r cos(theta)) dr dtheta dphi for a torus of radius R.
+ * Drawing r with density proportional to r and both angles uniformly leaves a weight of
+ * 2 pi^2 a^2 (R + r cos(theta)) for a torus of thickness a, so every sample contributes.
+ * @author Ryan Dewey
+ */
+final class TorusVolumeSampler {
+	private final TorusDensityFunction[] tori;
+	private final RigidTransform[] toWorld;
+	
+	private TorusVolumeSampler(TorusDensityFunction[] tori) {
+		this.tori = tori;
+		toWorld = new RigidTransform[tori.length];
+		for (int i = 0; i < tori.length; i++) {
+			toWorld[i] = tori[i].getToLocal().inverse();
+		}
+	}
+	
+	/**
+	 * Creates a sampler for the given current density
+	 * @param j current density to integrate over
+	 * @return sampler for j, or null if j is not made up entirely of tori
+	 */
+	static TorusVolumeSampler create(CurrentDensityFunction j) {
+		List<CurrentDensityFunction> terms = j.getTerms();
+		TorusDensityFunction[] tori = new TorusDensityFunction[terms.size()];
+		for (int i = 0; i < tori.length; i++) {
+			if (!(terms.get(i) instanceof TorusDensityFunction)) {
+				return null;
+			}
+			tori[i] = (TorusDensityFunction) terms.get(i);
+		}
+		return new TorusVolumeSampler(tori);
+	}
+	
+	/**
+	 * Integrates the Biot-Savart law for the field at (fx, fy, fz). The samples are shared between the
+	 * tori in proportion to their volume and the integral over each torus is estimated separately.
+	 * @param runs total number of sample points
+	 * @param random source of random numbers
+	 * @return field at the given point with its standard error
+	 */
+	IntegrationResult integrate(double fx, double fy, double fz, int runs, SplittableRandom random) {
+		double[] value = new double[3];
+		double[] variance = new double[3];
+		long samples = 0;
+		for (int t = 0; t < tori.length; t++) {
+			int n = getRuns(t, runs);
+			RunningStatistics statistics = sampleTorus(t, fx, fy, fz, n, random);
+			for (int i = 0; i < 3; i++) {
+				value[i] += statistics.getMean(i);
+				variance[i] += statistics.getVariance(i) / statistics.getCount();
+			}
+			samples += n;
+		}
+		for (int i = 0; i < 3; i++) {
+			variance[i] = Math.sqrt(variance[i]);
+		}
+		return new IntegrationResult(new DoubleVector(value), new DoubleVector(variance), samples);
+	}
+	
+	/**
+	 * Samples the current density inside the tori into point sources, shared between the tori in
+	 * proportion to their volume
+	 * @param runs total number of sample points
+	 * @param random source of random numbers
+	 * @return sources describing the current
+	 */
+	SourceElements sampleSources(int runs, SplittableRandom random) {
+		SourceElements.Builder builder = new SourceElements.Builder(runs);
+		for (int t = 0; t < tori.length; t++) {
+			int n = getRuns(t, runs);
+			int size = Math.min(TorusBiotSavartKernel.BLOCK_SIZE, n);
+			double[] x = new double[size];
+			double[] y = new double[size];
+			double[] z = new double[size];
+			double[] weight = new double[size];
+			double[] resultX = new double[size];
+			double[] resultY = new double[size];
+			double[] resultZ = new double[size];
+			for (int num = 0; num < n; num += size) {
+				int count = Math.min(size, n - num);
+				fillPoints(t, count, random, x, y, z, weight);
+				tori[t].applyBatch(x, y, z, count, resultX, resultY, resultZ);
+				for (int i = 0; i < count; i++) {
+					double scale = weight[i] / n;
+					builder.add(x[i], y[i], z[i], resultX[i] * scale, resultY[i] * scale, resultZ[i] * scale);
+				}
+			}
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * Gets the number of the given total sample points to use in one torus
+	 * @param t index of the torus
+	 */
+	private int getRuns(int t, int runs) {
+		double totalVolume = 0;
+		for (TorusDensityFunction torus : tori) {
+			totalVolume += torus.getGeometry().getVolume();
+		}
+		return Math.max(2, (int) Math.round(runs * tori[t].getGeometry().getVolume() / totalVolume));
+	}
+	
+	/**
+	 * Samples the weighted Biot-Savart integrand at points inside one torus
+	 * @param t index of the torus
+	 * @param runs number of sample points
+	 * @param random source of random numbers
+	 * @return statistics of the weighted samples, whose mean estimates the integral over the torus
+	 */
+	private RunningStatistics sampleTorus(int t, double fx, double fy, double fz, int runs, 
+			SplittableRandom random) {
+		int size = Math.min(TorusBiotSavartKernel.BLOCK_SIZE, runs);
+		double[] x = new double[size];
+		double[] y = new double[size];
+		double[] z = new double[size];
+		double[] weight = new double[size];
+		double[] resultX = new double[size];
+		double[] resultY = new double[size];
+		double[] resultZ = new double[size];
+		double[] u = new double[size];
+		double[] v = new double[size];
+		double[] w = new double[size];
+		RunningStatistics statistics = new RunningStatistics();
+		for (int num = 0; num < runs; num += size) {
+			int n = Math.min(size, runs - num);
+			fillPoints(t, n, random, x, y, z, weight);
+			tori[t].applyBatch(x, y, z, n, resultX, resultY, resultZ);
+			for (int i = 0; i < n; i++) {
+				resultX[i] *= weight[i];
+				resultY[i] *= weight[i];
+				resultZ[i] *= weight[i];
+			}
+			TorusBiotSavartKernel.crossDisplacement(fx, fy, fz, x, y, z, 0, n, resultX, resultY, resultZ, 
+					u, v, w);
+			statistics.addBatch(resultX, resultY, resultZ, n);
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Draws random points inside one torus
+	 * @param t index of the torus
+	 * @param n number of points to draw
+	 * @param random source of random numbers
+	 * @param weight array to store the inverse of the density of each point in
+	 */
+	private void fillPoints(int t, int n, SplittableRandom random, double[] x, double[] y, double[] z, 
+			double[] weight) {
+		RigidTransform transform = toWorld[t];
+		double radius = tori[t].getGeometry().getRadius();
+		double thickness = tori[t].getGeometry().getThickness();
+		double weightScale = 2 * Math.PI * Math.PI * thickness * thickness;
+		for (int i = 0; i < n; i++) {
+			double r = thickness * Math.sqrt(random.nextDouble());
+			double theta = 2 * Math.PI * random.nextDouble();
+			double phi = 2 * Math.PI * random.nextDouble();
+			double ringDist = radius + r * Math.cos(theta);
+			double localX = ringDist * Math.cos(phi);
+			double localY = ringDist * Math.sin(phi);
+			double localZ = r * Math.sin(theta);
+			x[i] = transform.applyX(localX, localY, localZ);
+			y[i] = transform.applyY(localX, localY, localZ);
+			z[i] = transform.applyZ(localX, localY, localZ);
+			weight[i] = weightScale * ringDist;
+		}
+	}
+}
@@ -1,17 +1,24 @@
 package test.integration;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 
+import integration.IntegrationResult;
 import integration.Integrator;
 import utilities.DoubleVector;
 import utilities.Pair;
+import utilities.Vec3;
+import utilities.Vec3BatchFunction;
+import utilities.Vec3Function;
 
 public class IntegratorTest {
 	
@@ -42,6 +49,44 @@ public class IntegratorTest {
 		};
 	}
 
+	public Vec3Function getVec3SquareFunction() {
+		return new Vec3Function() {
+			@Override
+			public void apply(double x, double y, double z, Vec3 result) {
+				result.set(x * x, y * y, z * z);
+			}
+		};
+	}
+	
+	public Vec3BatchFunction getVec3BatchSquareFunction() {
+		final Vec3Function f = getVec3SquareFunction();
+		return new Vec3BatchFunction() {
+			@Override
+			public void apply(double x, double y, double z, Vec3 result) {
+				f.apply(x, y, z, result);
+			}
+			
+			@Override
+			public void applyBatch(double[] x, double[] y, double[] z, int n, 
+					double[] resultX, double[] resultY, double[] resultZ) {
+				for (int i = 0; i < n; i++) {
+					resultX[i] = x[i] * x[i];
+					resultY[i] = y[i] * y[i];
+					resultZ[i] = z[i] * z[i];
+				}
+			}
+		};
+	}
+	
+	private List<Pair<Double, Double>> getCubeRanges() {
+		Pair<Double, Double> range = Pair.<Double, Double>of(0.0,2.0);
+		ArrayList<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList();
+		ranges.add(range);
+		ranges.add(range);
+		ranges.add(range);
+		return ranges;
+	}
+
 	@Test
 	public void test1DSquareTrap() {
 		Function<DoubleVector, DoubleVector> f = getSquareFunction();
@@ -154,6 +199,134 @@ public class IntegratorTest {
 		assertTrue(new DoubleVector(40960.0/3.0).equals(val, accuracy * 1000));
 	}
 	
+	@Test
+	public void test3DVectorMC() {
+		double accuracy = 1.0E-1;
+		DoubleVector val = Integrator.integrateMonteCarlo3D(getVec3SquareFunction(), getCubeRanges(), 1000000);
+		System.out.println("Actual value: " + val + "\nExpected value: [10.666666..., 10.666666..., 10.666666...]\n");
+		
+		assertTrue(new DoubleVector(32.0/3.0, 32.0/3.0, 32.0/3.0).equals(val, accuracy));
+	}
+	
+	@Test
+	public void test3DVectorBatchMC() {
+		double accuracy = 1.0E-1;
+		DoubleVector val = Integrator.integrateMonteCarlo3D(getVec3BatchSquareFunction(), getCubeRanges(), 
+				1000000);
+		System.out.println("Actual value: " + val + "\nExpected value: [10.666666..., 10.666666..., 10.666666...]\n");
+		
+		assertTrue(new DoubleVector(32.0/3.0, 32.0/3.0, 32.0/3.0).equals(val, accuracy));
+	}
+	
+	@Test
+	public void test3DVectorParallelMC() {
+		double accuracy = 1.0E-1;
+		DoubleVector val = Integrator.integrateMonteCarloParallel(getVec3BatchSquareFunction(), getCubeRanges(), 
+				1000000, 4, 42);
+		System.out.println("Actual value: " + val + "\nExpected value: [10.666666..., 10.666666..., 10.666666...]\n");
+		
+		assertTrue(new DoubleVector(32.0/3.0, 32.0/3.0, 32.0/3.0).equals(val, accuracy));
+	}
+	
+	@Test
+	public void testParallelMCReproducible() {
+		DoubleVector a = Integrator.integrateMonteCarloParallel(getVec3SquareFunction(), getCubeRanges(), 
+				10000, 3, 42);
+		DoubleVector b = Integrator.integrateMonteCarloParallel(getVec3SquareFunction(), getCubeRanges(), 
+				10000, 3, 42);
+		DoubleVector c = Integrator.integrateMonteCarloParallel(getVec3SquareFunction(), getCubeRanges(), 
+				10000, 3, 43);
+		assertEquals(a.getValues(), b.getValues());
+		assertNotEquals(a.getValues(), c.getValues());
+	}
+	
+	@Test
+	public void test3DVectorQMC() {
+		IntegrationResult result = Integrator.integrateQuasiMonteCarlo(getVec3BatchSquareFunction(), 
+				getCubeRanges(), 1 << 16, 8, 42);
+		System.out.println("Actual value: " + result + "\nExpected value: [10.666666..., 10.666666..., 10.666666...]\n");
+		
+		assertTrue(new DoubleVector(32.0/3.0, 32.0/3.0, 32.0/3.0).equals(result.getValue(), 1.0E-2));
+		assertTrue(result.getStandardError().max() < 1.0E-2);
+		assertEquals(1 << 16, result.getSamples());
+	}
+	
+	@Test
+	public void test3DVectorAdaptiveMC() {
+		IntegrationResult result = Integrator.integrateMonteCarloAdaptive(getVec3BatchSquareFunction(), 
+				getCubeRanges(), 0, 1.0E-2, 1000, 10000000, 42);
+		System.out.println("Actual value: " + result + "\nExpected value: [10.666666..., 10.666666..., 10.666666...]\n");
+		
+		assertTrue(new DoubleVector(32.0/3.0, 32.0/3.0, 32.0/3.0).equals(result.getValue(), 0.5));
+		assertTrue(result.getStandardError().norm() <= 1.0E-2 * result.getValue().norm());
+		assertTrue(result.getSamples() < 10000000);
+	}
+	
+	@Test
+	public void test3DVectorAdaptiveMCLimit() {
+		IntegrationResult result = Integrator.integrateMonteCarloAdaptive(getVec3BatchSquareFunction(), 
+				getCubeRanges(), 0, 0, 1000, 5000, 42);
+		
+		assertEquals(5000, result.getSamples());
+	}
+	
+	@Test
+	public void test3DVectorAdaptiveMCSparse() {
+		// Nonzero only in a ball of radius 0.03, which the first 1000 points are unlikely to hit
+		Vec3Function ball = new Vec3Function() {
+			@Override
+			public void apply(double x, double y, double z, Vec3 result) {
+				double r2 = (x - 0.5) * (x - 0.5) + (y - 0.5) * (y - 0.5) + (z - 0.5) * (z - 0.5);
+				result.set(r2 < 0.0009 ? 1 : 0, 0, 0);
+			}
+		};
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(0.0, 1.0), Pair.of(0.0, 1.0), Pair.of(0.0, 1.0));
+		IntegrationResult result = Integrator.integrateMonteCarloAdaptive(ball, ranges, 0, 0.2, 1000, 
+				10000000, 42);
+		System.out.println("Actual value: " + result + "\nExpected value: [0.000113097, 0, 0]\n");
+		
+		assertTrue(result.getSamples() > 1000);
+		assertEquals(4 * Math.PI / 3 * 2.7E-5, result.getValue().getValue(0), 4.0E-5);
+		assertTrue(result.getStandardError().norm() <= 0.2 * result.getValue().norm());
+	}
+	
+	@Test
+	public void testVectorVegas() {
+		Pair<Double, Double> range = Pair.<Double, Double>of(0.0,2.0);
+		ArrayList<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList();
+		ranges.add(range);
+		ranges.add(range);
+		IntegrationResult result = Integrator.integrateVegas(getVectorFunction(), ranges, 10000, 5, 4, 42);
+		System.out.println("Actual value: " + result + "\nExpected value: [8.0, 8.0]\n");
+		
+		assertTrue(new DoubleVector(8.0, 8.0).equals(result.getValue(), 1.0E-1));
+		assertEquals(50000, result.getSamples());
+	}
+	
+	@Test
+	public void testPeakedVegas() {
+		final double sigma = 0.05;
+		Function<DoubleVector, DoubleVector> f = new Function<DoubleVector, DoubleVector>() {
+			@Override
+			public DoubleVector apply(DoubleVector x) {
+				double r = x.subtract(new DoubleVector(0.5, 0.5, 0.5)).norm();
+				return new DoubleVector(Math.exp(-r * r / (2 * sigma * sigma)));
+			}
+		};
+		ArrayList<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList();
+		for (int i = 0; i < 3; i++) {
+			ranges.add(Pair.<Double, Double>of(0.0, 1.0));
+		}
+		double expected = Math.pow(sigma * Math.sqrt(2 * Math.PI), 3);
+		IntegrationResult result = Integrator.integrateVegas(f, ranges, 20000, 10, 4, 42);
+		System.out.println("Actual value: " + result + "\nExpected value: [" + expected + "]\n");
+		
+		assertEquals(expected, result.getValue().getValue(0), 0.02 * expected);
+		assertTrue(result.getStandardError().getValue(0) < 0.005 * expected);
+		assertEquals(result.getValue(), Integrator.integrateVegas(f, ranges, 20000, 10, 4, 42).getValue());
+	}
+	
 	@Test
 	public void testVectorTrap() {
 		Function<DoubleVector, DoubleVector> f = getVectorFunction();
@@ -168,6 +341,32 @@ public class IntegratorTest {
 		assertTrue(new DoubleVector(8.0, 8.0).equals(val, accuracy));
 	}
 	
+	@Test
+	public void testRomberg() {
+		final int[] evaluations = new int[1];
+		Function<DoubleVector, DoubleVector> f = new Function<DoubleVector, DoubleVector>() {
+			@Override
+			public DoubleVector apply(DoubleVector x) {
+				evaluations[0]++;
+				return new DoubleVector(Math.sin(x.getValue(0)) * Math.cos(x.getValue(1)), 
+						Math.exp(x.getValue(0) + x.getValue(1)));
+			}
+		};
+		Pair<Double, Double> range = Pair.<Double, Double>of(0.0, Math.PI / 2);
+		ArrayList<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList();
+		ranges.add(range);
+		ranges.add(range);
+		double accuracy = 1.0E-8;
+		DoubleVector val = Integrator.integrateRomberg(f, ranges, accuracy);
+		double expected = Math.pow(Math.exp(Math.PI / 2) - 1, 2);
+		System.out.println("Actual value: " + val + "\nExpected value: [1.0, " + expected + "]\n");
+		
+		assertEquals(1.0, val.getValue(0), 1.0E-7);
+		assertEquals(expected, val.getValue(1), 1.0E-7);
+		// Nested grids reuse every point, 129 x 129 points is 7 levels
+		assertTrue(evaluations[0] <= 129 * 129);
+	}
+	
 	@Test
 	public void testRandomInRange() {
 		DoubleVector min = new DoubleVector(-5.0, -5.0, -5.0, -5.0, -5.0);
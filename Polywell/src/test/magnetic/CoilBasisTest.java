@@ -0,0 +1,131 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import magnetic.CoilBasis;
+import magnetic.CurrentDensityFunction;
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldLattice;
+import magnetic.FilamentField;
+import magnetic.MagneticField;
+import magnetic.TorusGeometry;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class CoilBasisTest {
+	
+	private File getFile() throws IOException {
+		File file = File.createTempFile("basis", "");
+		file.delete();
+		for (int i = 0; i < 6; i++) {
+			new File(file.getPath() + " coil" + i + ".field").deleteOnExit();
+		}
+		return file;
+	}
+	
+	private MagneticField getField(File file, double radius, double magnitude) {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(radius, 1.0, magnitude);
+		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-4.0, 4.0), Pair.of(-4.0, 4.0), Pair.of(-4.0, 4.0));
+		field.setLattice(FieldLattice.fromRanges(ranges, 5));
+		return field;
+	}
+	
+	@Test
+	public void superpositionTest() throws IOException {
+		MagneticField field = getField(getFile(), 5.0, 2.0);
+		field.setThreads(3);
+		CoilBasis basis = new CoilBasis(field);
+		assertEquals(6, basis.getCoilCount());
+		assertFalse(basis.isComplete());
+		assertEquals(6 * 125, basis.precompute(2));
+		assertTrue(basis.isComplete());
+		
+		// The basis at the magnitudes of the field gives the field
+		FieldLattice combined = basis.combine(basis.getMagnitudes());
+		FieldLattice lattice = field.getLattice();
+		for (int i = 0; i < lattice.getSize(); i++) {
+			DoubleVector expected = field.getField(lattice.getPoint(i));
+			assertTrue(expected.equals(combined.get(i), 1.0E-12 * Math.max(1, expected.norm())));
+		}
+		
+		// An unbalanced configuration is the weighted sum of the coils
+		double[] magnitudes = {1.0, 0, -3.0, 0, 0, 0.5};
+		combined = basis.combine(magnitudes);
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getCubicPolywellGeometry(5.0, 1.0, 1.0);
+		for (int i = 0; i < lattice.getSize(); i += 7) {
+			DoubleVector expected = new DoubleVector(0, 0, 0);
+			for (int c = 0; c < magnitudes.length; c++) {
+				expected = expected.add(FilamentField.create(ImmutableList.of(tori.get(c)))
+						.apply(lattice.getPoint(i)).multiply(magnitudes[c]));
+			}
+			assertTrue(expected.equals(combined.get(i), 1.0E-12 * Math.max(1, expected.norm())));
+		}
+	}
+	
+	@Test
+	public void repeatedTest() throws IOException {
+		MagneticField field = getField(getFile(), 5.0, 1.0);
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-4.0, 4.0), Pair.of(-4.0, 4.0), Pair.of(-4.0, 4.0));
+		field.setLattice(FieldLattice.fromRanges(ranges, 11));
+		field.setThreads(3);
+		CoilBasis basis = new CoilBasis(field);
+		basis.precompute(1);
+		
+		// A sweep sums large enough lattices in parallel on the same pool each time
+		for (int step = 0; step < 10; step++) {
+			double[] magnitudes = new double[6];
+			for (int c = 0; c < magnitudes.length; c++) {
+				magnitudes[c] = step - c;
+			}
+			FieldLattice combined = basis.combine(magnitudes);
+			for (int i = 0; i < combined.getSize(); i++) {
+				DoubleVector expected = new DoubleVector(0, 0, 0);
+				for (int c = 0; c < magnitudes.length; c++) {
+					expected = expected.add(basis.getCoilField(c).getLattice().get(i).multiply(magnitudes[c]));
+				}
+				assertTrue(expected.equals(combined.get(i), 1.0E-12 * Math.max(1, expected.norm())));
+			}
+		}
+	}
+	
+	@Test
+	public void storedTest() throws IOException {
+		File file = getFile();
+		MagneticField field = getField(file, 5.0, 1.0);
+		new CoilBasis(field).precompute(1);
+		
+		// A second basis on the same file loads the stored coils
+		CoilBasis loaded = new CoilBasis(field);
+		assertTrue(loaded.isComplete());
+		assertEquals(0, loaded.precompute(1));
+		assertTrue(loaded.combine(new double[6]).isComplete());
+		
+		// Other settings compute the coils again
+		field.setFilamentBundle(2, 8);
+		CoilBasis bundle = new CoilBasis(field);
+		assertFalse(bundle.isComplete());
+		assertEquals(6 * 125, bundle.precompute(1));
+		
+		// So do other coils stored under the same name
+		MagneticField moved = getField(file, 4.0, 1.0);
+		moved.setFilamentBundle(2, 8);
+		assertFalse(new CoilBasis(moved).isComplete());
+	}
+}
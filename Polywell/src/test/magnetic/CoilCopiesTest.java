@@ -0,0 +1,230 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import magnetic.CoilCopies;
+import magnetic.CurrentDensityFunction;
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldFile;
+import magnetic.FieldLattice;
+import magnetic.FilamentField;
+import magnetic.MagneticField;
+import magnetic.TorusGeometry;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+import utilities.Vec3Function;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class CoilCopiesTest {
+	
+	private List<DoubleVector> getPoints() {
+		return Lists.<DoubleVector>newArrayList(new DoubleVector(0, 0, 0), new DoubleVector(1.0, 2.0, 0.5), 
+				new DoubleVector(-2.0, 1.0, 1.5), new DoubleVector(3.0, -4.0, 4.5), new DoubleVector(-9.0, 2.0, 1.0));
+	}
+	
+	@Test
+	public void closedFormTest() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		MagneticField separate = new MagneticField(polywell.getA(), polywell.getB(), "test");
+		separate.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		separate.setFilamentBundle(2, 8);
+		MagneticField copies = new MagneticField(polywell.getA(), polywell.getB(), "test");
+		copies.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		copies.setFilamentBundle(2, 8);
+		copies.setCoilReuse(2);
+		
+		CoilCopies coils = copies.getCoilCopies();
+		assertEquals(1, coils.getReferenceCount());
+		assertEquals(6, coils.getCopyCount());
+		for (DoubleVector point : getPoints()) {
+			DoubleVector expected = separate.getField(point);
+			assertTrue(expected.equals(copies.getField(point), 1.0E-12 * Math.max(1, expected.norm())));
+		}
+	}
+	
+	@Test
+	public void offAxisTest() {
+		// The current direction x p of a torus whose axis misses the origin does not circulate about it
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = CurrentDensityFunctionFactory
+				.getTorusDensityFunction(4.0, 1.0, new DoubleVector(4.0, 1.0, 0.0), new DoubleVector(1.0, 1.0, 1.0), 1.0);
+		MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		try {
+			field.setCoilReuse(17);
+			fail("Off axis torus accepted");
+		} catch (IllegalArgumentException e) {}
+		assertEquals(0, field.getCoilPoints());
+		try {
+			CoilCopies.create(CurrentDensityFunctionFactory.getTorusGeometry(temp.getA()), 
+					new Function<TorusGeometry, Vec3Function>() {
+						@Override
+						public Vec3Function apply(TorusGeometry torus) {
+							return FilamentField.create(ImmutableList.of(torus));
+						}
+					});
+			fail("Off axis torus accepted");
+		} catch (IllegalArgumentException e) {}
+	}
+	
+	@Test
+	public void rangesTest() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getTorusGeometry(polywell.getA());
+		// Off center, so that no single half width would fit it tightly
+		FieldLattice lattice = FieldLattice.fromRanges(Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-12.0, 8.0), Pair.of(-10.0, 10.0), Pair.of(-3.0, 11.0)), 5);
+		List<Pair<Double, Double>> ranges = CoilCopies.getLocalRanges(tori, lattice);
+		
+		// Every lattice point seen from every torus lies in the reference lattice, which is no larger
+		// than needed along the axis and no wider than the furthest point from the axis
+		double below = Double.POSITIVE_INFINITY;
+		double above = Double.NEGATIVE_INFINITY;
+		double across = 0;
+		for (TorusGeometry torus : tori) {
+			DoubleVector axis = torus.getDirection().normalize();
+			for (int i = 0; i < lattice.getSize(); i++) {
+				DoubleVector offset = lattice.getPoint(i).subtract(torus.getCenter());
+				double along = offset.dotProduct(axis);
+				below = Math.min(below, along);
+				above = Math.max(above, along);
+				across = Math.max(across, offset.subtract(axis.multiply(along)).norm());
+			}
+		}
+		assertEquals(below, ranges.get(2).getA(), 1.0E-6);
+		assertEquals(above, ranges.get(2).getB(), 1.0E-6);
+		for (int d = 0; d < 2; d++) {
+			assertTrue(-across - 1.0E-6 <= ranges.get(d).getA() && ranges.get(d).getB() <= across + 1.0E-6);
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void noLatticeTest() throws IOException {
+		File file = File.createTempFile("copies", "");
+		file.delete();
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		MagneticField copies = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		copies.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		copies.setCoilReuse(17);
+		copies.getCoilCopies();
+	}
+	
+	@Test
+	public void staleReferenceTest() throws IOException {
+		File file = File.createTempFile("copies", "");
+		file.delete();
+		File reference = new File(file.getPath() + " reference0.field");
+		reference.deleteOnExit();
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		FieldLattice lattice = FieldLattice.fromRanges(Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-1.0, 1.0), Pair.of(-1.0, 1.0), Pair.of(-1.0, 1.0)), 2);
+		MagneticField first = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		first.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		first.setIterations(100);
+		first.setLattice(lattice);
+		first.setCoilReuse(3);
+		first.getCoilCopies();
+		String settings = FieldFile.read(reference).getSettings();
+		
+		// The same settings load the stored reference
+		MagneticField same = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		same.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		same.setIterations(100);
+		same.setLattice(lattice);
+		same.setCoilReuse(3);
+		long modified = reference.lastModified();
+		assertTrue(reference.setLastModified(modified - 10000));
+		same.getCoilCopies();
+		assertEquals(modified - 10000, reference.lastModified());
+		
+		// Other settings compute it again
+		MagneticField other = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		other.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		other.setIterations(200);
+		other.setLattice(lattice);
+		other.setCoilReuse(3);
+		other.getCoilCopies();
+		assertTrue(FieldFile.read(reference).getSettings().contains("iterations=200"));
+		assertFalse(settings.equals(FieldFile.read(reference).getSettings()));
+	}
+	
+	@Test
+	public void latticeTest() throws IOException, InterruptedException {
+		File file = File.createTempFile("copies", "");
+		file.delete();
+		new File(file.getPath() + " reference0.field").deleteOnExit();
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		MagneticField copies = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		copies.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		copies.setIterations(20000);
+		copies.setLattice(FieldLattice.fromRanges(Lists.<Pair<Double, Double>>newArrayList(Pair.of(-9.5, 9.5), 
+				Pair.of(-9.5, 9.5), Pair.of(-9.5, 9.5)), 2));
+		copies.setCoilReuse(25);
+		MagneticField filament = new MagneticField(polywell.getA(), polywell.getB(), "test");
+		filament.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		filament.setFilamentBundle(4, 16);
+		List<DoubleVector> expected = filament.getFields(getPoints());
+		List<DoubleVector> actual = copies.getFields(getPoints());
+		System.out.println(actual + "\n" + expected);
+		
+		// The reference torus is computed once and stored
+		assertEquals(1, copies.getCoilCopies().getReferenceCount());
+		assertTrue(new File(file.getPath() + " reference0.field").exists());
+		for (int i = 0; i < expected.size(); i++) {
+			assertTrue(expected.get(i).equals(actual.get(i), 0.15 * Math.max(1, expected.get(i).norm())));
+		}
+		
+		// Each thread interpolates the reference with its own cell
+		final CoilCopies coils = copies.getCoilCopies();
+		final List<DoubleVector> points = Lists.<DoubleVector>newArrayList();
+		final List<DoubleVector> sequential = Lists.<DoubleVector>newArrayList();
+		for (int i = 0; i < 500; i++) {
+			points.add(new DoubleVector(-0.9 + 0.13 * ((i * 7) % 15), -0.9 + 0.13 * ((i * 3) % 15), 
+					-0.9 + 0.13 * (i % 15)));
+			sequential.add(coils.apply(points.get(i)));
+		}
+		final List<Throwable> failures = Collections.synchronizedList(Lists.<Throwable>newArrayList());
+		List<Thread> workers = Lists.<Thread>newArrayList();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t;
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < points.size(); i++) {
+							int index = (i * 11 + offset * 97) % points.size();
+							assertEquals(sequential.get(index), coils.apply(points.get(index)));
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			});
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(Collections.<Throwable>emptyList(), failures);
+	}
+}
@@ -0,0 +1,59 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import magnetic.ConvolutionSolver;
+import magnetic.CurrentDensityFunction;
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldLattice;
+import magnetic.MagneticField;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+
+import com.google.common.collect.Lists;
+
+public class ConvolutionSolverTest {
+	
+	@Test
+	public void torusCenterTest() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus = CurrentDensityFunctionFactory
+				.getTorusDensityFunction(5.0, 1.0, new DoubleVector(0, 0, 0), new DoubleVector(0, 0, 1), 2.0);
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-2.0, 2.0), Pair.of(-2.0, 2.0), Pair.of(-2.0, 2.0));
+		FieldLattice lattice = FieldLattice.fromRanges(ranges, 9);
+		ConvolutionSolver solver = new ConvolutionSolver(torus.getA(), torus.getB());
+		solver.setRefinement(2);
+		solver.solve(lattice);
+		
+		assertTrue(lattice.isComplete());
+		DoubleVector center = lattice.get(lattice.findIndex(0, 0, 0));
+		System.out.println(center);
+		assertEquals(0, center.getValue(0), 1.0E-9);
+		assertEquals(0, center.getValue(1), 1.0E-9);
+		assertEquals(7.85, center.getValue(2), 0.1);
+	}
+	
+	@Test
+	public void polywellTest() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-3.0, 3.0), Pair.of(-3.0, 3.0), Pair.of(-3.0, 3.0));
+		FieldLattice lattice = FieldLattice.fromRanges(ranges, 7);
+		new ConvolutionSolver(polywell.getA(), polywell.getB()).solve(lattice);
+		
+		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), "none");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		field.setFilamentBundle(4, 16);
+		for (int i = 0; i < lattice.getSize(); i += 5) {
+			DoubleVector expected = field.getField(lattice.getPoint(i));
+			assertTrue(expected.equals(lattice.get(i), 0.15));
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import magnetic.CubicSymmetry;
+import magnetic.CurrentDensityFunction;
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldFile;
+import magnetic.FieldLattice;
+import magnetic.FilamentField;
+import magnetic.GridPrecomputer;
+import magnetic.MagneticField;
+import magnetic.TorusGeometry;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+import utilities.Vec3;
+
+import com.google.common.collect.Lists;
+
+public class CubicSymmetryTest {
+	
+	private FieldLattice getLattice(int points) {
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-9.0, 9.0), Pair.of(-9.0, 9.0), Pair.of(-9.0, 9.0));
+		return FieldLattice.fromRanges(ranges, points);
+	}
+	
+	@Test
+	public void polywellTest() {
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getCubicPolywellGeometry(5, 1, 2);
+		CubicSymmetry symmetry = CubicSymmetry.detect(tori);
+		FilamentField field = FilamentField.create(tori);
+		Random random = new Random(3);
+		Vec3 image = new Vec3();
+		for (int i = 0; i < 500; i++) {
+			DoubleVector p = new DoubleVector(random.nextGaussian() * 6, random.nextGaussian() * 6, 
+					random.nextGaussian() * 6);
+			int op = symmetry.reduce(p.getValue(0), p.getValue(1), p.getValue(2), image);
+			assertTrue(image.getX() >= image.getY() && image.getY() >= image.getZ() && image.getZ() >= 0);
+			assertTrue(field.apply(p).equals(symmetry.expand(op, field.apply(image.toDoubleVector())), 1.0E-12));
+		}
+	}
+	
+	@Test
+	public void asymmetricTest() {
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getCubicPolywellGeometry(5, 1, 2);
+		assertNull(CubicSymmetry.detect(tori.subList(0, 5)));
+		assertNull(CubicSymmetry.detect(tori.subList(0, 2)));
+		// Reversing one coil breaks the symmetry
+		List<TorusGeometry> reversed = Lists.<TorusGeometry>newArrayList(tori);
+		TorusGeometry torus = tori.get(0);
+		reversed.set(0, new TorusGeometry(torus.getRadius(), torus.getThickness(), torus.getCenter(), 
+				torus.getDirection(), -torus.getMagnitude()));
+		assertNull(CubicSymmetry.detect(reversed));
+		// A shifted polywell has symmetric geometry, but its axes miss the origin
+		List<TorusGeometry> shifted = Lists.<TorusGeometry>newArrayList();
+		for (TorusGeometry coil : tori) {
+			shifted.add(new TorusGeometry(coil.getRadius(), coil.getThickness(), 
+					coil.getCenter().add(new DoubleVector(1, 2, 3)), coil.getDirection(), coil.getMagnitude()));
+		}
+		assertNull(CubicSymmetry.detect(shifted));
+	}
+	
+	@Test
+	public void fillTest() {
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getCubicPolywellGeometry(5, 1, 2);
+		CubicSymmetry symmetry = CubicSymmetry.detect(tori);
+		FilamentField field = FilamentField.create(tori);
+		FieldLattice lattice = getLattice(9);
+		assertTrue(symmetry.fits(lattice));
+		int[] wedge = CubicSymmetry.getWedgeIndices(lattice);
+		// Five distinct distances from the center on each axis
+		assertEquals(35, wedge.length);
+		for (int index : wedge) {
+			DoubleVector b = field.apply(lattice.getPoint(index));
+			lattice.set(index, b.getValue(0), b.getValue(1), b.getValue(2));
+		}
+		symmetry.fill(lattice);
+		assertTrue(lattice.isComplete());
+		for (int index = 0; index < lattice.getSize(); index++) {
+			assertTrue(field.apply(lattice.getPoint(index)).equals(lattice.get(index), 1.0E-12));
+		}
+	}
+	
+	@Test
+	public void precomputeTest() throws IOException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5, 1, 2);
+		File file = File.createTempFile("symmetric", "");
+		file.delete();
+		new File(file.getPath() + ".field").deleteOnExit();
+		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		field.setSymmetry(true);
+		field.setLattice(getLattice(8));
+		assertEquals(20, new GridPrecomputer(field, new File(file.getPath() + ".journal")).run());
+		assertTrue(field.getLattice().isComplete());
+		
+		FieldFile stored = FieldFile.read(new File(file.getPath() + ".field"));
+		assertTrue(stored.isSymmetric());
+		FieldLattice lattice = stored.getLattice();
+		assertTrue(lattice.isComplete());
+		FilamentField filament = field.getFilamentField();
+		for (int index = 0; index < lattice.getSize(); index += 7) {
+			assertTrue(filament.apply(lattice.getPoint(index)).equals(lattice.get(index), 1.0E-12));
+		}
+	}
+	
+	@Test
+	public void magneticFieldTest() throws IOException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5, 1, 2);
+		File file = File.createTempFile("symmetric", "");
+		file.delete();
+		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), file.getPath());
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		field.setSymmetry(true);
+		List<DoubleVector> coords = Lists.<DoubleVector>newArrayList(new DoubleVector(1, 2, 3), 
+				new DoubleVector(-3, 1, -2), new DoubleVector(2, -3, 1), new DoubleVector(4, 0.5, -7));
+		List<DoubleVector> fields = field.getFields(coords);
+		// Only the images in the wedge are kept
+		assertEquals(2, field.getResults().size());
+		for (int i = 0; i < coords.size(); i++) {
+			DoubleVector expected = field.getFilamentField().apply(coords.get(i));
+			assertTrue(expected.equals(fields.get(i), 1.0E-12));
+			assertTrue(expected.equals(field.getField(coords.get(i)), 1.0E-12));
+		}
+		assertEquals(0, field.getCacheStats().loadCount());
+	}
+}
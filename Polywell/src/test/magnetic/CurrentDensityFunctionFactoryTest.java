@@ -1,13 +1,16 @@
 package test.magnetic;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import com.google.common.base.Function;
 
+import magnetic.CurrentDensityFunction;
 import magnetic.CurrentDensityFunctionFactory;
 import utilities.DoubleVector;
+import utilities.Vec3;
 
 public class CurrentDensityFunctionFactoryTest {
 	
@@ -39,6 +42,43 @@ public class CurrentDensityFunctionFactoryTest {
 		assertTrue(f.apply(new DoubleVector(0.0, 5.0, 0.0)).norm() == 0);
 	}
 	
+	@Test
+	public void testPrimitiveApply() {
+		CurrentDensityFunction f = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(4.0, 0.5, 5.0).getA();
+		Vec3 result = new Vec3();
+		for (double x = -5; x < 5; x += 0.25) {
+			for (double y = -5; y < 5; y += 0.25) {
+				DoubleVector coord = new DoubleVector(x, y, 0.2);
+				f.apply(x, y, 0.2, result);
+				assertEquals(f.apply(coord), result.toDoubleVector());
+			}
+		}
+	}
+	
+	@Test
+	public void testBatchApply() {
+		CurrentDensityFunction f = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(4.0, 0.5, 5.0).getA();
+		int n = 1600;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] z = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = -5 + 0.25 * (i % 40);
+			y[i] = -5 + 0.25 * (i / 40);
+			z[i] = 0.2;
+		}
+		double[] resultX = new double[n];
+		double[] resultY = new double[n];
+		double[] resultZ = new double[n];
+		f.applyBatch(x, y, z, n, resultX, resultY, resultZ);
+		for (int i = 0; i < n; i++) {
+			assertEquals(f.apply(new DoubleVector(x[i], y[i], z[i])), 
+					new DoubleVector(resultX[i], resultY[i], resultZ[i]));
+		}
+	}
+	
 	@Test
 	public void testCubicPolywellFunctionTime() {
 		//System.out.println(Runtime.getRuntime().maxMemory());
@@ -0,0 +1,107 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldFile;
+import magnetic.FieldLattice;
+import magnetic.TorusGeometry;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+
+import com.google.common.collect.Lists;
+
+public class FieldFileTest {
+	
+	@Test
+	public void roundTripTest() throws IOException {
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-2.0, 2.0), Pair.of(0.0, 1.0), Pair.of(-1.0, 3.0));
+		FieldLattice lattice = FieldLattice.fromRanges(ranges, 5);
+		for (int i = 0; i < lattice.getSize(); i += 2) {
+			lattice.set(i, i, -i, 0.5 * i);
+		}
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getCubicPolywellGeometry(5, 1, 2);
+		File file = File.createTempFile("roundTrip", ".field");
+		file.deleteOnExit();
+		new FieldFile(lattice, tori, 1000).write(file);
+		
+		assertTrue(FieldFile.isBinary(file));
+		FieldFile read = FieldFile.read(file);
+		assertEquals(1000, read.getSamples());
+		assertEquals(6, read.getTori().size());
+		assertEquals(tori.get(3).getCenter(), read.getTori().get(3).getCenter());
+		assertEquals(tori.get(3).getDirection(), read.getTori().get(3).getDirection());
+		FieldLattice copy = read.getLattice();
+		assertEquals(lattice.getSize(), copy.getSize());
+		assertEquals(lattice.getComputedCount(), copy.getComputedCount());
+		for (int d = 0; d < 3; d++) {
+			assertEquals(lattice.getOrigin(d), copy.getOrigin(d), 0);
+			assertEquals(lattice.getSpacing(d), copy.getSpacing(d), 0);
+			assertEquals(lattice.getDimension(d), copy.getDimension(d));
+		}
+		assertFalse(copy.isComputed(1));
+		assertEquals(new DoubleVector(4, -4, 2), copy.get(4));
+	}
+	
+	@Test
+	public void settingsTest() throws IOException {
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-2.0, 2.0), Pair.of(-2.0, 2.0), Pair.of(-2.0, 2.0));
+		FieldLattice lattice = FieldLattice.fromRanges(ranges, 3);
+		List<TorusGeometry> tori = CurrentDensityFunctionFactory.getCubicPolywellGeometry(5, 1, 2);
+		File file = File.createTempFile("settings", ".field");
+		file.deleteOnExit();
+		new FieldFile(lattice, tori, 1000, true, "FILAMENT bundle=2x8").write(file);
+		
+		FieldFile read = FieldFile.read(file);
+		assertEquals("FILAMENT bundle=2x8", read.getSettings());
+		assertTrue(read.matches(tori, "FILAMENT bundle=2x8"));
+		assertFalse(read.matches(tori, "FILAMENT bundle=4x16"));
+		assertFalse(read.matches(CurrentDensityFunctionFactory.getCubicPolywellGeometry(5, 0.5, 2), 
+				"FILAMENT bundle=2x8"));
+		assertFalse(read.matches(tori.subList(0, 5), "FILAMENT bundle=2x8"));
+		
+		// Files without settings match nothing
+		new FieldFile(lattice, tori, 1000).write(file);
+		read = FieldFile.read(file);
+		assertNull(read.getSettings());
+		assertFalse(read.matches(tori, null));
+		assertEquals(lattice.getSize(), read.getLattice().getSize());
+	}
+	
+	@Test
+	public void convertTest() throws IOException {
+		File text = File.createTempFile("convert", ".txt");
+		text.deleteOnExit();
+		PrintWriter out = new PrintWriter(text);
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < 3; j++) {
+				for (int k = 0; k < 2; k++) {
+					out.println(i + " " + 0.5 * j + " " + k + " " + i + " " + j + " " + k);
+				}
+			}
+		}
+		out.close();
+		assertFalse(FieldFile.isBinary(text));
+		assertEquals(12, FieldFile.readText(text).size());
+		
+		File binary = File.createTempFile("convert", ".field");
+		binary.deleteOnExit();
+		FieldFile.convert(text, binary, Lists.<TorusGeometry>newArrayList(), 0);
+		FieldLattice lattice = FieldFile.read(binary).getLattice();
+		assertTrue(lattice.isComplete());
+		assertEquals(new DoubleVector(1, 2, 0), lattice.get(lattice.findIndex(1, 1, 0)));
+	}
+}
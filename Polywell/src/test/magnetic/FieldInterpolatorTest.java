@@ -0,0 +1,114 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+
+import magnetic.CurrentDensityFunction;
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldInterpolator;
+import magnetic.FieldLattice;
+import magnetic.MagneticField;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+
+import com.google.common.collect.Maps;
+
+public class FieldInterpolatorTest {
+	
+	/**
+	 * Field with no divergence, (cos(y), cos(z), cos(x))
+	 */
+	private DoubleVector getSmoothField(double x, double y, double z) {
+		return new DoubleVector(Math.cos(y), Math.cos(z), Math.cos(x));
+	}
+	
+	/**
+	 * Field with no divergence, (2x + y, z - x, y - 2z)
+	 */
+	private DoubleVector getLinearField(double x, double y, double z) {
+		return new DoubleVector(2 * x + y, z - x, y - 2 * z);
+	}
+	
+	/**
+	 * Gets points of an 11 x 11 x 11 grid from -1 to 1, with coordinates accumulated by adding the
+	 * grid width as MagneticFieldPrecomputer does
+	 */
+	private HashMap<DoubleVector, DoubleVector> getGrid(boolean linear) {
+		HashMap<DoubleVector, DoubleVector> points = Maps.<DoubleVector, DoubleVector>newHashMap();
+		for (double x = -1; x <= 1.0001; x += 0.2) {
+			for (double y = -1; y <= 1.0001; y += 0.2) {
+				for (double z = -1; z <= 1.0001; z += 0.2) {
+					points.put(new DoubleVector(x, y, z), linear ? getLinearField(x, y, z) : getSmoothField(x, y, z));
+				}
+			}
+		}
+		return points;
+	}
+	
+	@Test
+	public void linearTest() {
+		for (FieldInterpolator.Mode mode : FieldInterpolator.Mode.values()) {
+			FieldInterpolator interpolator = new FieldInterpolator(mode, FieldLattice.fromPoints(getGrid(true)));
+			Vec3 result = new Vec3();
+			for (double t = -1; t <= 1; t += 0.037) {
+				double x = t;
+				double y = 0.9 * t * t;
+				double z = -0.7 * t;
+				interpolator.apply(x, y, z, result);
+				assertTrue(getLinearField(x, y, z).equals(result.toDoubleVector(), 1.0E-9));
+			}
+		}
+	}
+	
+	@Test
+	public void smoothTest() {
+		FieldLattice lattice = FieldLattice.fromPoints(getGrid(false));
+		FieldInterpolator trilinear = new FieldInterpolator(FieldInterpolator.Mode.TRILINEAR, lattice);
+		FieldInterpolator tricubic = new FieldInterpolator(FieldInterpolator.Mode.TRICUBIC, lattice);
+		double trilinearError = 0;
+		double tricubicError = 0;
+		for (double t = -0.95; t <= 0.95; t += 0.013) {
+			DoubleVector point = new DoubleVector(t, Math.sin(3 * t), 0.5 * t + 0.1);
+			DoubleVector expected = getSmoothField(point.getValue(0), point.getValue(1), point.getValue(2));
+			trilinearError = Math.max(trilinearError, trilinear.apply(point).subtract(expected).abs().max());
+			tricubicError = Math.max(tricubicError, tricubic.apply(point).subtract(expected).abs().max());
+		}
+		System.out.println("Trilinear error: " + trilinearError + "\nTricubic error: " + tricubicError + "\n");
+		
+		assertTrue(trilinearError < 1.0E-2);
+		assertTrue(tricubicError < 1.0E-3);
+		assertTrue(tricubicError < trilinearError / 5);
+	}
+	
+	@Test
+	public void outsideTest() {
+		FieldInterpolator interpolator = new FieldInterpolator(FieldInterpolator.Mode.TRILINEAR, 
+				FieldLattice.fromPoints(getGrid(true)));
+		assertTrue(interpolator.contains(1, -1, 0));
+		assertFalse(interpolator.contains(1.1, 0, 0));
+		try {
+			interpolator.apply(new DoubleVector(0, 0, -1.1));
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+	
+	@Test
+	public void magneticFieldTest() {
+		CurrentDensityFunction j = CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0).getA();
+		MagneticField field = new MagneticField(j, null, "test");
+		field.clear();
+		field.setLattice(FieldLattice.fromPoints(getGrid(true)));
+		field.setInterpolation(FieldInterpolator.Mode.TRICUBIC);
+		DoubleVector point = new DoubleVector(0.13, -0.41, 0.77);
+		
+		assertTrue(getLinearField(0.13, -0.41, 0.77).equals(field.getField(point), 1.0E-9));
+		assertEquals(1331, field.getResults().size());
+	}
+}
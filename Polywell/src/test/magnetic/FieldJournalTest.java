@@ -0,0 +1,106 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import magnetic.FieldJournal;
+import magnetic.FieldLattice;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+
+import com.google.common.collect.Lists;
+
+public class FieldJournalTest {
+	
+	private FieldLattice getLattice(int points) {
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-1.0, 1.0), Pair.of(-1.0, 1.0), Pair.of(-1.0, 1.0));
+		return FieldLattice.fromRanges(ranges, points);
+	}
+	
+	private File getFile() throws IOException {
+		File file = File.createTempFile("journal", ".journal");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+	
+	@Test
+	public void replayTest() throws IOException {
+		File file = getFile();
+		FieldJournal journal = new FieldJournal(file, getLattice(5), 4);
+		for (int i = 0; i < 10; i++) {
+			journal.append(i * 3, i, 2 * i, -i);
+		}
+		journal.close();
+		
+		FieldLattice lattice = getLattice(5);
+		assertEquals(10, FieldJournal.replay(file, lattice));
+		assertEquals(10, lattice.getComputedCount());
+		assertEquals(new DoubleVector(7, 14, -7), lattice.get(21));
+		assertFalse(lattice.isComputed(22));
+		
+		// Appending after reopening keeps the earlier records
+		journal = new FieldJournal(file, lattice, 4);
+		journal.append(1, 1, 1, 1);
+		journal.close();
+		assertEquals(11, FieldJournal.replay(file, getLattice(5)));
+	}
+	
+	@Test
+	public void tornRecordTest() throws IOException {
+		File file = getFile();
+		FieldJournal journal = new FieldJournal(file, getLattice(5), 8);
+		for (int i = 0; i < 5; i++) {
+			journal.append(i, i, i, i);
+		}
+		journal.close();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.setLength(raw.length() - 3);
+		raw.close();
+		assertEquals(4, FieldJournal.replay(file, getLattice(5)));
+		
+		// The torn record is dropped when the journal is reopened
+		journal = new FieldJournal(file, getLattice(5), 8);
+		journal.append(10, 1, 2, 3);
+		journal.close();
+		FieldLattice lattice = getLattice(5);
+		assertEquals(5, FieldJournal.replay(file, lattice));
+		assertTrue(lattice.isComputed(10));
+		assertFalse(lattice.isComputed(4));
+	}
+	
+	@Test
+	public void resetTest() throws IOException {
+		File file = getFile();
+		FieldJournal journal = new FieldJournal(file, getLattice(5), 2);
+		journal.append(0, 1, 1, 1);
+		journal.append(1, 1, 1, 1);
+		journal.reset();
+		journal.append(2, 1, 1, 1);
+		journal.close();
+		FieldLattice lattice = getLattice(5);
+		assertEquals(1, FieldJournal.replay(file, lattice));
+		assertTrue(lattice.isComputed(2));
+	}
+	
+	@Test
+	public void otherLatticeTest() throws IOException {
+		File file = getFile();
+		new FieldJournal(file, getLattice(5), 2).close();
+		try {
+			FieldJournal.replay(file, getLattice(6));
+			fail("Replayed journal into a different lattice");
+		} catch (IOException e) {}
+	}
+}
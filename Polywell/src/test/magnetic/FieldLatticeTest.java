@@ -0,0 +1,76 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+
+import magnetic.FieldLattice;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+import utilities.Vec3;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class FieldLatticeTest {
+	
+	private FieldLattice getLattice() {
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-2.0, 2.0), Pair.of(0.0, 1.0), Pair.of(-1.0, 3.0));
+		return FieldLattice.fromRanges(ranges, 11);
+	}
+	
+	@Test
+	public void findIndexTest() {
+		FieldLattice lattice = getLattice();
+		assertEquals(1331, lattice.getSize());
+		assertEquals(lattice.getIndex(0, 0, 0), lattice.findIndex(-2, 0, -1));
+		assertEquals(lattice.getIndex(10, 10, 10), lattice.findIndex(2, 1, 3));
+		// Coordinates accumulated by adding the spacing still find their lattice point
+		double x = -2;
+		for (int i = 0; i < 7; i++) {
+			x += 0.4;
+		}
+		assertEquals(lattice.getIndex(7, 5, 2), lattice.findIndex(x, 0.5, -0.2));
+		assertEquals(-1, lattice.findIndex(0.1, 0.5, 0));
+		assertEquals(-1, lattice.findIndex(2.4, 0.5, 0));
+		assertEquals(new DoubleVector(0.8, 0.5, -0.2), lattice.getPoint(lattice.getIndex(7, 5, 2)));
+	}
+	
+	@Test
+	public void setTest() {
+		FieldLattice lattice = getLattice();
+		int index = lattice.getIndex(3, 4, 5);
+		assertFalse(lattice.isComputed(index));
+		assertNull(lattice.get(index));
+		lattice.set(index, 1, 2, 3);
+		lattice.set(index, 4, 5, 6);
+		assertTrue(lattice.isComputed(index));
+		assertEquals(1, lattice.getComputedCount());
+		assertEquals(new DoubleVector(4, 5, 6), lattice.get(index));
+		assertEquals(new DoubleVector(4, 5, 6), lattice.get(index, new Vec3()).toDoubleVector());
+	}
+	
+	@Test
+	public void fromPointsTest() {
+		HashMap<DoubleVector, DoubleVector> points = Maps.<DoubleVector, DoubleVector>newHashMap();
+		for (double x = 0; x <= 1.0001; x += 0.1) {
+			for (double y = 0; y <= 1.0001; y += 0.5) {
+				points.put(new DoubleVector(x, y, 7), new DoubleVector(x, y, -x));
+			}
+		}
+		FieldLattice lattice = FieldLattice.fromPoints(points);
+		assertEquals(11, lattice.getDimension(0));
+		assertEquals(3, lattice.getDimension(1));
+		assertEquals(1, lattice.getDimension(2));
+		assertTrue(lattice.isComplete());
+		assertEquals(new DoubleVector(0.3, 1, -0.3), lattice.get(lattice.findIndex(0.3, 1, 7)));
+	}
+}
@@ -0,0 +1,121 @@
+package test.magnetic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import magnetic.CurrentDensityFunction;
+import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldJournal;
+import magnetic.FieldLattice;
+import magnetic.GridPrecomputer;
+import magnetic.MagneticField;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Pair;
+
+import com.google.common.collect.Lists;
+
+public class GridPrecomputerTest {
+	
+	private String getFilename() throws IOException {
+		File file = File.createTempFile("precompute", "");
+		file.delete();
+		new File(file.getPath() + ".field").deleteOnExit();
+		return file.getPath();
+	}
+	
+	private FieldLattice getLattice(double extent) {
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-extent, extent), Pair.of(-extent, extent), Pair.of(-extent, extent));
+		return FieldLattice.fromRanges(ranges, 5);
+	}
+	
+	@Test
+	public void filamentTest() throws IOException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5, 1, 2);
+		String filename = getFilename();
+		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), filename);
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		field.setLattice(getLattice(8));
+		File journal = new File(filename + ".journal");
+		GridPrecomputer precomputer = new GridPrecomputer(field, journal);
+		precomputer.setThreads(2);
+		precomputer.setUnitSize(7);
+		precomputer.setCompactInterval(3);
+		assertEquals(125, precomputer.run());
+		assertFalse(journal.exists());
+		
+		MagneticField loaded = new MagneticField(polywell.getA(), polywell.getB(), filename);
+		FieldLattice lattice = loaded.getLattice();
+		assertTrue(lattice.isComplete());
+		for (int i = 0; i < lattice.getSize(); i += 11) {
+			DoubleVector expected = field.getFilamentField().apply(lattice.getPoint(i));
+			assertEquals(expected, lattice.get(i));
+		}
+	}
+	
+	@Test
+	public void resumeTest() throws IOException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5, 1, 2);
+		String filename = getFilename();
+		MagneticField field = new MagneticField(polywell.getA(), polywell.getB(), filename);
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		field.setLattice(getLattice(8));
+		File journal = new File(filename + ".journal");
+		FieldJournal previous = new FieldJournal(journal, field.getLattice(), 4);
+		for (int i = 0; i < 10; i++) {
+			previous.append(i, 1, 2, 3);
+		}
+		previous.close();
+		
+		assertEquals(115, new GridPrecomputer(field, journal).run());
+		assertTrue(field.getLattice().isComplete());
+		assertEquals(new DoubleVector(1, 2, 3), field.getLattice().get(9));
+	}
+	
+	@Test
+	public void sampledTest() throws IOException {
+		DoubleVector center = new DoubleVector(0, 0, 0);
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus = CurrentDensityFunctionFactory
+				.getTorusDensityFunction(5, 1, center, new DoubleVector(0, 0, 1), 2);
+		MagneticField field = new MagneticField(torus.getA(), torus.getB(), getFilename());
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		field.setIterations(20000);
+		field.setLattice(getLattice(2));
+		GridPrecomputer precomputer = new GridPrecomputer(field, File.createTempFile("sampled", ".journal"));
+		precomputer.setThreads(3);
+		assertEquals(125, precomputer.run());
+		DoubleVector b = field.getFieldLoaded(center);
+		assertEquals(0, b.getValue(0), 5.0E-2);
+		assertEquals(0, b.getValue(1), 5.0E-2);
+		assertEquals(7.85, b.getValue(2), 1.0E-1);
+	}
+	
+	@Test
+	public void treeTest() throws IOException {
+		DoubleVector center = new DoubleVector(0, 0, 0);
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus = CurrentDensityFunctionFactory
+				.getTorusDensityFunction(5, 1, center, new DoubleVector(0, 0, 1), 2);
+		MagneticField field = new MagneticField(torus.getA(), torus.getB(), getFilename());
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		field.setIterations(20000);
+		field.setTreeOpeningAngle(0.5);
+		field.setLattice(getLattice(2));
+		GridPrecomputer precomputer = new GridPrecomputer(field, File.createTempFile("tree", ".journal"));
+		precomputer.setThreads(2);
+		assertEquals(125, precomputer.run());
+		DoubleVector b = field.getFieldLoaded(center);
+		assertEquals(0, b.getValue(0), 5.0E-2);
+		assertEquals(0, b.getValue(1), 5.0E-2);
+		assertEquals(7.85, b.getValue(2), 1.0E-1);
+	}
+}
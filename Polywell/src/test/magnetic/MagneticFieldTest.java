@@ -1,19 +1,29 @@
 package test.magnetic;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
+import magnetic.BiotSavartFunction;
 import magnetic.CurrentDensityFunction;
 import magnetic.CurrentDensityFunctionFactory;
+import magnetic.FieldInterpolator;
+import magnetic.FieldLattice;
+import magnetic.FilamentField;
 import magnetic.MagneticField;
+import magnetic.SegmentField;
 
 import org.junit.Test;
 
 import utilities.DoubleVector;
 import utilities.Pair;
+import utilities.Vec3;
+
+import com.google.common.collect.Lists;
 
 public class MagneticFieldTest {
 	
@@ -38,6 +48,236 @@ public class MagneticFieldTest {
 		System.out.println(center);
 	}
 	
+	@Test
+	public void testTorusVolume() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		field.setIterations(20000);
+		DoubleVector center = field.getField(new DoubleVector(0, 0, 0));
+		System.out.println(center);
+		
+		assertEquals(0, center.getValue(0), 1.0E-2);
+		assertEquals(0, center.getValue(1), 1.0E-2);
+		assertEquals(7.85, center.getValue(2), 5.0E-2);
+	}
+	
+	@Test
+	public void testTorusVolumePolywell() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		assertEquals(6, CurrentDensityFunctionFactory.getTorusGeometry(temp.getA()).size());
+		DoubleVector point = new DoubleVector(1.0, 2.0, 0.5);
+		MagneticField sampled = new MagneticField(temp.getA(), temp.getB(), "test");
+		sampled.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		sampled.setIterations(100000);
+		MagneticField box = new MagneticField(temp.getA(), temp.getB(), "test");
+		box.setIntegrationMethod(MagneticField.IntegrationMethod.QUASI_MONTE_CARLO);
+		box.setIterations(1 << 21);
+		DoubleVector expected = box.getField(point);
+		DoubleVector actual = sampled.getField(point);
+		System.out.println(actual + "\n" + expected);
+		
+		assertTrue(expected.equals(actual, 0.1));
+	}
+	
+	@Test
+	public void testGetFields() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		List<DoubleVector> coords = Lists.<DoubleVector>newArrayList(new DoubleVector(0, 0, 0), 
+				new DoubleVector(0, 0, 2), new DoubleVector(1, 1, -1));
+		MagneticField box = new MagneticField(temp.getA(), temp.getB(), "test");
+		box.setThreads(2);
+		box.setIterations(400000);
+		MagneticField torus = new MagneticField(temp.getA(), temp.getB(), "test");
+		torus.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		torus.setIterations(100000);
+		List<DoubleVector> boxFields = box.getFields(coords);
+		List<DoubleVector> torusFields = torus.getFields(coords);
+		System.out.println(boxFields + "\n" + torusFields);
+		
+		assertEquals(7.85, boxFields.get(0).getValue(2), 0.2);
+		for (int i = 0; i < coords.size(); i++) {
+			assertTrue(boxFields.get(i).equals(torusFields.get(i), 0.2));
+			assertTrue(boxFields.get(i) == box.getField(coords.get(i)));
+		}
+	}
+	
+	@Test
+	public void testFilamentCenter() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		DoubleVector center = field.getField(new DoubleVector(0, 0, 0));
+		System.out.println(center);
+		
+		// Field of a single loop carrying the current 2 * pi through the cross section
+		double current = 2.0 * Math.PI;
+		assertTrue(new DoubleVector(0, 0, 2 * Math.PI * current / 5.0).equals(center, 1.0E-12));
+		// On axis the field is 2 pi I a^2 / (a^2 + z^2)^(3/2)
+		DoubleVector axis = field.getField(new DoubleVector(0, 0, 3));
+		assertEquals(2 * Math.PI * current * 25 / Math.pow(34, 1.5), axis.getValue(2), 1.0E-12);
+		assertEquals(0, axis.getValue(0), 1.0E-12);
+	}
+	
+	@Test
+	public void testFilamentOffAxis() {
+		// The current direction x p of a torus whose axis misses the origin does not circulate about it
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = CurrentDensityFunctionFactory
+				.getTorusDensityFunction(4.0, 1.0, new DoubleVector(4.0, 1.0, 0.0), new DoubleVector(1.0, 1.0, 1.0), 1.0);
+		MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		try {
+			field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+			fail("Off axis torus accepted");
+		} catch (IllegalArgumentException e) {}
+		assertEquals(MagneticField.IntegrationMethod.MONTE_CARLO, field.getIntegrationMethod());
+		try {
+			FilamentField.create(CurrentDensityFunctionFactory.getTorusGeometry(temp.getA()));
+			fail("Off axis torus accepted");
+		} catch (IllegalArgumentException e) {}
+		try {
+			field.setIntegrationMethod(MagneticField.IntegrationMethod.SEGMENTS);
+			fail("Off axis torus accepted");
+		} catch (IllegalArgumentException e) {}
+		try {
+			SegmentField.create(CurrentDensityFunctionFactory.getTorusGeometry(temp.getA()), 16, 0, 0);
+			fail("Off axis torus accepted");
+		} catch (IllegalArgumentException e) {}
+	}
+	
+	@Test
+	public void testFilamentPolywell() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		MagneticField sampled = new MagneticField(temp.getA(), temp.getB(), "test");
+		sampled.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		sampled.setIterations(400000);
+		sampled.setSeed(42);
+		MagneticField filament = new MagneticField(temp.getA(), temp.getB(), "test");
+		filament.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		filament.setFilamentBundle(4, 16);
+		List<DoubleVector> coords = Lists.<DoubleVector>newArrayList(new DoubleVector(0, 0, 0), 
+				new DoubleVector(1.0, 2.0, 0.5), new DoubleVector(3.0, -4.0, 4.5), new DoubleVector(-9.0, 2.0, 1.0));
+		List<DoubleVector> expected = sampled.getFields(coords);
+		List<DoubleVector> actual = filament.getFields(coords);
+		System.out.println(actual + "\n" + expected);
+		
+		assertTrue(new DoubleVector(0, 0, 0).equals(actual.get(0), 1.0E-12));
+		for (int i = 0; i < coords.size(); i++) {
+			assertTrue(expected.get(i).equals(actual.get(i), 0.1));
+		}
+	}
+	
+	@Test
+	public void testSegments() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		MagneticField square = new MagneticField(temp.getA(), temp.getB(), "test");
+		square.setIntegrationMethod(MagneticField.IntegrationMethod.SEGMENTS);
+		square.setSegments(4);
+		DoubleVector center = square.getField(new DoubleVector(0, 0, 0));
+		
+		// Each side of a square of circumradius R gives sqrt(2) I / (R / sqrt(2)) at its center, and the
+		// square has the area of the circle of radius 5
+		double current = 2.0 * Math.PI;
+		double circumradius = 5.0 * Math.sqrt(Math.PI / 2);
+		assertTrue(new DoubleVector(0, 0, 8 * current / circumradius).equals(center, 1.0E-12));
+		
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> polywell = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		MagneticField filament = new MagneticField(polywell.getA(), polywell.getB(), "test");
+		filament.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		filament.setFilamentBundle(4, 16);
+		MagneticField segments = new MagneticField(polywell.getA(), polywell.getB(), "test");
+		segments.setIntegrationMethod(MagneticField.IntegrationMethod.SEGMENTS);
+		segments.setFilamentBundle(4, 16);
+		List<DoubleVector> coords = Lists.<DoubleVector>newArrayList(new DoubleVector(0, 0, 0), 
+				new DoubleVector(1.0, 2.0, 0.5), new DoubleVector(3.0, -4.0, 4.5), new DoubleVector(-9.0, 2.0, 1.0));
+		List<DoubleVector> expected = filament.getFields(coords);
+		List<DoubleVector> actual = segments.getFields(coords);
+		System.out.println(actual + "\n" + expected);
+		
+		assertEquals(256 * 6 * 64, segments.getSegmentField().getSegmentCount() 
+				* segments.getSegmentField().getPolygonCount());
+		assertTrue(new DoubleVector(0, 0, 0).equals(actual.get(0), 1.0E-12));
+		for (int i = 1; i < coords.size(); i++) {
+			double scale = expected.get(i).norm();
+			assertTrue(expected.get(i).equals(actual.get(i), 1.0E-3 * scale));
+		}
+	}
+	
+	@Test
+	public void testTreecode() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = 
+				CurrentDensityFunctionFactory.getCubicPolywellFunction(5.0, 1.0, 2.0);
+		List<DoubleVector> coords = Lists.<DoubleVector>newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			coords.add(new DoubleVector(-9.0 + 0.018 * i, 8.0 - 0.017 * (i % 100) * 10, -7.5 + 0.015 * i));
+		}
+		MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		field.setIterations(100000);
+		field.setThreads(2);
+		field.setTreeOpeningAngle(0.5);
+		field.getFields(coords);
+		double error = field.getTreeError();
+		field.clear();
+		field.setTreeOpeningAngle(0.25);
+		field.getFields(coords);
+		System.out.println(error + " " + field.getTreeError());
+		
+		assertTrue(error > 0);
+		assertTrue(error < 2.0E-2);
+		assertTrue(field.getTreeError() < error);
+		
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> torus = getTorusFlat0();
+		MagneticField center = new MagneticField(torus.getA(), torus.getB(), "test");
+		center.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		center.setIterations(100000);
+		center.setTreeOpeningAngle(0.5);
+		DoubleVector b = center.getFields(Lists.<DoubleVector>newArrayList(new DoubleVector(0, 0, 0))).get(0);
+		assertEquals(7.85, b.getValue(2), 0.1);
+		assertEquals(0, center.getTreeError(), 1.0E-2);
+	}
+	
+	@Test
+	public void testBiotSavartBatch() {
+		checkBiotSavartBatch(CurrentDensityFunctionFactory.getCubicPolywellFunction(4.0, 0.5, 1.0).getA(),
+				new DoubleVector(4.6, 3.8, 0.1), new DoubleVector(0.0005, -0.006, 0));
+		double step = 0.0016 / Math.sqrt(2);
+		checkBiotSavartBatch(CurrentDensityFunctionFactory.getTorusDensityFunction(4.0, 1.0, 
+				new DoubleVector(4.0, 1.0, 0.0), new DoubleVector(1.0, 1.0, 1.0), 1.0).getA(),
+				new DoubleVector(4.0 + 3.2 / Math.sqrt(2), 1.0 - 3.2 / Math.sqrt(2), 0), 
+				new DoubleVector(step, -step, 0));
+	}
+	
+	private void checkBiotSavartBatch(CurrentDensityFunction j, DoubleVector start, DoubleVector step) {
+		BiotSavartFunction f = new BiotSavartFunction(j, new DoubleVector(0.5, -1, 2));
+		// Not a multiple of the block size or of any SIMD width
+		int n = 1003;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] z = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = start.getValue(0) + step.getValue(0) * i;
+			y[i] = start.getValue(1) + step.getValue(1) * i;
+			z[i] = start.getValue(2) + step.getValue(2) * i;
+		}
+		double[] resultX = new double[n];
+		double[] resultY = new double[n];
+		double[] resultZ = new double[n];
+		f.applyBatch(x, y, z, n, resultX, resultY, resultZ);
+		Vec3 expected = new Vec3();
+		int nonZero = 0;
+		for (int i = 0; i < n; i++) {
+			f.apply(x[i], y[i], z[i], expected);
+			assertEquals(expected.toDoubleVector(), new DoubleVector(resultX[i], resultY[i], resultZ[i]));
+			if (expected.norm() > 0) {
+				nonZero++;
+			}
+		}
+		assertTrue(nonZero > 0);
+	}
+	
 	@Test
 	public void testReadWrite() {
 		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
@@ -64,4 +304,137 @@ public class MagneticFieldTest {
 		assertEquals(new DoubleVector(1, 2, 3), readField.getField(new DoubleVector(1, 2, 3)));
 		assertEquals(new DoubleVector(6, 6, 6), readField.getField(new DoubleVector(1, 2, 4)));
 	}
+	
+	@Test
+	public void testConcurrentCache() throws InterruptedException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		final MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.clear();
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		field.setIterations(20000);
+		final DoubleVector coord = new DoubleVector(0.5, 0.25, 0.125);
+		final List<DoubleVector> fields = Collections.synchronizedList(Lists.<DoubleVector>newArrayList());
+		List<Thread> workers = Lists.<Thread>newArrayList();
+		for (int i = 0; i < 8; i++) {
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					fields.add(field.getField(coord));
+				}
+			});
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		
+		// Every thread gets the same integration
+		assertEquals(8, fields.size());
+		for (DoubleVector b : fields) {
+			assertTrue(b == fields.get(0));
+		}
+		assertEquals(1, field.getCacheStats().loadCount());
+		assertEquals(8, field.getCacheStats().requestCount());
+	}
+	
+	@Test
+	public void testConcurrentLattice() throws InterruptedException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		final MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.TORUS_VOLUME);
+		field.setIterations(20000);
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-1.0, 1.0), Pair.of(-1.0, 1.0), Pair.of(-1.0, 1.0));
+		field.setLattice(FieldLattice.fromRanges(ranges, 3));
+		final DoubleVector coord = new DoubleVector(0, 0, 0);
+		final List<DoubleVector> fields = Collections.synchronizedList(Lists.<DoubleVector>newArrayList());
+		List<Thread> workers = Lists.<Thread>newArrayList();
+		for (int i = 0; i < 8; i++) {
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					fields.add(field.getField(coord));
+				}
+			});
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		
+		// The lattice point is integrated once, even by threads which looked before it was stored
+		assertEquals(8, fields.size());
+		for (DoubleVector b : fields) {
+			assertEquals(fields.get(0), b);
+		}
+		assertEquals(fields.get(0), field.getFieldLoaded(coord));
+	}
+	
+	@Test
+	public void testConcurrentInterpolation() throws InterruptedException {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		final MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		List<Pair<Double, Double>> ranges = Lists.<Pair<Double, Double>>newArrayList(
+				Pair.of(-3.0, 3.0), Pair.of(-3.0, 3.0), Pair.of(-3.0, 3.0));
+		FieldLattice lattice = FieldLattice.fromRanges(ranges, 7);
+		field.setLattice(lattice);
+		for (int i = 0; i < lattice.getSize(); i++) {
+			field.getField(lattice.getPoint(i));
+		}
+		field.setInterpolation(FieldInterpolator.Mode.TRICUBIC);
+		final FieldInterpolator expected = new FieldInterpolator(FieldInterpolator.Mode.TRICUBIC, lattice);
+		final List<Throwable> failures = Collections.synchronizedList(Lists.<Throwable>newArrayList());
+		List<Thread> workers = Lists.<Thread>newArrayList();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t;
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						FieldInterpolator own = expected.copy();
+						for (int i = 0; i < 2000; i++) {
+							// Jump between cells on every query
+							DoubleVector point = new DoubleVector(-2.9 + 0.37 * ((i * 7 + offset) % 16), 
+									-2.9 + 0.37 * ((i * 3) % 16), -2.9 + 0.37 * (i % 16));
+							assertEquals(own.apply(point), field.getField(point));
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			});
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		
+		assertEquals(Collections.<Throwable>emptyList(), failures);
+	}
+	
+	@Test
+	public void testCacheEviction() {
+		Pair<CurrentDensityFunction, List<Pair<Double, Double>>> temp = getTorusFlat0();
+		MagneticField field = new MagneticField(temp.getA(), temp.getB(), "test");
+		field.clear();
+		field.setIntegrationMethod(MagneticField.IntegrationMethod.FILAMENT);
+		field.setCacheSize(2);
+		DoubleVector first = field.getField(new DoubleVector(1, 0, 0));
+		field.getField(new DoubleVector(2, 0, 0));
+		assertTrue(first == field.getField(new DoubleVector(1, 0, 0)));
+		field.getField(new DoubleVector(3, 0, 0));
+		
+		// The least recently used point is evicted
+		assertEquals(1, field.getCacheStats().evictionCount());
+		assertEquals(2, field.getResults().size());
+		assertTrue(field.getFieldLoaded(new DoubleVector(2, 0, 0)) == null);
+		assertTrue(first == field.getFieldLoaded(new DoubleVector(1, 0, 0)));
+	}
 }
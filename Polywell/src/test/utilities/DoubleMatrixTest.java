@@ -171,4 +171,46 @@ public class DoubleMatrixTest {
 		System.out.println(rot);
 		assertEquals(b.normalize(), rot.multiply(a).normalize());
 	}
+	
+	@Test
+	public void getRotationMatrixOppositeTest() {
+		DoubleVector a = new DoubleVector(0, 0, -1);
+		DoubleVector b = new DoubleVector(0, 0, 1);
+		DoubleMatrix rot = DoubleMatrix.getRotationMatrix(a, b);
+		assertEquals(b, rot.multiply(a));
+		assertEquals(getIdentity(), rot.multiply(rot.transpose()));
+	}
+	
+	@Test
+	public void builderTest() {
+		DoubleMatrix.Builder builder = new DoubleMatrix.Builder(getA());
+		builder.setValue(0, 0, 0).addValue(1, 2, 1);
+		DoubleMatrix built = builder.build();
+		assertEquals(new DoubleVector(0, 2, 3, 4), built.getRow(0));
+		assertEquals(7, built.getValue(1, 2), DoubleMatrix.EPSILON);
+		assertEquals(new DoubleVector(1, 2, 3, 4), getA().getRow(0));
+		builder.setValue(2, 3, 0);
+		assertEquals(10, built.getValue(2, 3), DoubleMatrix.EPSILON);
+	}
+	
+	@Test
+	public void multiplyMatrixTest() {
+		DoubleMatrix a = getSmallA();
+		DoubleMatrix product = a.multiply(getA());
+		DoubleMatrix expectedResult = new DoubleMatrix(new DoubleVector(30, 36, 42, 48), 
+				new DoubleVector(66, 81, 96, 111), new DoubleVector(102, 126, 150, 174));
+		assertEquals(expectedResult, product);
+	}
+	
+	@Test
+	public void transposeTest() {
+		DoubleMatrix transpose = getA().transpose();
+		assertEquals(4, transpose.getRows());
+		assertEquals(3, transpose.getColumns());
+		assertEquals(new DoubleVector(1, 4, 7), transpose.getRow(0));
+	}
+	
+	private DoubleMatrix getIdentity() {
+		return new DoubleMatrix(new DoubleVector(1, 0, 0), new DoubleVector(0, 1, 0), new DoubleVector(0, 0, 1));
+	}
 }
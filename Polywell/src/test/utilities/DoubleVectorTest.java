@@ -293,4 +293,15 @@ public class DoubleVectorTest {
 		a = a.setValue(1, 8.0);
 		assertNotEquals(a, copy);
 	}
+	
+	@Test
+	public void toArrayTest() {
+		double[] values = new double[] {1, 2, 3};
+		DoubleVector a = new DoubleVector(values);
+		values[0] = 5;
+		assertEquals(getA(), a);
+		double[] copy = a.toArray();
+		copy[1] = 7;
+		assertEquals(getA(), a);
+	}
 }
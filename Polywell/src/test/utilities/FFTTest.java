@@ -0,0 +1,67 @@
+package test.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import utilities.FFT;
+
+public class FFTTest {
+	
+	@Test
+	public void dftTest() {
+		int n0 = 4;
+		int n1 = 2;
+		int n2 = 8;
+		int n = n0 * n1 * n2;
+		Random random = new Random(5);
+		double[] re = new double[n];
+		double[] im = new double[n];
+		for (int i = 0; i < n; i++) {
+			re[i] = random.nextGaussian();
+			im[i] = random.nextGaussian();
+		}
+		double[] transformRe = re.clone();
+		double[] transformIm = im.clone();
+		FFT.transform(transformRe, transformIm, n0, n1, n2, false);
+		
+		// Direct evaluation of the discrete Fourier transform
+		for (int a = 0; a < n0; a++) {
+			for (int b = 0; b < n1; b++) {
+				for (int c = 0; c < n2; c++) {
+					double sumRe = 0;
+					double sumIm = 0;
+					for (int i = 0; i < n0; i++) {
+						for (int j = 0; j < n1; j++) {
+							for (int k = 0; k < n2; k++) {
+								double angle = -2 * Math.PI * ((double) a * i / n0 + (double) b * j / n1 
+										+ (double) c * k / n2);
+								int index = (i * n1 + j) * n2 + k;
+								sumRe += re[index] * Math.cos(angle) - im[index] * Math.sin(angle);
+								sumIm += re[index] * Math.sin(angle) + im[index] * Math.cos(angle);
+							}
+						}
+					}
+					int index = (a * n1 + b) * n2 + c;
+					assertEquals(sumRe, transformRe[index], 1.0E-10);
+					assertEquals(sumIm, transformIm[index], 1.0E-10);
+				}
+			}
+		}
+		
+		FFT.transform(transformRe, transformIm, n0, n1, n2, true);
+		for (int i = 0; i < n; i++) {
+			assertEquals(re[i], transformRe[i], 1.0E-12);
+			assertEquals(im[i], transformIm[i], 1.0E-12);
+		}
+	}
+	
+	@Test
+	public void powerOfTwoTest() {
+		assertEquals(1, FFT.nextPowerOfTwo(1));
+		assertEquals(64, FFT.nextPowerOfTwo(33));
+		assertEquals(64, FFT.nextPowerOfTwo(64));
+	}
+}
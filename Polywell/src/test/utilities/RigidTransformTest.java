@@ -0,0 +1,53 @@
+package test.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import utilities.DoubleMatrix;
+import utilities.DoubleVector;
+import utilities.RigidTransform;
+import utilities.Vec3;
+
+public class RigidTransformTest {
+	
+	private RigidTransform getTransform() {
+		return RigidTransform.toLocalFrame(new DoubleVector(1, 2, 3), 
+				DoubleMatrix.getRotationMatrix(new DoubleVector(1, 1, 1), new DoubleVector(0, 0, 1)));
+	}
+	
+	@Test
+	public void toLocalFrameTest() {
+		RigidTransform t = getTransform();
+		assertEquals(new DoubleVector(0, 0, 0), t.apply(new DoubleVector(1, 2, 3)));
+		assertEquals(new DoubleVector(0, 0, Math.sqrt(3)), t.apply(new DoubleVector(2, 3, 4)));
+	}
+	
+	@Test
+	public void rawCoordinatesTest() {
+		RigidTransform t = getTransform();
+		DoubleVector p = new DoubleVector(-1, 0.5, 2);
+		Vec3 result = t.apply(-1, 0.5, 2, new Vec3());
+		assertEquals(t.apply(p), result.toDoubleVector());
+		assertEquals(t.getRotation().multiply(p).add(t.getTranslation()), result.toDoubleVector());
+	}
+	
+	@Test
+	public void inverseTest() {
+		RigidTransform t = getTransform();
+		DoubleVector p = new DoubleVector(-1, 0.5, 2);
+		Vec3 local = t.apply(-1, 0.5, 2, new Vec3());
+		assertEquals(p, t.applyInverse(local.getX(), local.getY(), local.getZ(), new Vec3()).toDoubleVector());
+		assertEquals(p, t.inverse().apply(t.apply(p)));
+	}
+	
+	@Test
+	public void composeTest() {
+		RigidTransform t = getTransform();
+		RigidTransform s = RigidTransform.toLocalFrame(new DoubleVector(0, 1, 0), 
+				DoubleMatrix.getRotationMatrix(new DoubleVector(1, 0, 0), new DoubleVector(0, 1, 0)));
+		DoubleVector p = new DoubleVector(-1, 0.5, 2);
+		assertEquals(t.apply(s.apply(p)), t.compose(s).apply(p));
+		assertEquals(1, t.compose(s).getDeterminant(), DoubleVector.EPSILON);
+	}
+}
@@ -0,0 +1,59 @@
+package test.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import utilities.DoubleVector;
+import utilities.Vec3;
+
+public class Vec3Test {
+	
+	private Vec3 getA() {
+		return new Vec3(1, 2, 3);
+	}
+	
+	@Test
+	public void addTest() {
+		Vec3 a = getA();
+		Vec3 sum = a.add(new Vec3(0, 1, 2));
+		assertSame(a, sum);
+		assertEquals(new DoubleVector(1, 3, 5), sum.toDoubleVector());
+	}
+	
+	@Test
+	public void subtractTest() {
+		Vec3 a = getA().subtract(new Vec3(0, 1, 2));
+		assertEquals(new DoubleVector(1, 1, 1), a.toDoubleVector());
+	}
+	
+	@Test
+	public void addScaledTest() {
+		Vec3 a = getA().addScaled(new Vec3(1, 1, 1), 2);
+		assertEquals(new DoubleVector(3, 4, 5), a.toDoubleVector());
+	}
+	
+	@Test
+	public void crossTest() {
+		Vec3 a = getA();
+		Vec3 b = new Vec3(3, 2, 4);
+		Vec3 cross = new Vec3().cross(a, b);
+		assertEquals(new DoubleVector(2, 5, -4), cross.toDoubleVector());
+		a.cross(a, b);
+		assertEquals(new DoubleVector(2, 5, -4), a.toDoubleVector());
+	}
+	
+	@Test
+	public void dotTest() {
+		assertEquals(19, getA().dot(new Vec3(3, 2, 4)), DoubleVector.EPSILON);
+		assertEquals(19, Vec3.dot(1, 2, 3, 3, 2, 4), DoubleVector.EPSILON);
+	}
+	
+	@Test
+	public void normalizeTest() {
+		Vec3 a = getA().normalize();
+		assertEquals(new DoubleVector(1, 2, 3).normalize(), a.toDoubleVector());
+		assertEquals(new DoubleVector(0, 0, 0), new Vec3().normalize().toDoubleVector());
+	}
+}
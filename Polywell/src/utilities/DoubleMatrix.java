@@ -1,6 +1,7 @@
 package utilities;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Represents an arbitrarily sized immutable matrix of doubles.
@@ -9,9 +10,12 @@ import java.io.Serializable;
 public class DoubleMatrix implements Cloneable, Serializable {
 	public static final double EPSILON = 1.0E-7;
 	
-	private int rows;
-	private int columns;
-	private double[][] matrix;
+	private final int rows;
+	private final int columns;
+	/**
+	 * Elements stored in row-major order
+	 */
+	private final double[] values;
 	
 	/**
 	 * Creates an empty matrix with the given number of rows and columns.
@@ -19,12 +23,7 @@ public class DoubleMatrix implements Cloneable, Serializable {
 	 * @param columns number of columns
 	 */
 	public DoubleMatrix(int rows, int columns) {
-		if (rows <= 0 || columns <= 0) {
-			throw new IllegalArgumentException("Dimensions must be positive");
-		}
-		this.rows = rows;
-		this.columns = columns;
-		matrix = new double[rows][columns];
+		this(rows, columns, new double[checkDimensions(rows, columns)]);
 	}
 	
 	/**
@@ -34,17 +33,51 @@ public class DoubleMatrix implements Cloneable, Serializable {
 	public DoubleMatrix(DoubleVector... rows) {
 		this.rows = rows.length;
 		this.columns = rows[0].getSize();
-		matrix = new double[this.rows][columns];
+		values = new double[this.rows * columns];
 		for (int r = 0; r < this.rows; r++) {
 			if (rows[r].getSize() != columns) {
 				throw new IllegalArgumentException("All rows must be the same length");
 			}
 			for (int c = 0; c < columns; c++) {
-				matrix[r][c] = rows[r].getValue(c);
+				values[r * columns + c] = rows[r].getValue(c);
 			}
 		}
 	}
 	
+	/**
+	 * Creates a matrix backed by the given row-major array without copying it
+	 */
+	private DoubleMatrix(int rows, int columns, double[] values) {
+		this.rows = rows;
+		this.columns = columns;
+		this.values = values;
+	}
+	
+	/**
+	 * Checks that the given dimensions are positive
+	 * @return number of elements in a matrix of the given dimensions
+	 */
+	private static int checkDimensions(int rows, int columns) {
+		if (rows <= 0 || columns <= 0) {
+			throw new IllegalArgumentException("Dimensions must be positive");
+		}
+		return rows * columns;
+	}
+	
+	/**
+	 * Gets the number of rows in the matrix
+	 */
+	public int getRows() {
+		return rows;
+	}
+	
+	/**
+	 * Gets the number of columns in the matrix
+	 */
+	public int getColumns() {
+		return columns;
+	}
+	
 	/**
 	 * Gets the value at a given coordinate in the matrix
 	 * @param row row value
@@ -52,38 +85,49 @@ public class DoubleMatrix implements Cloneable, Serializable {
 	 * @return value at given point
 	 */
 	public double getValue(int row, int column) {
-		return matrix[row][column];
+		checkIndex(row, column);
+		return values[row * columns + column];
 	}
 	
 	/**
 	 * Sets the value at a given coordinate in the matrix
 	 */
 	public DoubleMatrix setValue(int row, int column, double val) {
-		DoubleMatrix result = clone();
-		result.matrix[row][column] = val;
-		return result;
+		checkIndex(row, column);
+		double[] result = values.clone();
+		result[row * columns + column] = val;
+		return new DoubleMatrix(rows, columns, result);
+	}
+	
+	/**
+	 * Checks that the given coordinate lies inside the matrix
+	 */
+	private void checkIndex(int row, int column) {
+		if (row < 0 || row >= rows || column < 0 || column >= columns) {
+			throw new IndexOutOfBoundsException();
+		}
 	}
 	
 	/**
 	 * Gets a row from the matrix.
 	 */
 	public DoubleVector getRow(int row) {
-		DoubleVector result = new DoubleVector(columns);
-		for (int c = 0; c < columns; c++) {
-			result = result.setValue(c, matrix[row][c]);
-		}
-		return result;
+		checkIndex(row, 0);
+		double[] result = new double[columns];
+		System.arraycopy(values, row * columns, result, 0, columns);
+		return new DoubleVector(result);
 	}
 	
 	/**
 	 * Gets a column from the matrix.
 	 */
 	public DoubleVector getColumn(int column) {
-		DoubleVector result = new DoubleVector(rows);
+		checkIndex(0, column);
+		double[] result = new double[rows];
 		for (int r = 0; r < rows; r++) {
-			result = result.setValue(r, matrix[r][column]);
+			result[r] = values[r * columns + column];
 		}
-		return result;
+		return new DoubleVector(result);
 	}
 	
 	/**
@@ -93,33 +137,36 @@ public class DoubleMatrix implements Cloneable, Serializable {
 		if (rows != other.rows || columns != other.columns) {
 			throw new IllegalArgumentException("Matrices must be same size");
 		}
-		DoubleMatrix result = new DoubleMatrix(rows, columns);
-		for (int r = 0; r < rows; r++) {
-			for (int c = 0; c < columns; c++) {
-				result = result.setValue(r, c, getValue(r, c) + other.getValue(r, c));
-			}
+		double[] result = new double[values.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = values[i] + other.values[i];
 		}
-		return result;
+		return new DoubleMatrix(rows, columns, result);
 	}
 	
 	/**
 	 * Subtracts another matrix
 	 */
 	public DoubleMatrix subtract(DoubleMatrix other) {
-		return add(other.multiply(-1));
+		if (rows != other.rows || columns != other.columns) {
+			throw new IllegalArgumentException("Matrices must be same size");
+		}
+		double[] result = new double[values.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = values[i] - other.values[i];
+		}
+		return new DoubleMatrix(rows, columns, result);
 	}
 	
 	/**
 	 * Multiplies the matrix by a scalar.
 	 */
 	public DoubleMatrix multiply(double scalar) {
-		DoubleMatrix result = new DoubleMatrix(rows, columns);
-		for (int r = 0; r < rows; r++) {
-			for (int c = 0; c < columns; c++) {
-				result = result.setValue(r, c, getValue(r, c) * scalar);
-			}
+		double[] result = new double[values.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = values[i] * scalar;
 		}
-		return result;
+		return new DoubleMatrix(rows, columns, result);
 	}
 	
 	/**
@@ -140,15 +187,49 @@ public class DoubleMatrix implements Cloneable, Serializable {
 			throw new IllegalArgumentException("Length of vector must be equal to the number" +
 					"of columns in the matrix.");
 		}
-		DoubleVector result = new DoubleVector(rows);
+		double[] result = new double[rows];
 		for (int r = 0; r < rows; r++) {
 			double total = 0;
+			int offset = r * columns;
+			for (int c = 0; c < columns; c++) {
+				total += x.getValue(c) * values[offset + c];
+			}
+			result[r] = total;
+		}
+		return new DoubleVector(result);
+	}
+	
+	/**
+	 * Multiplies the matrix by another matrix
+	 */
+	public DoubleMatrix multiply(DoubleMatrix other) {
+		if (other.rows != columns) {
+			throw new IllegalArgumentException("Number of rows in the other matrix must be equal to " +
+					"the number of columns in this matrix.");
+		}
+		double[] result = new double[rows * other.columns];
+		for (int r = 0; r < rows; r++) {
+			for (int k = 0; k < columns; k++) {
+				double a = values[r * columns + k];
+				for (int c = 0; c < other.columns; c++) {
+					result[r * other.columns + c] += a * other.values[k * other.columns + c];
+				}
+			}
+		}
+		return new DoubleMatrix(rows, other.columns, result);
+	}
+	
+	/**
+	 * Gets the transpose of the matrix
+	 */
+	public DoubleMatrix transpose() {
+		double[] result = new double[values.length];
+		for (int r = 0; r < rows; r++) {
 			for (int c = 0; c < columns; c++) {
-				total += x.getValue(c) * matrix[r][c];
+				result[c * rows + r] = values[r * columns + c];
 			}
-			result = result.setValue(r, total);
 		}
-		return result;
+		return new DoubleMatrix(columns, rows, result);
 	}
 	
 	/**
@@ -166,36 +247,36 @@ public class DoubleMatrix implements Cloneable, Serializable {
 		}
 		a = a.normalize();
 		b = b.normalize();
-		DoubleMatrix result = new DoubleMatrix(3, 3);
+		Builder result = new Builder(3, 3);
 		DoubleVector crossRotation = a.crossProduct(b).normalize();
 		double dotRotation = a.dotProduct(b);
+		if (crossRotation.norm() == 0 && dotRotation < 0) {
+			// Opposite vectors, rotate half a turn about any axis perpendicular to a
+			DoubleVector other = Math.abs(a.getValue(0)) < 0.9 ? new DoubleVector(1, 0, 0) 
+					: new DoubleVector(0, 1, 0);
+			crossRotation = a.crossProduct(other).normalize();
+		}
 		double cos = dotRotation;
 		double sin = Math.sqrt(1 - cos * cos);
 		double x = crossRotation.getValue(0);
 		double y = crossRotation.getValue(1);
 		double z = crossRotation.getValue(2);
 		
-		result = result.setValue(0, 0, 1 + (1 - cos) * (x * x - 1));
-		result = result.setValue(0, 1, -1 * z * sin + (1 - cos) * x * y);
-		result = result.setValue(0, 2, y * sin + (1 - cos) * x * z);
-		result = result.setValue(1, 0, z * sin + (1-cos) * x * y);
-		result = result.setValue(1, 1, 1 + (1 - cos) * (y * y - 1));
-		result = result.setValue(1, 2, -1 * x * sin + (1 - cos) * y * z);
-		result = result.setValue(2, 0, -1 * y * sin + (1 - cos) * x * z);
-		result = result.setValue(2, 1, x * sin + (1 - cos) * y * z);
-		result = result.setValue(2, 2, 1 + (1 - cos) * (z * z - 1));
-		return result;
+		result.setValue(0, 0, 1 + (1 - cos) * (x * x - 1));
+		result.setValue(0, 1, -1 * z * sin + (1 - cos) * x * y);
+		result.setValue(0, 2, y * sin + (1 - cos) * x * z);
+		result.setValue(1, 0, z * sin + (1-cos) * x * y);
+		result.setValue(1, 1, 1 + (1 - cos) * (y * y - 1));
+		result.setValue(1, 2, -1 * x * sin + (1 - cos) * y * z);
+		result.setValue(2, 0, -1 * y * sin + (1 - cos) * x * z);
+		result.setValue(2, 1, x * sin + (1 - cos) * y * z);
+		result.setValue(2, 2, 1 + (1 - cos) * (z * z - 1));
+		return result.build();
 	}
 	
 	@Override
 	public DoubleMatrix clone() {
-		DoubleMatrix result = new DoubleMatrix(rows, columns);
-		for (int r = 0; r < rows; r++) {
-			for (int c = 0; c < columns; c++) {
-				result.matrix[r][c] = matrix[r][c];
-			}
-		}
-		return result;
+		return new DoubleMatrix(rows, columns, values.clone());
 	}
 	
 	@Override
@@ -207,14 +288,22 @@ public class DoubleMatrix implements Cloneable, Serializable {
 	 * Compares two matrices with the given level of accuracy
 	 */
 	public boolean equals(DoubleMatrix other, double accuracy) {
-		for (int r = 0; r < rows; r++) {
-			if (!getRow(r).equals(other.getRow(r))) {
+		if (rows != other.rows || columns != other.columns) {
+			return false;
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (Math.abs(values[i] - other.values[i]) >= accuracy) {
 				return false;
 			}
 		}
 		return true;
 	}
 	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+	
 	@Override
 	public String toString() {
 		String result = "";
@@ -223,4 +312,73 @@ public class DoubleMatrix implements Cloneable, Serializable {
 		}
 		return result.substring(0, result.length() - 1);
 	}
+	
+	/**
+	 * Mutable builder which fills in the elements of a matrix in place before creating the immutable
+	 * matrix. Avoids the copy made by every call to DoubleMatrix.setValue.
+	 */
+	public static class Builder {
+		private final int rows;
+		private final int columns;
+		private final double[] values;
+		
+		/**
+		 * Creates a builder for an empty matrix with the given number of rows and columns
+		 */
+		public Builder(int rows, int columns) {
+			this.rows = rows;
+			this.columns = columns;
+			values = new double[checkDimensions(rows, columns)];
+		}
+		
+		/**
+		 * Creates a builder starting from the elements of the given matrix
+		 */
+		public Builder(DoubleMatrix matrix) {
+			rows = matrix.rows;
+			columns = matrix.columns;
+			values = matrix.values.clone();
+		}
+		
+		/**
+		 * Gets the value at a given coordinate
+		 */
+		public double getValue(int row, int column) {
+			checkIndex(row, column);
+			return values[row * columns + column];
+		}
+		
+		/**
+		 * Sets the value at a given coordinate
+		 * @return this builder
+		 */
+		public Builder setValue(int row, int column, double val) {
+			checkIndex(row, column);
+			values[row * columns + column] = val;
+			return this;
+		}
+		
+		/**
+		 * Adds to the value at a given coordinate
+		 * @return this builder
+		 */
+		public Builder addValue(int row, int column, double val) {
+			checkIndex(row, column);
+			values[row * columns + column] += val;
+			return this;
+		}
+		
+		/**
+		 * Creates a matrix with the current elements. The builder may continue to be used afterwards.
+		 */
+		public DoubleMatrix build() {
+			return new DoubleMatrix(rows, columns, values.clone());
+		}
+		
+		private void checkIndex(int row, int column) {
+			if (row < 0 || row >= rows || column < 0 || column >= columns) {
+				throw new IndexOutOfBoundsException();
+			}
+		}
+	}
 }
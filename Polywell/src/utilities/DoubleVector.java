@@ -1,10 +1,11 @@
 package utilities;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-import com.google.common.base.Objects;
-import com.google.common.collect.Lists;
+import com.google.common.primitives.Doubles;
 
 /**
  * Immutable representation of a vector of doubles
@@ -14,7 +15,7 @@ public class DoubleVector implements Cloneable, Serializable{
 	public static final double EPSILON = 1.0E-7;
 	
 	private final int size;
-	private List<Double> values;
+	private final double[] values;
 	
 	/**
 	 * Creates a new vector of the given size
@@ -24,21 +25,14 @@ public class DoubleVector implements Cloneable, Serializable{
 			throw new IllegalArgumentException("Size of vector must be positive.");
 		}
 		this.size = size;
-		values = Lists.<Double>newArrayList();
-		for (int i = 0; i < size; i++) {
-			values.add(0.0);
-		}
+		values = new double[size];
 	}
 	
 	/**
 	 * Creates a new vector with the given data
 	 */
 	public DoubleVector(double... values) {
-		size = values.length;
-		this.values = Lists.<Double>newArrayList();
-		for (int i = 0; i < size; i++) {
-			this.values.add(values[i]);
-		}
+		this(values, true);
 	}
 	
 	/**
@@ -46,39 +40,51 @@ public class DoubleVector implements Cloneable, Serializable{
 	 */
 	public DoubleVector(List<Double> values) {
 		size = values.size();
-		this.values = Lists.<Double>newArrayList();
-		for (int i = 0; i < size; i++) {
-			this.values.add(values.get(i));
-		}
+		this.values = Doubles.toArray(values);
+	}
+	
+	/**
+	 * Creates a new vector backed by the given array, copying it only if requested
+	 */
+	private DoubleVector(double[] values, boolean copy) {
+		size = values.length;
+		this.values = copy ? values.clone() : values;
 	}
 	
 	/**
 	 * Gets a list of the data in this vector
 	 */
 	public List<Double> getValues() {
-		return values;
+		return Collections.unmodifiableList(Doubles.asList(values));
+	}
+	
+	/**
+	 * Copies the data in this vector into a new array
+	 */
+	public double[] toArray() {
+		return values.clone();
 	}
 	
 	/**
 	 * Gets the value at a given index
 	 */
-	public Double getValue(int index) {
+	public double getValue(int index) {
 		if (index >= size) {
 			throw new IndexOutOfBoundsException();
 		}
-		return values.get(index);
+		return values[index];
 	}
 	
 	/**
 	 * Sets the value at a given index
 	 */
-	public DoubleVector setValue(int index, Double value) {
+	public DoubleVector setValue(int index, double value) {
 		if (index >= size) {
 			throw new IndexOutOfBoundsException();
 		}
-		DoubleVector result = clone();
-		result.values.set(index, value);
-		return result;
+		double[] result = values.clone();
+		result[index] = value;
+		return new DoubleVector(result, false);
 	}
 	
 	/**
@@ -95,29 +101,36 @@ public class DoubleVector implements Cloneable, Serializable{
 		if (size != other.size) {
 			throw new IllegalArgumentException("Size of vectors must be equal");
 		}
-		DoubleVector result = new DoubleVector(size);
+		double[] result = new double[size];
 		for (int i = 0; i < size; i++) {
-			result = result.setValue(i, getValue(i) + other.getValue(i));
+			result[i] = values[i] + other.values[i];
 		}
-		return result;
+		return new DoubleVector(result, false);
 	}
 	
 	/**
 	 * Subtracts another vector
 	 */
 	public DoubleVector subtract(DoubleVector other) {
-		return add(other.multiply(-1));
+		if (size != other.size) {
+			throw new IllegalArgumentException("Size of vectors must be equal");
+		}
+		double[] result = new double[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = values[i] - other.values[i];
+		}
+		return new DoubleVector(result, false);
 	}
 	
 	/**
 	 * Multiplies by a scalar
 	 */
 	public DoubleVector multiply(double scalar) {
-		DoubleVector result = new DoubleVector(size);
+		double[] result = new double[size];
 		for (int i = 0; i < size; i++) {
-			result = result.setValue(i, getValue(i) * scalar);
+			result[i] = values[i] * scalar;
 		}
-		return result;
+		return new DoubleVector(result, false);
 	}
 	
 	/**
@@ -139,7 +152,7 @@ public class DoubleVector implements Cloneable, Serializable{
 		}
 		double result = 0;
 		for (int i = 0; i < size; i++) {
-			result += getValue(i) * other.getValue(i);
+			result += values[i] * other.values[i];
 		}
 		return result;
 	}
@@ -151,11 +164,12 @@ public class DoubleVector implements Cloneable, Serializable{
 		if (size != other.size || size != 3) {
 			throw new IllegalArgumentException("Size of vectors must be 3");
 		}
-		DoubleVector result = new DoubleVector(size);
-		result = result.setValue(0, getValue(1) * other.getValue(2) - getValue(2) * other.getValue(1));
-		result = result.setValue(1, getValue(2) * other.getValue(0) - getValue(0) * other.getValue(2));
-		result = result.setValue(2, getValue(0) * other.getValue(1) - getValue(1) * other.getValue(0));
-		return result;
+		double[] a = values;
+		double[] b = other.values;
+		return new DoubleVector(new double[] {
+				a[1] * b[2] - a[2] * b[1],
+				a[2] * b[0] - a[0] * b[2],
+				a[0] * b[1] - a[1] * b[0]}, false);
 	}
 	
 	/**
@@ -165,11 +179,11 @@ public class DoubleVector implements Cloneable, Serializable{
 		if (size != other.size) {
 			throw new IllegalArgumentException("Size of vectors must be equal");
 		}
-		DoubleVector result = new DoubleVector(size);
+		double[] result = new double[size];
 		for (int i = 0; i < size; i++) {
-			result = result.setValue(i, getValue(i) * other.getValue(i));
+			result[i] = values[i] * other.values[i];
 		}
-		return result;
+		return new DoubleVector(result, false);
 	}
 	
 	/**
@@ -179,11 +193,11 @@ public class DoubleVector implements Cloneable, Serializable{
 		if (size != other.size) {
 			throw new IllegalArgumentException("Size of vectors must be equal");
 		}
-		DoubleVector result = new DoubleVector(size);
+		double[] result = new double[size];
 		for (int i = 0; i < size; i++) {
-			result = result.setValue(i, getValue(i) / other.getValue(i));
+			result[i] = values[i] / other.values[i];
 		}
-		return result;
+		return new DoubleVector(result, false);
 	}
 	
 	/**
@@ -197,21 +211,22 @@ public class DoubleVector implements Cloneable, Serializable{
 	 * Computes the normalized version of this vector
 	 */
 	public DoubleVector normalize() {
-		if (this.norm() == 0) {
+		double norm = norm();
+		if (norm == 0) {
 			return this;
 		}
-		return this.divide(norm());
+		return multiply(1 / norm);
 	}
 	
 	/**
 	 * Takes the absolute value of each element in this vector
 	 */
 	public DoubleVector abs() {
-		DoubleVector result = new DoubleVector(size);
+		double[] result = new double[size];
 		for (int i = 0; i < size; i++) {
-			result = result.setValue(i, Math.abs(getValue(i)));
+			result[i] = Math.abs(values[i]);
 		}
-		return result;
+		return new DoubleVector(result, false);
 	}
 	
 	/**
@@ -220,7 +235,7 @@ public class DoubleVector implements Cloneable, Serializable{
 	public double max() {
 		double max = Double.NEGATIVE_INFINITY;
 		for (int i = 0; i < size; i++) {
-			max = Math.max(max, getValue(i));
+			max = Math.max(max, values[i]);
 		}
 		return max;
  	}
@@ -231,7 +246,7 @@ public class DoubleVector implements Cloneable, Serializable{
 	public double min() {
 		double min = Double.POSITIVE_INFINITY;
 		for (int i = 0; i < size; i++) {
-			min = Math.min(min, getValue(i));
+			min = Math.min(min, values[i]);
 		}
 		return min;
 	}
@@ -257,11 +272,7 @@ public class DoubleVector implements Cloneable, Serializable{
 	
 	@Override
 	public DoubleVector clone() {
-		DoubleVector result = new DoubleVector(size);
-		for (int i = 0; i < size; i++) {
-			result.values.set(i, getValue(i));
-		}
-		return result;
+		return new DoubleVector(values.clone(), false);
 	}
 	
 	@Override
@@ -274,7 +285,7 @@ public class DoubleVector implements Cloneable, Serializable{
 	 */
 	public boolean equals(DoubleVector other, double accuracy) {
 		for (int i = 0; i < size; i++) {
-			if (Math.abs(getValue(i) - other.getValue(i)) >= accuracy) {
+			if (Math.abs(values[i] - other.values[i]) >= accuracy) {
 				return false;
 			}
 		}
@@ -283,11 +294,11 @@ public class DoubleVector implements Cloneable, Serializable{
 	
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(values);
+		return Arrays.hashCode(values);
 	}
 	
 	@Override
 	public String toString() {
-		return values.toString();
+		return Arrays.toString(values);
 	}
 }
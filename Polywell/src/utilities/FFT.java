@@ -0,0 +1,149 @@
+package utilities;
+
+/**
+ * In place fast Fourier transforms of complex data held as separate arrays of real and imaginary
+ * parts. The length along every dimension must be a power of two. The inverse transform includes the
+ * factor of 1 / N, so a forward transform followed by an inverse one returns the original data.
+ * @author Ryan Dewey
+ */
+public final class FFT {
+	
+	private FFT() {}
+	
+	public static boolean isPowerOfTwo(int n) {
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+	
+	/**
+	 * Gets the smallest power of two which is at least n
+	 */
+	public static int nextPowerOfTwo(int n) {
+		int result = 1;
+		while (result < n) {
+			result <<= 1;
+		}
+		return result;
+	}
+	
+	/**
+	 * Transforms one dimensional data
+	 * @param inverse whether to apply the inverse transform
+	 */
+	public static void transform(double[] re, double[] im, boolean inverse) {
+		int n = re.length;
+		check(n);
+		Twiddles twiddles = new Twiddles(n, inverse);
+		twiddles.transform(re, im, 0, 1);
+		if (inverse) {
+			scale(re, im, 1.0 / n);
+		}
+	}
+	
+	/**
+	 * Transforms three dimensional data stored with index (i * n1 + j) * n2 + k
+	 * @param inverse whether to apply the inverse transform
+	 */
+	public static void transform(double[] re, double[] im, int n0, int n1, int n2, boolean inverse) {
+		check(n0);
+		check(n1);
+		check(n2);
+		if (re.length != n0 * n1 * n2 || im.length != re.length) {
+			throw new IllegalArgumentException("Data must have n0 * n1 * n2 values");
+		}
+		Twiddles twiddles = new Twiddles(n2, inverse);
+		for (int line = 0; line < n0 * n1; line++) {
+			twiddles.transform(re, im, line * n2, 1);
+		}
+		twiddles = new Twiddles(n1, inverse);
+		for (int i = 0; i < n0; i++) {
+			for (int k = 0; k < n2; k++) {
+				twiddles.transform(re, im, i * n1 * n2 + k, n2);
+			}
+		}
+		twiddles = new Twiddles(n0, inverse);
+		for (int line = 0; line < n1 * n2; line++) {
+			twiddles.transform(re, im, line, n1 * n2);
+		}
+		if (inverse) {
+			scale(re, im, 1.0 / re.length);
+		}
+	}
+	
+	private static void check(int n) {
+		if (!isPowerOfTwo(n)) {
+			throw new IllegalArgumentException("Length must be a power of two: " + n);
+		}
+	}
+	
+	private static void scale(double[] re, double[] im, double factor) {
+		for (int i = 0; i < re.length; i++) {
+			re[i] *= factor;
+			im[i] *= factor;
+		}
+	}
+	
+	/**
+	 * Roots of unity and scratch space for transforms of one length. Each line is copied into the
+	 * scratch arrays so that the butterflies work on contiguous memory.
+	 */
+	private static class Twiddles {
+		private final int n;
+		private final double[] cos;
+		private final double[] sin;
+		private final int[] reversed;
+		private final double[] lineRe;
+		private final double[] lineIm;
+		
+		Twiddles(int n, boolean inverse) {
+			this.n = n;
+			cos = new double[n / 2];
+			sin = new double[n / 2];
+			double sign = inverse ? 1 : -1;
+			for (int i = 0; i < n / 2; i++) {
+				cos[i] = Math.cos(2 * Math.PI * i / n);
+				sin[i] = sign * Math.sin(2 * Math.PI * i / n);
+			}
+			reversed = new int[n];
+			int bits = Integer.numberOfTrailingZeros(n);
+			for (int i = 0; i < n; i++) {
+				reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+			}
+			lineRe = new double[n];
+			lineIm = new double[n];
+		}
+		
+		/**
+		 * Transforms the n values starting at offset and separated by stride
+		 */
+		void transform(double[] re, double[] im, int offset, int stride) {
+			for (int i = 0; i < n; i++) {
+				int index = offset + reversed[i] * stride;
+				lineRe[i] = re[index];
+				lineIm[i] = im[index];
+			}
+			for (int size = 2; size <= n; size <<= 1) {
+				int half = size >> 1;
+				int step = n / size;
+				for (int start = 0; start < n; start += size) {
+					for (int k = 0; k < half; k++) {
+						double wr = cos[k * step];
+						double wi = sin[k * step];
+						int a = start + k;
+						int b = a + half;
+						double tr = lineRe[b] * wr - lineIm[b] * wi;
+						double ti = lineRe[b] * wi + lineIm[b] * wr;
+						lineRe[b] = lineRe[a] - tr;
+						lineIm[b] = lineIm[a] - ti;
+						lineRe[a] += tr;
+						lineIm[a] += ti;
+					}
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				int index = offset + i * stride;
+				re[index] = lineRe[i];
+				im[index] = lineIm[i];
+			}
+		}
+	}
+}
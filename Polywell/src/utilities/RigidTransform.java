@@ -0,0 +1,171 @@
+package utilities;
+
+import java.io.Serializable;
+
+/**
+ * Immutable rigid transform of three dimensional space, mapping a point p to R p + t for a rotation
+ * matrix R and translation t. Points can be transformed from raw coordinates without allocating.
+ * @author Ryan Dewey
+ */
+public final class RigidTransform implements Serializable {
+	private final double r00;
+	private final double r01;
+	private final double r02;
+	private final double r10;
+	private final double r11;
+	private final double r12;
+	private final double r20;
+	private final double r21;
+	private final double r22;
+	private final double tx;
+	private final double ty;
+	private final double tz;
+	
+	/**
+	 * Creates the transform p -> rotation p + translation
+	 * @param rotation 3x3 orthogonal matrix
+	 * @param translation vector of size 3
+	 */
+	public RigidTransform(DoubleMatrix rotation, DoubleVector translation) {
+		if (rotation.getRows() != 3 || rotation.getColumns() != 3 || translation.getSize() != 3) {
+			throw new IllegalArgumentException("Rotation must be 3x3 and translation must be size 3");
+		}
+		r00 = rotation.getValue(0, 0);
+		r01 = rotation.getValue(0, 1);
+		r02 = rotation.getValue(0, 2);
+		r10 = rotation.getValue(1, 0);
+		r11 = rotation.getValue(1, 1);
+		r12 = rotation.getValue(1, 2);
+		r20 = rotation.getValue(2, 0);
+		r21 = rotation.getValue(2, 1);
+		r22 = rotation.getValue(2, 2);
+		tx = translation.getValue(0);
+		ty = translation.getValue(1);
+		tz = translation.getValue(2);
+	}
+	
+	/**
+	 * Gets the identity transform
+	 */
+	public static RigidTransform identity() {
+		return new RigidTransform(new DoubleMatrix(new DoubleVector(1, 0, 0), new DoubleVector(0, 1, 0),
+				new DoubleVector(0, 0, 1)), new DoubleVector(0, 0, 0));
+	}
+	
+	/**
+	 * Gets the transform into a local frame, p -> rotation (p - origin)
+	 * @param origin point which is mapped to the origin of the local frame
+	 * @param rotation rotation from global to local axes
+	 */
+	public static RigidTransform toLocalFrame(DoubleVector origin, DoubleMatrix rotation) {
+		return new RigidTransform(rotation, rotation.multiply(origin).multiply(-1));
+	}
+	
+	/**
+	 * Gets the rotation matrix of this transform
+	 */
+	public DoubleMatrix getRotation() {
+		return new DoubleMatrix(new DoubleVector(r00, r01, r02), new DoubleVector(r10, r11, r12), 
+				new DoubleVector(r20, r21, r22));
+	}
+	
+	/**
+	 * Gets the translation of this transform
+	 */
+	public DoubleVector getTranslation() {
+		return new DoubleVector(tx, ty, tz);
+	}
+	
+	/**
+	 * Transforms the point (x, y, z)
+	 * @param result vector to store the transformed point in
+	 * @return result
+	 */
+	public Vec3 apply(double x, double y, double z, Vec3 result) {
+		return result.set(applyX(x, y, z), applyY(x, y, z), applyZ(x, y, z));
+	}
+	
+	/**
+	 * Transforms a point
+	 */
+	public DoubleVector apply(DoubleVector p) {
+		return apply(p.getValue(0), p.getValue(1), p.getValue(2), new Vec3()).toDoubleVector();
+	}
+	
+	/**
+	 * Gets the x component of the transformed point (x, y, z)
+	 */
+	public double applyX(double x, double y, double z) {
+		return r00 * x + r01 * y + r02 * z + tx;
+	}
+	
+	/**
+	 * Gets the y component of the transformed point (x, y, z)
+	 */
+	public double applyY(double x, double y, double z) {
+		return r10 * x + r11 * y + r12 * z + ty;
+	}
+	
+	/**
+	 * Gets the z component of the transformed point (x, y, z)
+	 */
+	public double applyZ(double x, double y, double z) {
+		return r20 * x + r21 * y + r22 * z + tz;
+	}
+	
+	/**
+	 * Rotates the direction (x, y, z) without translating it
+	 * @param result vector to store the rotated direction in
+	 * @return result
+	 */
+	public Vec3 rotate(double x, double y, double z, Vec3 result) {
+		return result.set(r00 * x + r01 * y + r02 * z, r10 * x + r11 * y + r12 * z, 
+				r20 * x + r21 * y + r22 * z);
+	}
+	
+	/**
+	 * Maps a transformed point (x, y, z) back to the original point
+	 * @param result vector to store the original point in
+	 * @return result
+	 */
+	public Vec3 applyInverse(double x, double y, double z, Vec3 result) {
+		return inverseRotate(x - tx, y - ty, z - tz, result);
+	}
+	
+	/**
+	 * Rotates the direction (x, y, z) by the inverse rotation
+	 * @param result vector to store the rotated direction in
+	 * @return result
+	 */
+	public Vec3 inverseRotate(double x, double y, double z, Vec3 result) {
+		return result.set(r00 * x + r10 * y + r20 * z, r01 * x + r11 * y + r21 * z, 
+				r02 * x + r12 * y + r22 * z);
+	}
+	
+	/**
+	 * Gets the inverse of this transform
+	 */
+	public RigidTransform inverse() {
+		DoubleMatrix inverseRotation = getRotation().transpose();
+		return new RigidTransform(inverseRotation, inverseRotation.multiply(getTranslation()).multiply(-1));
+	}
+	
+	/**
+	 * Gets the transform which applies the given transform and then this one
+	 */
+	public RigidTransform compose(RigidTransform first) {
+		return new RigidTransform(getRotation().multiply(first.getRotation()), apply(first.getTranslation()));
+	}
+	
+	/**
+	 * Gets the determinant of the rotation, 1 for a proper rotation and -1 if it includes a reflection
+	 */
+	public double getDeterminant() {
+		return r00 * (r11 * r22 - r12 * r21) - r01 * (r10 * r22 - r12 * r20) + r02 * (r10 * r21 - r11 * r20);
+	}
+	
+	@Override
+	public String toString() {
+		return getRotation() + "\n" + getTranslation();
+	}
+}
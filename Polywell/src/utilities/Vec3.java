@@ -0,0 +1,186 @@
+package utilities;
+
+/**
+ * Mutable three dimensional vector for use in inner loops where allocating a new DoubleVector for
+ * every intermediate result is too expensive. Operations modify this vector in place and return it
+ * so that calls may be chained.
+ * @author Ryan Dewey
+ */
+public final class Vec3 {
+	private double x;
+	private double y;
+	private double z;
+
+	/**
+	 * Creates a zero vector
+	 */
+	public Vec3() {
+	}
+
+	/**
+	 * Creates a vector with the given components
+	 */
+	public Vec3(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	/**
+	 * Creates a vector with the same components as the given vector of size 3
+	 */
+	public Vec3(DoubleVector v) {
+		set(v);
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	public double getZ() {
+		return z;
+	}
+
+	/**
+	 * Sets the components of this vector
+	 */
+	public Vec3 set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+
+	/**
+	 * Copies the components of another vector
+	 */
+	public Vec3 set(Vec3 other) {
+		return set(other.x, other.y, other.z);
+	}
+
+	/**
+	 * Copies the components of a DoubleVector of size 3
+	 */
+	public Vec3 set(DoubleVector v) {
+		if (v.getSize() != 3) {
+			throw new IllegalArgumentException("Size of vector must be 3");
+		}
+		return set(v.getValue(0), v.getValue(1), v.getValue(2));
+	}
+
+	/**
+	 * Sets every component to 0
+	 */
+	public Vec3 setZero() {
+		return set(0, 0, 0);
+	}
+
+	/**
+	 * Adds another vector into this one
+	 */
+	public Vec3 add(Vec3 other) {
+		return add(other.x, other.y, other.z);
+	}
+
+	/**
+	 * Adds the given components into this vector
+	 */
+	public Vec3 add(double x, double y, double z) {
+		this.x += x;
+		this.y += y;
+		this.z += z;
+		return this;
+	}
+
+	/**
+	 * Subtracts another vector from this one
+	 */
+	public Vec3 subtract(Vec3 other) {
+		return add(-other.x, -other.y, -other.z);
+	}
+
+	/**
+	 * Adds another vector multiplied by a scalar into this one
+	 */
+	public Vec3 addScaled(Vec3 other, double scalar) {
+		return add(other.x * scalar, other.y * scalar, other.z * scalar);
+	}
+
+	/**
+	 * Multiplies this vector by a scalar
+	 */
+	public Vec3 multiply(double scalar) {
+		return set(x * scalar, y * scalar, z * scalar);
+	}
+
+	/**
+	 * Stores the cross product a x b in this vector. Either argument may be this vector.
+	 */
+	public Vec3 cross(Vec3 a, Vec3 b) {
+		return cross(a.x, a.y, a.z, b.x, b.y, b.z, this);
+	}
+
+	/**
+	 * Computes the dot product with another vector
+	 */
+	public double dot(Vec3 other) {
+		return dot(x, y, z, other.x, other.y, other.z);
+	}
+
+	/**
+	 * Computes the norm of this vector
+	 */
+	public double norm() {
+		return Math.sqrt(dot(this));
+	}
+
+	/**
+	 * Scales this vector to unit length. A zero vector is left unchanged.
+	 */
+	public Vec3 normalize() {
+		double norm = norm();
+		if (norm == 0) {
+			return this;
+		}
+		return multiply(1 / norm);
+	}
+
+	/**
+	 * Copies this vector into a new immutable DoubleVector
+	 */
+	public DoubleVector toDoubleVector() {
+		return new DoubleVector(x, y, z);
+	}
+
+	/**
+	 * Computes the dot product of (ax, ay, az) and (bx, by, bz)
+	 */
+	public static double dot(double ax, double ay, double az, double bx, double by, double bz) {
+		return ax * bx + ay * by + az * bz;
+	}
+
+	/**
+	 * Computes the norm of (x, y, z)
+	 */
+	public static double norm(double x, double y, double z) {
+		return Math.sqrt(x * x + y * y + z * z);
+	}
+
+	/**
+	 * Stores the cross product of (ax, ay, az) and (bx, by, bz) in result
+	 * @return result
+	 */
+	public static Vec3 cross(double ax, double ay, double az, double bx, double by, double bz,
+			Vec3 result) {
+		return result.set(ay * bz - az * by, az * bx - ax * bz, ax * by - ay * bx);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + x + ", " + y + ", " + z + "]";
+	}
+}
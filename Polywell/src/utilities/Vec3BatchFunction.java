@@ -0,0 +1,21 @@
+package utilities;
+
+/**
+ * Vec3Function which can also evaluate many points in one call. Points and results are held in
+ * parallel arrays of x, y, and z components.
+ * @author Ryan Dewey
+ */
+public interface Vec3BatchFunction extends Vec3Function {
+	/**
+	 * Evaluates the function at the first n points (x[i], y[i], z[i])
+	 * @param x x components of the points
+	 * @param y y components of the points
+	 * @param z z components of the points
+	 * @param n number of points to evaluate
+	 * @param resultX array to store the x components of the values in
+	 * @param resultY array to store the y components of the values in
+	 * @param resultZ array to store the z components of the values in
+	 */
+	public void applyBatch(double[] x, double[] y, double[] z, int n, 
+			double[] resultX, double[] resultY, double[] resultZ);
+}
@@ -0,0 +1,14 @@
+package utilities;
+
+/**
+ * Function from a point in three dimensional space to a three dimensional vector. The result is
+ * written into a caller supplied vector so that repeated evaluation does not allocate.
+ * @author Ryan Dewey
+ */
+public interface Vec3Function {
+	/**
+	 * Evaluates the function at (x, y, z)
+	 * @param result vector to store the value in
+	 */
+	public void apply(double x, double y, double z, Vec3 result);
+}